@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+
+import com.gocypher.cybench.launcher.model.BenchmarkOverviewReport;
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+import com.gocypher.cybench.launcher.plugin.utils.PluginUtils;
+
+/**
+ * Runs benchmarks of all reactor modules in a single execution.
+ * <p>
+ * Class directories and libraries of every module having {@code META-INF/BenchmarkList} are added to benchmarks
+ * classpath, so JMH reads benchmark lists of all modules as one list and runs them through the same scheduler.
+ * Environment properties are collected once and single report is produced, where every benchmark is marked by
+ * {@code module} metadata and report settings list benchmarks of every module.
+ */
+@Mojo(name = "aggregate", aggregator = true, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, defaultPhase = LifecyclePhase.INTEGRATION_TEST)
+public class CyBenchAggregateMojo extends CyBenchLauncherMojo {
+
+    private static final String BENCHMARK_LIST = "META-INF/BenchmarkList";
+
+    @Parameter(defaultValue = "${reactorProjects}", required = true, readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    private final List<MavenProject> benchmarkModules = new ArrayList<>();
+    private final Map<String, String> classModules = new HashMap<>();
+
+    @Override
+    protected void resolveClasspath() throws Exception {
+        for (MavenProject module : reactorProjects) {
+            List<BenchmarkListEntry> entries = readBenchmarkList(module);
+            if (entries.isEmpty()) {
+                getLog().debug("No benchmarks found in module " + module.getArtifactId());
+                continue;
+            }
+            getLog().info("Found " + entries.size() + " benchmarks in module " + module.getArtifactId());
+            PluginUtils.resolveAndUpdateClasspath(getLog(), module, getPluginContext(), classpathScope);
+            benchmarkModules.add(module);
+            for (BenchmarkListEntry entry : entries) {
+                String moduleId = getModuleId(module);
+                String otherModuleId = classModules.putIfAbsent(entry.getUserClassQName(), moduleId);
+                if (otherModuleId != null && !otherModuleId.equals(moduleId)) {
+                    getLog().warn("Benchmark class " + entry.getUserClassQName() + " is found in modules "
+                            + otherModuleId + " and " + moduleId + ", only one of them will be run");
+                }
+            }
+        }
+    }
+
+    private List<BenchmarkListEntry> readBenchmarkList(MavenProject module) throws IOException {
+        List<BenchmarkListEntry> entries = new ArrayList<>();
+        for (File classDir : PluginUtils.getClassDirectories(module)) {
+            File benchmarkList = new File(classDir, BENCHMARK_LIST);
+            if (!benchmarkList.isFile()) {
+                continue;
+            }
+            for (String line : Files.readAllLines(benchmarkList.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    entries.add(new BenchmarkListEntry(line));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String getModuleId(MavenProject module) {
+        return module.getGroupId() + ":" + module.getArtifactId();
+    }
+
+    @Override
+    protected List<File> getClassDirectories() {
+        List<File> classDirs = new ArrayList<>();
+        for (MavenProject module : benchmarkModules) {
+            classDirs.addAll(PluginUtils.getClassDirectories(module));
+        }
+        return classDirs;
+    }
+
+    @Override
+    public Collection<RunResult> runBenchmarks(BenchmarkingContext benchContext) throws Exception {
+        Collection<RunResult> results = super.runBenchmarks(benchContext);
+        for (RunResult result : results) {
+            String moduleId = getModuleId(result);
+            if (moduleId != null) {
+                PluginUtils.addBenchmarkMetadata(benchContext, result.getParams().getBenchmark(), "module",
+                        moduleId);
+            }
+        }
+        return results;
+    }
+
+    private String getModuleId(RunResult result) {
+        String benchmark = result.getParams().getBenchmark();
+        return classModules.get(benchmark.substring(0, benchmark.lastIndexOf('.')));
+    }
+
+    @Override
+    public BenchmarkOverviewReport processResults(BenchmarkingContext benchContext,
+            Map<String, Object> benchmarkSettings, Collection<RunResult> results) {
+        Map<String, SortedSet<String>> moduleBenchmarks = new TreeMap<>();
+        for (RunResult result : results) {
+            String moduleId = getModuleId(result);
+            moduleBenchmarks.computeIfAbsent(moduleId == null ? "unknown" : moduleId, k -> new TreeSet<>())
+                    .add(result.getParams().getBenchmark());
+        }
+        List<Map<String, Object>> modules = new ArrayList<>();
+        for (MavenProject module : benchmarkModules) {
+            Map<String, Object> section = new LinkedHashMap<>();
+            section.put("module", getModuleId(module));
+            section.put("version", module.getVersion());
+            section.put("benchmarks", moduleBenchmarks.getOrDefault(getModuleId(module), new TreeSet<>()));
+            modules.add(section);
+        }
+        benchmarkSettings.put("benchModules", modules);
+        return super.processResults(benchContext, benchmarkSettings, results);
+    }
+}
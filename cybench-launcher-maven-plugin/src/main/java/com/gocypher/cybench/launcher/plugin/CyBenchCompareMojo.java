@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.gocypher.cybench.core.utils.JSONUtils;
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+import com.gocypher.cybench.launcher.plugin.utils.ABComparison;
+import com.gocypher.cybench.launcher.plugin.utils.ParallelForkScheduler;
+import com.gocypher.cybench.launcher.plugin.utils.PluginUtils;
+
+/**
+ * Compares benchmarks performance of current project build against baseline version of project artifact taken from
+ * local Maven repository.
+ * <p>
+ * Baseline classpath is the same as current benchmarks classpath, only project output directory is replaced by
+ * baseline artifact jar. Forks of both versions are interleaved in {@code ABBA} order, so machine drift affects both
+ * versions equally. Per-benchmark difference is reported with bootstrap confidence interval and Mann-Whitney test
+ * p-value, e.g. {@code 2.3% faster +/-0.4%}.
+ */
+@Mojo(name = "compare", requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, defaultPhase = LifecyclePhase.INTEGRATION_TEST)
+public class CyBenchCompareMojo extends CyBenchLauncherMojo {
+
+    /**
+     * Baseline version of project artifact to compare current build against
+     */
+    @Parameter(property = "cybench.baselineVersion", required = true)
+    private String baselineVersion;
+    /**
+     * Baseline artifact coordinates {@code groupId:artifactId[:classifier]}, project artifact by default
+     */
+    @Parameter(property = "cybench.baselineArtifact", defaultValue = "")
+    private String baselineArtifact = "";
+    /**
+     * Confidence level of reported improvement intervals
+     */
+    @Parameter(property = "cybench.comparisonConfidence", defaultValue = "0.95")
+    private double comparisonConfidence = 0.95;
+    /**
+     * Number of A/B rounds, every round runs single fork of each version. Fork is the sampling unit of comparison, so
+     * at least two rounds are required, and odd count is rounded up to keep {@code ABBA} order balanced
+     */
+    @Parameter(property = "cybench.comparisonRounds", defaultValue = "6")
+    private int comparisonRounds = 6;
+    @Parameter(defaultValue = "${settings.localRepository}", readonly = true)
+    private String localRepository;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip || System.getProperty(PluginUtils.KEY_SKIP_CYBENCH) != null) {
+            return;
+        }
+        getLog().info("-----------------------------------------------------------------------------------------");
+        getLog().info("                 Starting CyBench A/B comparison against version " + baselineVersion);
+        getLog().info("-----------------------------------------------------------------------------------------");
+        if (comparisonRounds < 2) {
+            throw new MojoExecutionException("A/B comparison needs at least 2 rounds (cybench.comparisonRounds), but "
+                    + comparisonRounds + " is configured");
+        }
+        int rounds = comparisonRounds;
+        if (rounds % 2 != 0) {
+            rounds++;
+            getLog().warn("A/B comparison rounds count " + comparisonRounds + " is odd, running " + rounds
+                    + " rounds to keep ABBA order balanced");
+        }
+
+        String currentClasspath = null;
+        try {
+            File baselineJar = findBaselineJar();
+            resolveClasspath();
+            currentClasspath = System.getProperty(PluginUtils.KEY_SYSTEM_CLASSPATH);
+            String baselineClasspath = getBaselineClasspath(currentClasspath, baselineJar);
+
+            BenchmarkingContext benchContext = new BenchmarkingContext();
+            benchContext.setStartTime(System.currentTimeMillis());
+            initContext(benchContext);
+            analyzeBenchmarkClasses(benchContext);
+            buildOptions(benchContext);
+            Options options = new OptionsBuilder().parent(benchContext.getOptions()).forks(1).build();
+
+            ABComparison comparison = new ABComparison(comparisonConfidence);
+            for (int round = 0; round < rounds; round++) {
+                // ABBA order: every version runs first and second equally often
+                boolean baselineFirst = round % 2 == 0;
+                for (int i = 0; i < 2; i++) {
+                    boolean baseline = baselineFirst == (i == 0);
+                    getLog().info("A/B round " + (round + 1) + "/" + rounds + ": running "
+                            + (baseline ? "baseline " + baselineVersion : "current " + project.getVersion()));
+                    System.setProperty(PluginUtils.KEY_SYSTEM_CLASSPATH,
+                            baseline ? baselineClasspath : currentClasspath);
+                    comparison.addResults(baseline, ParallelForkScheduler.JMH_RUNNER.run(options));
+                }
+            }
+
+            List<Map<String, Object>> comparisons = new ArrayList<>();
+            for (ABComparison.Comparison benchmarkComparison : comparison.compare()) {
+                getLog().info(benchmarkComparison.getBenchmarkId() + ": " + benchmarkComparison);
+                comparisons.add(benchmarkComparison.toMap());
+            }
+            writeComparison(comparisons);
+        } catch (MojoExecutionException exc) {
+            throw exc;
+        } catch (Throwable t) {
+            getLog().error(t);
+            throw new MojoExecutionException("Error during A/B comparison", t);
+        } finally {
+            if (currentClasspath != null) {
+                System.setProperty(PluginUtils.KEY_SYSTEM_CLASSPATH, currentClasspath);
+            }
+        }
+    }
+
+    private File findBaselineJar() throws MojoExecutionException {
+        String[] coordinates = StringUtils.isBlank(baselineArtifact) ? new String[0] : baselineArtifact.split(":");
+        String groupId = coordinates.length > 0 ? coordinates[0].trim() : project.getGroupId();
+        String artifactId = coordinates.length > 1 ? coordinates[1].trim() : project.getArtifactId();
+        String classifier = coordinates.length > 2 ? "-" + coordinates[2].trim() : "";
+        File jar = new File(localRepository, groupId.replace('.', File.separatorChar) + File.separator + artifactId
+                + File.separator + baselineVersion + File.separator + artifactId + "-" + baselineVersion + classifier
+                + ".jar");
+        if (!jar.isFile()) {
+            throw new MojoExecutionException("Baseline artifact " + groupId + ":" + artifactId + ":" + baselineVersion
+                    + " is not found in local repository: " + jar.getAbsolutePath()
+                    + ". Install it, or fetch it using 'mvn dependency:get -Dartifact=" + groupId + ":" + artifactId
+                    + ":" + baselineVersion + "'");
+        }
+        getLog().info("Baseline artifact: " + jar.getAbsolutePath());
+        return jar;
+    }
+
+    private String getBaselineClasspath(String classpath, File baselineJar) throws MojoExecutionException {
+        String outputDirectory = new File(project.getBuild().getOutputDirectory()).getAbsolutePath();
+        List<String> entries = new ArrayList<>();
+        boolean replaced = false;
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty() && new File(entry).getAbsolutePath().equals(outputDirectory)) {
+                if (!replaced) {
+                    entries.add(baselineJar.getAbsolutePath());
+                    replaced = true;
+                }
+            } else {
+                entries.add(entry);
+            }
+        }
+        if (!replaced) {
+            throw new MojoExecutionException(
+                    "Project output directory " + outputDirectory + " is not found in benchmarks classpath");
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private void writeComparison(List<Map<String, Object>> comparisons) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("project", project.getGroupId() + ":" + project.getArtifactId());
+        report.put("baselineVersion", baselineVersion);
+        report.put("currentVersion", project.getVersion());
+        report.put("forks", Math.max(1, forks));
+        report.put("confidence", comparisonConfidence);
+        report.put("comparisons", comparisons);
+
+        File reportFile = new File(reportsFolder,
+                "ab-comparison-" + baselineVersion + "-vs-" + project.getVersion() + ".json");
+        reportFile.getParentFile().mkdirs();
+        Files.write(reportFile.toPath(), JSONUtils.marshalToPrettyJson(report).getBytes(StandardCharsets.UTF_8));
+        getLog().info("A/B comparison saved to: " + reportFile.getAbsolutePath());
+    }
+}
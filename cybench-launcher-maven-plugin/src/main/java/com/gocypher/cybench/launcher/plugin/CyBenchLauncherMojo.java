@@ -19,11 +19,15 @@
 
 package com.gocypher.cybench.launcher.plugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.net.URL;
 import java.text.MessageFormat;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.EnumUtils;
@@ -39,22 +43,49 @@ import org.apache.maven.project.MavenProject;
 import org.openjdk.jmh.profile.GCProfiler;
 import org.openjdk.jmh.profile.SafepointsProfiler;
 import org.openjdk.jmh.results.RunResult;
-import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
 import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.TimeValue;
 
 import com.gocypher.cybench.core.utils.IOUtils;
 import com.gocypher.cybench.core.utils.JMHUtils;
 import com.gocypher.cybench.core.utils.JSONUtils;
-import com.gocypher.cybench.core.utils.SecurityUtils;
 import com.gocypher.cybench.launcher.BenchmarkRunner;
 import com.gocypher.cybench.launcher.environment.services.CollectSystemInformation;
 import com.gocypher.cybench.launcher.model.BenchmarkOverviewReport;
 import com.gocypher.cybench.launcher.model.BenchmarkReport;
 import com.gocypher.cybench.launcher.model.BenchmarkingContext;
 import com.gocypher.cybench.launcher.model.TooManyAnomaliesException;
+import com.gocypher.cybench.launcher.plugin.utils.AdaptiveMeasurementExecutor;
+import com.gocypher.cybench.launcher.plugin.utils.AdaptiveWarmUpExecutor;
+import com.gocypher.cybench.launcher.plugin.utils.AsyncProfilerCapture;
+import com.gocypher.cybench.launcher.plugin.utils.BenchmarkResultsCache;
+import com.gocypher.cybench.launcher.plugin.utils.BenchmarkRules;
+import com.gocypher.cybench.launcher.plugin.utils.BudgetChecker;
+import com.gocypher.cybench.launcher.plugin.utils.BinaryReportStore;
+import com.gocypher.cybench.launcher.plugin.utils.ClassFileUtils;
+import com.gocypher.cybench.launcher.plugin.utils.ClassFingerprintCache;
+import com.gocypher.cybench.launcher.plugin.utils.EnvironmentPreflight;
+import com.gocypher.cybench.launcher.plugin.utils.ForkModeAnalyzer;
+import com.gocypher.cybench.launcher.plugin.utils.JfrRecorder;
+import com.gocypher.cybench.launcher.plugin.utils.JitDiagnostics;
+import com.gocypher.cybench.launcher.plugin.utils.JsonReportHistory;
+import com.gocypher.cybench.launcher.plugin.utils.JvmProfileMatrix;
+import com.gocypher.cybench.launcher.plugin.utils.LatencyDistribution;
+import com.gocypher.cybench.launcher.plugin.utils.LocalComparisonEngine;
+import com.gocypher.cybench.launcher.plugin.utils.LiveProgress;
+import com.gocypher.cybench.launcher.plugin.utils.MemoryFootprint;
+import com.gocypher.cybench.launcher.plugin.utils.NotifyingOutputFormat;
+import com.gocypher.cybench.launcher.plugin.utils.ParallelForkScheduler;
+import com.gocypher.cybench.launcher.plugin.utils.ParamGridExplorer;
 import com.gocypher.cybench.launcher.plugin.utils.PluginUtils;
+import com.gocypher.cybench.launcher.plugin.utils.ProfilerUtils;
+import com.gocypher.cybench.launcher.plugin.utils.ReportOutbox;
+import com.gocypher.cybench.launcher.plugin.utils.ReportHistory;
+import com.gocypher.cybench.launcher.plugin.utils.RunProgressStore;
+import com.gocypher.cybench.launcher.plugin.utils.ThreadScalingSweep;
+import com.gocypher.cybench.launcher.plugin.utils.TimeBudgetPlanner;
 import com.gocypher.cybench.launcher.report.DeliveryService;
 import com.gocypher.cybench.launcher.report.ReportingService;
 import com.gocypher.cybench.launcher.utils.ComputationUtils;
@@ -65,14 +96,16 @@ import com.gocypher.cybench.model.ComparisonConfig;
 @Mojo(name = "cybench", requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, defaultPhase = LifecyclePhase.INTEGRATION_TEST)
 public class CyBenchLauncherMojo extends AbstractMojo {
     private static final String benchSource = "Maven plugin";
+    private static final String KEY_ENVIRONMENT_STABILITY = "environmentStability";
+    private static final int REPORT_DELIVERY_HTTP_TIMEOUT = 60000;
     @Parameter(property = "cybench.classpathScope", defaultValue = "runtime")
     protected String classpathScope;
     @Parameter(property = "cybench.forks", defaultValue = "1")
-    private int forks = 1;
+    protected int forks = 1;
     @Parameter(property = "cybench.threads", defaultValue = "1")
     private int threads = 1;
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
-    private MavenProject project;
+    protected MavenProject project;
     @Parameter(property = "cybench.measurementIterations", defaultValue = "5")
     private int measurementIterations = 5;
     @Parameter(property = "cybench.measurementTime", defaultValue = "10")
@@ -93,10 +126,16 @@ public class CyBenchLauncherMojo extends AbstractMojo {
     private boolean shouldSendReportToCyBench = false;
     @Parameter(property = "cybench.shouldStoreReportToFileSystem", defaultValue = "true")
     private boolean shouldStoreReportToFileSystem = true;
+    /**
+     * A flag which enables appending benchmark results of every run to compact binary report store, used for fast
+     * local history queries
+     */
+    @Parameter(property = "cybench.binaryReportStore", defaultValue = "false")
+    private boolean binaryReportStore = false;
     @Parameter(property = "cybench.reportUploadStatus", defaultValue = "public")
     private String reportUploadStatus = "public";
     @Parameter(property = "cybench.reportsFolder", defaultValue = "./reports")
-    private String reportsFolder = "./reports";
+    protected String reportsFolder = "./reports";
     @Parameter(property = "cybench.reportName", defaultValue = "CyBench Report")
     private String reportName = "CyBench Report";
     @Parameter(property = "cybench.customBenchmarkMetadata", defaultValue = "")
@@ -104,9 +143,29 @@ public class CyBenchLauncherMojo extends AbstractMojo {
     @Parameter(property = "cybench.userProperties", defaultValue = "")
     private String userProperties = "";
     @Parameter(property = "cybench.skip", defaultValue = "false")
-    private boolean skip = false;
+    protected boolean skip = false;
     @Parameter(property = "cybench.shouldFailBuildOnReportDeliveryFailure", defaultValue = "false")
     private boolean shouldFailBuildOnReportDeliveryFailure = false;
+    /**
+     * A flag which enables report delivery in background thread, so build is not blocked by slow delivery endpoint
+     */
+    @Parameter(property = "cybench.asyncReportDelivery", defaultValue = "false")
+    private boolean asyncReportDelivery = false;
+    /**
+     * The time (in seconds) build waits for background report delivery to complete
+     */
+    @Parameter(property = "cybench.reportDeliveryTimeout", defaultValue = "0")
+    private int reportDeliveryTimeout = 0;
+    /**
+     * The maximal number of attempts to deliver single report within one run
+     */
+    @Parameter(property = "cybench.reportDeliveryAttempts", defaultValue = "5")
+    private int reportDeliveryAttempts = 5;
+    /**
+     * Custom report delivery endpoint URL, e.g. reports proxy
+     */
+    @Parameter(property = "cybench.reportDeliveryUrl", defaultValue = "")
+    private String reportDeliveryUrl = "";
     @Parameter(property = "cybench.useCyBenchBenchmarkSettings", defaultValue = "true")
     private boolean useCyBenchBenchmarkSettings = true;
     @Parameter(property = "cybench.jvmArgs", defaultValue = "")
@@ -118,6 +177,219 @@ public class CyBenchLauncherMojo extends AbstractMojo {
     @Parameter(property = "cybench.email", defaultValue = "")
     private String email = "";
 
+    /**
+     * Run only benchmarks which fingerprints (or fingerprints of project classes they depend on) have changed since
+     * last run, and reuse cached results for the rest
+     */
+    @Parameter(property = "cybench.incremental", defaultValue = "false")
+    private boolean incremental = false;
+    /**
+     * Number of benchmark partitions run concurrently, each in its own forked JVMs pinned to disjoint set of CPU cores
+     */
+    @Parameter(property = "cybench.parallelForks", defaultValue = "1")
+    private int parallelForks = 1;
+    /**
+     * Replace fixed warm-up iterations count with adaptive one, ending warm-up when steady state is detected
+     */
+    @Parameter(property = "cybench.adaptiveWarmUp", defaultValue = "false")
+    private boolean adaptiveWarmUp = false;
+    /**
+     * The maximum warm-up iterations count for adaptive warm-up
+     */
+    @Parameter(property = "cybench.adaptiveWarmUpMaxIterations", defaultValue = "20")
+    private int adaptiveWarmUpMaxIterations = 20;
+    /**
+     * The number of consecutive iterations which must be stable to consider benchmark warmed up
+     */
+    @Parameter(property = "cybench.adaptiveWarmUpWindow", defaultValue = "3")
+    private int adaptiveWarmUpWindow = 3;
+    /**
+     * The coefficient of variation bound of iteration scores for steady state
+     */
+    @Parameter(property = "cybench.adaptiveWarmUpCvThreshold", defaultValue = "0.02")
+    private double adaptiveWarmUpCvThreshold = 0.02d;
+    /**
+     * Target 99% confidence interval half-width in percents of the mean. When set, every benchmark is measured fork
+     * by fork until target precision or time budget is reached
+     */
+    @Parameter(property = "cybench.targetPrecision", defaultValue = "-1.0")
+    private double targetPrecision = -1.0d;
+    /**
+     * The time budget (in seconds) of every benchmark measurement in target precision mode
+     */
+    @Parameter(property = "cybench.targetPrecisionTimeBudget", defaultValue = "300")
+    private int targetPrecisionTimeBudget = 300;
+    /**
+     * The time budget (in seconds) of the whole benchmarks run. When set, subset of benchmarks fitting the budget is
+     * picked, prioritizing changed and volatile benchmarks, and iterations are reduced to fit the budget
+     */
+    @Parameter(property = "cybench.timeBudget", defaultValue = "-1")
+    private int timeBudget = -1;
+    /**
+     * A flag which enables analysis of benchmark forks scores: forks are grouped into performance modes, outlier forks
+     * are detected, extra forks are run for benchmarks having differing forks and confirmed outlier forks are excluded
+     * from benchmark result
+     */
+    @Parameter(property = "cybench.forkModeAnalysis", defaultValue = "false")
+    private boolean forkModeAnalysis = false;
+    /**
+     * The number of extra forks to run for benchmarks having differing forks scores
+     */
+    @Parameter(property = "cybench.forkModeExtraForks", defaultValue = "3")
+    private int forkModeExtraForks = 3;
+    /**
+     * A flag which enables memory footprint mode: retained heap, direct buffers and native memory of benchmark trial
+     * state are measured in a separate pass after benchmarks run for every {@code @Param} combination and can be
+     * checked by budgets {@code retainedHeap}, {@code directMemory} and {@code nativeMemory}
+     */
+    @Parameter(property = "cybench.footprint", defaultValue = "false")
+    private boolean footprint = false;
+    /**
+     * The local HTTP port to publish live benchmarks progress on: Prometheus metrics on {@code /metrics} path and run
+     * stop on {@code POST /stop} request. {@code 0} picks free port, {@code -1} disables progress publishing
+     */
+    @Parameter(property = "cybench.progressPort", defaultValue = "-1")
+    private int progressPort = -1;
+    /**
+     * A flag which enables writing live benchmarks progress events to JSON lines file in reports folder
+     */
+    @Parameter(property = "cybench.progressEvents", defaultValue = "false")
+    private boolean progressEvents = false;
+    /**
+     * A flag which enables writing report to disk while benchmarks are running, after every finished benchmark
+     */
+    @Parameter(property = "cybench.streamingReport", defaultValue = "false")
+    private boolean streamingReport = false;
+    /**
+     * A flag which makes interrupted run to resume: benchmarks completed by interrupted run are not executed again and
+     * their stored results are used
+     */
+    @Parameter(property = "cybench.resume", defaultValue = "false")
+    private boolean resume = false;
+    /**
+     * Additional JMH profilers: profiler alias or class name (e.g. {@code perfnorm}, {@code perfasm}), optionally
+     * followed by colon and profiler options. Linux perf based profilers are skipped when perf is not available
+     */
+    @Parameter(property = "cybench.profilers")
+    private List<String> profilers;
+    /**
+     * A flag which enables async-profiler flame graphs capture of every benchmark, in separate profiling passes after
+     * benchmarks are measured
+     */
+    @Parameter(property = "cybench.asyncProfiler", defaultValue = "false")
+    private boolean asyncProfiler = false;
+    /**
+     * Comma separated async-profiler events to capture flame graphs of
+     */
+    @Parameter(property = "cybench.asyncProfilerEvents", defaultValue = "cpu,alloc,lock")
+    private String asyncProfilerEvents = "cpu,alloc,lock";
+    /**
+     * Path of async-profiler library (libasyncProfiler.so), when not set library is looked up by JMH
+     */
+    @Parameter(property = "cybench.asyncProfilerLibPath", defaultValue = "")
+    private String asyncProfilerLibPath = "";
+    /**
+     * A flag which enables Java Flight Recorder recording of every benchmark fork and summary of recordings (hot
+     * methods, contended monitors, deoptimizations and compilation time) in benchmark metadata
+     */
+    @Parameter(property = "cybench.jfr", defaultValue = "false")
+    private boolean jfr = false;
+    /**
+     * JFR settings of benchmark forks recordings: settings name ({@code default}, {@code profile}) or settings file path
+     */
+    @Parameter(property = "cybench.jfrSettings", defaultValue = "profile")
+    private String jfrSettings = "profile";
+    /**
+     * A flag which enables JIT compilation diagnostics of benchmark forks: compilation logs are analyzed for failed
+     * inlining, OSR only compilation, repeated deoptimizations and failed compilations of benchmark hot path
+     */
+    @Parameter(property = "cybench.jitDiagnostics", defaultValue = "false")
+    private boolean jitDiagnostics = false;
+    /**
+     * Benchmark GC budgets: benchmark name pattern followed by colon and budgets separated by semicolon, e.g.
+     * {@code com.example.*Hot*:allocPerOp=0;gcCount=0;gcTime=10}
+     */
+    @Parameter(property = "cybench.budgets")
+    private List<String> budgets;
+    /**
+     * A flag which makes build fail when any of benchmarks exceeds its budget
+     */
+    @Parameter(property = "cybench.failOnBudgetViolation", defaultValue = "true")
+    private boolean failOnBudgetViolation = true;
+    /**
+     * Latency distribution mode overriding benchmark modes: {@code sample} (SampleTime) or {@code ss}
+     * (SingleShotTime). Latency histograms and percentiles are stored in report. Disabled when not set
+     */
+    @Parameter(property = "cybench.latencyMode", defaultValue = "")
+    private String latencyMode = "";
+    /**
+     * Latency percentile gates of all benchmarks in nanoseconds, separated by semicolon, e.g.
+     * {@code p99=250000;p99.9=1000000}. Gates are checked as benchmark budgets
+     */
+    @Parameter(property = "cybench.latencyGates", defaultValue = "")
+    private String latencyGates = "";
+    /**
+     * Environment stability preflight action taken when machine is not fit to benchmark on: {@code off}, {@code warn}
+     * (log findings), {@code wait} (wait for machine to quiet down) or {@code fail} (refuse to run benchmarks)
+     */
+    @Parameter(property = "cybench.stabilityCheck", defaultValue = "off")
+    private String stabilityCheck = "off";
+    /**
+     * Minimal environment stability score (0-100) of machine fit to benchmark on
+     */
+    @Parameter(property = "cybench.stabilityMinScore", defaultValue = "70")
+    private int stabilityMinScore = 70;
+    /**
+     * Maximal time (in seconds) to wait for machine to quiet down in {@code wait} stability check mode
+     */
+    @Parameter(property = "cybench.stabilityWaitTimeout", defaultValue = "300")
+    private int stabilityWaitTimeout = 300;
+    /**
+     * Named JVM profiles benchmarks are additionally run with: profile name, optionally followed by {@code @} and JDK
+     * home or version, and {@code =} followed by JVM arguments, e.g. {@code zgc@17=-XX:+UseZGC -Xmx2g}
+     */
+    @Parameter(property = "cybench.jvmProfiles")
+    private List<String> jvmProfiles;
+    /**
+     * Benchmark {@code @Param} grids: benchmark name pattern followed by colon and parameter values separated by
+     * semicolon, e.g. {@code *ListBench*:size=16..65536*4;impl=array|linked}
+     */
+    @Parameter(property = "cybench.paramGrids")
+    private List<String> paramGrids;
+    /**
+     * A flag which makes parameter grid exploration run fine grid points only near crossovers of implementations
+     */
+    @Parameter(property = "cybench.paramGridRefine", defaultValue = "false")
+    private boolean paramGridRefine = false;
+    /**
+     * Number of refinement passes allowed to explore parameter values between grid points near crossovers
+     */
+    @Parameter(property = "cybench.paramGridRefineDepth", defaultValue = "2")
+    private int paramGridRefineDepth = 2;
+    /**
+     * Thread counts ladder of scaling sweep, e.g. {@code 1,2,4,max} ({@code max} - number of available processors)
+     * or {@code auto} (powers of two up to number of available processors). Scaling sweep is disabled when not set
+     */
+    @Parameter(property = "cybench.threadLadder", defaultValue = "")
+    private String threadLadder = "";
+    /**
+     * Thread group layouts of {@code @Group} benchmarks used by scaling sweep, separated by semicolon, e.g.
+     * {@code 1,1;1,3}
+     */
+    @Parameter(property = "cybench.threadGroups", defaultValue = "")
+    private String threadGroups = "";
+    /**
+     * Allowed decrease of benchmark scalability efficiency compared to previous project version before benchmark is
+     * flagged as scaling regression
+     */
+    @Parameter(property = "cybench.scalingEfficiencyTolerance", defaultValue = "0.1")
+    private double scalingEfficiencyTolerance = 0.1d;
+    /**
+     * A flag which makes build fail when scalability efficiency of any benchmark regresses
+     */
+    @Parameter(property = "cybench.failOnScalingRegression", defaultValue = "false")
+    private boolean failOnScalingRegression = false;
+
     @Parameter(property = "cybench.automationScope", defaultValue = "")
     private String automationScope;
     @Parameter(property = "cybench.automationCompareVersion", defaultValue = "")
@@ -134,16 +406,39 @@ public class CyBenchLauncherMojo extends AbstractMojo {
     private double automationPercentChangeAllowed;
     @Parameter(property = "cybench.automationDeviationsAllowed", defaultValue = "-1")
     private double automationDeviationsAllowed;
+    /**
+     * A flag which makes automated comparison run against report files stored in reports folder instead of CyBench
+     * backend
+     */
+    @Parameter(property = "cybench.automationLocal", defaultValue = "false")
+    private boolean automationLocal = false;
+
+    private RunProgressStore runProgress;
+    private ParamGridExplorer paramGridExplorer;
+    private JvmProfileMatrix jvmProfileMatrix;
+    private TimeBudgetPlanner timeBudgetPlanner;
+    private LiveProgress liveProgress;
+    private ForkModeAnalyzer forkModeAnalyzer;
+    private MemoryFootprint memoryFootprint;
+    private ReportHistory reportHistory;
+    private BinaryReportStore reportStore;
+    /**
+     * Run options without measurement profilers, used by profiling passes which must not be slowed down by them.
+     */
+    private Options unprofiledOptions;
+    private JitDiagnostics jitDiagnosticsCollector;
+    private CompletableFuture<Map<String, String>> reportDelivery;
 
     @Override
     @SuppressWarnings("unchecked")
-    public void execute() throws MojoExecutionException {
+    public void execute() throws MojoExecutionException, MojoFailureException {
         if (!skip && System.getProperty(PluginUtils.KEY_SKIP_CYBENCH) == null) {
             System.setProperty("collectHw", "true");
             long start = System.currentTimeMillis();
             getLog().info("-----------------------------------------------------------------------------------------");
             getLog().info("                        Starting CyBench benchmarks (Maven Plugin)                       ");
             getLog().info("-----------------------------------------------------------------------------------------");
+            EnvironmentPreflight.Action stabilityAction = parseStabilityCheck();
 
             ComparisonConfig automatedComparisonCfg;
             try {
@@ -160,9 +455,10 @@ public class CyBenchLauncherMojo extends AbstractMojo {
             benchContext.setAutomatedComparisonCfg(automatedComparisonCfg);
 
             try {
-                PluginUtils.resolveAndUpdateClasspath(getLog(), project, getPluginContext(), classpathScope);
+                resolveClasspath();
 
                 initContext(benchContext);
+                checkEnvironmentStability(benchContext, stabilityAction);
 
                 Map<String, Object> benchmarkSettings = new HashMap<>();
 
@@ -173,6 +469,17 @@ public class CyBenchLauncherMojo extends AbstractMojo {
                 benchmarkSettings.put("benchMeasurementSeconds", measurementTime);
                 benchmarkSettings.put("benchForkCount", forks);
                 benchmarkSettings.put("benchThreadCount", threads);
+                benchmarkSettings.put("benchParallelForks", parallelForks);
+                benchmarkSettings.put("benchAdaptiveWarmUp", adaptiveWarmUp);
+                benchmarkSettings.put("benchTargetPrecision", targetPrecision);
+                benchmarkSettings.put("benchProfilers", profilers);
+                benchmarkSettings.put("benchJfr", jfr);
+                benchmarkSettings.put("benchJitDiagnostics", jitDiagnostics);
+                benchmarkSettings.put("benchLatencyMode", latencyMode);
+                benchmarkSettings.put("benchThreadLadder", threadLadder);
+                benchmarkSettings.put("benchTimeBudget", timeBudget);
+                benchmarkSettings.put("benchForkModeAnalysis", forkModeAnalysis);
+                benchmarkSettings.put("benchFootprint", footprint);
 
                 if (StringUtils.isEmpty(reportName)) {
                     reportName = MessageFormat.format("Benchmark for {0}:{1}:{2}", project.getGroupId(),
@@ -191,11 +498,58 @@ public class CyBenchLauncherMojo extends AbstractMojo {
                 Collection<RunResult> results = runBenchmarks(benchContext);
 
                 getLog().info("Benchmark finished, executed tests count: " + results.size());
+                if (paramGridExplorer != null && !paramGridExplorer.getMatrices().isEmpty()) {
+                    benchmarkSettings.put("paramMatrices", paramGridExplorer.getMatrices());
+                }
+                if (timeBudgetPlanner != null) {
+                    benchmarkSettings.put("timeBudgetPlan", timeBudgetPlanner.toMap());
+                }
+                if (isStopRequested()) {
+                    benchmarkSettings.put("benchRunStopped", true);
+                }
+                if (forkModeAnalyzer != null) {
+                    benchmarkSettings.put("forkModeAnalysis", forkModeAnalyzer.getAnalyses());
+                }
+                if (jitDiagnosticsCollector != null) {
+                    benchmarkSettings.put("jitUnstableBenchmarks", jitDiagnosticsCollector.getUnstableBenchmarks());
+                }
+                if (memoryFootprint != null) {
+                    benchmarkSettings.put("memoryFootprint", memoryFootprint.toMaps());
+                }
+                if (jvmProfileMatrix != null) {
+                    benchmarkSettings.put("benchJvmProfiles", jvmProfileMatrix.getProfiles());
+                    benchmarkSettings.put("jvmProfileMatrix", jvmProfileMatrix.getMatrix());
+                }
 
                 BenchmarkOverviewReport report = processResults(benchContext, benchmarkSettings, results);
+                List<BudgetChecker.Violation> budgetViolations = checkBudgets(benchContext, report);
+                if (!budgetViolations.isEmpty()) {
+                    benchmarkSettings.put("budgetViolations", BudgetChecker.toMaps(budgetViolations));
+                    report.setBenchmarkSettings(benchmarkSettings);
+                }
+                List<ThreadScalingSweep.Regression> scalingRegressions = checkScalingRegressions(report);
+                if (!scalingRegressions.isEmpty()) {
+                    benchmarkSettings.put("scalingRegressions", ThreadScalingSweep.toMaps(scalingRegressions));
+                    report.setBenchmarkSettings(benchmarkSettings);
+                }
+                if (runProgress != null) {
+                    // all benchmarks are finished, nothing left to resume
+                    runProgress.clear();
+                }
                 sendReport(benchContext, report);
+
+                if (failOnBudgetViolation && !budgetViolations.isEmpty()) {
+                    throw new MojoFailureException(
+                            "Benchmark budgets violated: " + budgetViolations.size() + " violations found");
+                }
+                if (failOnScalingRegression && !scalingRegressions.isEmpty()) {
+                    throw new MojoFailureException(
+                            "Benchmark scaling regressed: " + scalingRegressions.size() + " regressions found");
+                }
             } catch (TooManyAnomaliesException e) {
                 throw new MojoExecutionException("Too many anomalies found during benchmarks run: " + e.getMessage());
+            } catch (MojoFailureException e) {
+                throw e;
             } catch (Throwable t) {
                 getLog().error(t);
                 if (t.getMessage() != null && t.getMessage().contains("/META-INF/BenchmarkList")) {
@@ -204,7 +558,13 @@ public class CyBenchLauncherMojo extends AbstractMojo {
                     throw new MojoExecutionException("Error during benchmarks run", t);
                 }
             } finally {
-                DeliveryService.getInstance().close();
+                if (liveProgress != null) {
+                    liveProgress.close();
+                }
+                if (reportDelivery == null || reportDelivery.isDone()) {
+                    // otherwise delivery service is closed by background delivery
+                    DeliveryService.getInstance().close();
+                }
 
                 getLog().info(
                         "-----------------------------------------------------------------------------------------");
@@ -215,8 +575,9 @@ public class CyBenchLauncherMojo extends AbstractMojo {
             }
 
             Boolean reportSentSuccessfully = (Boolean) benchContext.getContextMetadata("reportSentSuccessfully");
-            if (!BooleanUtils.toBoolean(reportSentSuccessfully) && shouldSendReportToCyBench
-                    && shouldFailBuildOnReportDeliveryFailure) {
+            Boolean reportDeliveryPending = (Boolean) benchContext.getContextMetadata("reportDeliveryPending");
+            if (!BooleanUtils.toBoolean(reportSentSuccessfully) && !BooleanUtils.toBoolean(reportDeliveryPending)
+                    && shouldSendReportToCyBench && shouldFailBuildOnReportDeliveryFailure) {
                 throw new MojoExecutionException(
                         "Error during benchmarks run, report was not sent to CyBench as configured!");
             }
@@ -225,6 +586,26 @@ public class CyBenchLauncherMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Resolves benchmark classes classpath: adds project class directories to plugin class realm and project
+     * libraries to System classpath used by JMH forks.
+     *
+     * @throws Exception
+     *             if classpath can't be resolved
+     */
+    protected void resolveClasspath() throws Exception {
+        PluginUtils.resolveAndUpdateClasspath(getLog(), project, getPluginContext(), classpathScope);
+    }
+
+    /**
+     * Returns class directories of benchmarked project.
+     *
+     * @return list of class directories
+     */
+    protected List<File> getClassDirectories() {
+        return PluginUtils.getClassDirectories(project);
+    }
+
     public void initContext(BenchmarkingContext benchContext) {
         getLog().info("Collecting hardware, software information...");
         benchContext.setHWProperties(CollectSystemInformation.getEnvironmentProperties());
@@ -234,16 +615,39 @@ public class CyBenchLauncherMojo extends AbstractMojo {
         benchContext.setDefaultBenchmarksMetadata(ComputationUtils.parseBenchmarkMetadata(customBenchmarkMetadata));
     }
 
+    private EnvironmentPreflight.Action parseStabilityCheck() throws MojoExecutionException {
+        String action = StringUtils.defaultIfBlank(stabilityCheck, "off").trim();
+        try {
+            return EnvironmentPreflight.Action.valueOf(action.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exc) {
+            throw new MojoExecutionException("Invalid environment stability check action (cybench.stabilityCheck) '"
+                    + action + "', allowed values: off, warn, wait, fail");
+        }
+    }
+
+    private void checkEnvironmentStability(BenchmarkingContext benchContext, EnvironmentPreflight.Action action)
+            throws Exception {
+        if (action == EnvironmentPreflight.Action.OFF) {
+            return;
+        }
+        getLog().info("Checking environment stability...");
+        EnvironmentPreflight.Stability stability = new EnvironmentPreflight(getLog(), stabilityMinScore).run(action,
+                stabilityWaitTimeout);
+        benchContext.getContextMetadata().put(KEY_ENVIRONMENT_STABILITY, stability.toMap());
+        if (action == EnvironmentPreflight.Action.FAIL && !stability.isStable()) {
+            throw new MojoFailureException("Environment is not stable enough to run benchmarks, stability score "
+                    + stability.getScore() + " < " + stabilityMinScore + ": "
+                    + StringUtils.join(stability.getFindings(), "; "));
+        }
+    }
+
     public void buildOptions(BenchmarkingContext benchContext) {
         Options opt;
         if (useCyBenchBenchmarkSettings) {
             ChainedOptionsBuilder chainedOptionsBuilder = benchContext.getOptBuilder().forks(forks)
                     .measurementTime(TimeValue.seconds(measurementTime)).measurementIterations(measurementIterations)
                     .warmupIterations(warmUpIterations).warmupTime(TimeValue.seconds(warmUpTime)).threads(threads)
-                    .shouldDoGC(true).addProfiler(GCProfiler.class)
-                    // .addProfiler(HotspotThreadProfiler.class) //obsolete
-                    // .addProfiler(HotspotRuntimeProfiler.class) //obsolete
-                    .addProfiler(SafepointsProfiler.class);
+                    .shouldDoGC(true);
             if (jmvArgs.length() > 0) {
                 chainedOptionsBuilder.jvmArgs(jmvArgs);
             } else {
@@ -251,37 +655,343 @@ public class CyBenchLauncherMojo extends AbstractMojo {
             }
             opt = chainedOptionsBuilder.build();
         } else {
-            opt = benchContext.getOptBuilder().shouldDoGC(true).addProfiler(GCProfiler.class)
-                    // .addProfiler(HotspotThreadProfiler.class) //obsolete
-                    // .addProfiler(HotspotRuntimeProfiler.class) //obsolete
-                    .addProfiler(SafepointsProfiler.class).detectJvmArgs().build();
+            opt = benchContext.getOptBuilder().shouldDoGC(true).detectJvmArgs().build();
+        }
+        if (StringUtils.isNotBlank(latencyMode)) {
+            opt = new OptionsBuilder().parent(opt).mode(LatencyDistribution.parseMode(latencyMode)).build();
+        }
+        // JMH merges profilers of parent options, so profilers are added on top of unprofiled options
+        unprofiledOptions = opt;
+        opt = new OptionsBuilder().parent(opt).addProfiler(GCProfiler.class)
+                // .addProfiler(HotspotThreadProfiler.class) //obsolete
+                // .addProfiler(HotspotRuntimeProfiler.class) //obsolete
+                .addProfiler(SafepointsProfiler.class).build();
+        if (profilers != null && !profilers.isEmpty()) {
+            ChainedOptionsBuilder profilersBuilder = new OptionsBuilder().parent(opt);
+            ProfilerUtils.addProfilers(getLog(), profilersBuilder, profilers);
+            opt = profilersBuilder.build();
         }
         benchContext.setOptions(opt);
     }
 
-    public void analyzeBenchmarkClasses(BenchmarkingContext benchContext) {
+    public void analyzeBenchmarkClasses(BenchmarkingContext benchContext) throws Exception {
         benchContext.setSecurityBuilder(new SecurityBuilder());
 
         List<String> benchmarkNames = JMHUtils.getAllBenchmarkClasses();
-        for (String benchmarkClass : benchmarkNames) {
-            try {
-                Class<?> classObj = Class.forName(benchmarkClass);
-                SecurityUtils.generateMethodFingerprints(classObj, benchContext.getManualFingerprints(),
-                        benchContext.getClassFingerprints());
-                SecurityUtils.computeClassHashForMethods(classObj, benchContext.getGeneratedFingerprints());
-            } catch (ClassNotFoundException exc) {
-                getLog().error("Class not found in the classpath for execution", exc);
-            }
-        }
+        ClassFingerprintCache fingerprintCache = new ClassFingerprintCache(getLog(), reportsFolder,
+                getClass().getClassLoader()).load();
+        fingerprintCache.analyze(benchContext, benchmarkNames);
+        fingerprintCache.store();
     }
 
     public Collection<RunResult> runBenchmarks(BenchmarkingContext benchContext) throws Exception {
-        Runner runner = new Runner(benchContext.getOptions());
-        Collection<RunResult> results = runner.run();
+        Options options = benchContext.getOptions();
+        BenchmarkResultsCache resultsCache = null;
+        Map<String, String> fingerprints;
+        Map<String, BenchmarkResultsCache.CacheEntry> reusable = Collections.emptyMap();
+        if (incremental) {
+            resultsCache = new BenchmarkResultsCache(getLog(), reportsFolder, getClassDirectories(),
+                    getRunSignature()).load();
+            fingerprints = resultsCache.computeFingerprints(benchContext);
+            reusable = resultsCache.findReusable(fingerprints);
+        } else {
+            fingerprints = new BenchmarkResultsCache(getLog(), reportsFolder, getClassDirectories())
+                    .computeFingerprints(benchContext);
+        }
+        // recorded on every run, so time budget planning of later runs can tell changed benchmarks
+        for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+            PluginUtils.addBenchmarkMetadata(benchContext, fingerprint.getKey(), TimeBudgetPlanner.FINGERPRINT_KEY,
+                    fingerprint.getValue());
+        }
+        Map<String, BenchmarkResultsCache.CacheEntry> resumed = new TreeMap<>();
+        if (streamingReport || resume) {
+            // adaptive executors and fork mode analysis post-process JMH results, parameter grids run benchmarks in
+            // several passes, so results streamed by JMH runner are not final
+            boolean resumable = !adaptiveWarmUp && targetPrecision <= 0 && !forkModeAnalysis
+                    && (paramGrids == null || paramGrids.isEmpty());
+            runProgress = new RunProgressStore(getLog(), reportsFolder, benchContext.getGeneratedFingerprints(),
+                    getRunSignature(), benchContext.getDefaultBenchmarksMetadata(), resumable);
+            if (resume && resumable) {
+                resumed.putAll(runProgress.loadCompleted());
+                resumed.keySet().removeAll(reusable.keySet());
+            } else if (resume) {
+                getLog().warn("Resuming is not supported together with adaptive warm-up, target precision, fork mode"
+                        + " analysis or parameter grids modes");
+            }
+        }
+
+        if (!reusable.isEmpty() || !resumed.isEmpty()) {
+            ChainedOptionsBuilder optionsBuilder = new OptionsBuilder().parent(options);
+            for (String benchmarkName : reusable.keySet()) {
+                getLog().info("Benchmark unchanged, reusing cached results: " + benchmarkName);
+                optionsBuilder.exclude(PluginUtils.toBenchmarkRegex(benchmarkName));
+            }
+            for (String benchmarkName : resumed.keySet()) {
+                getLog().info("Benchmark completed by interrupted run, reusing its results: " + benchmarkName);
+                optionsBuilder.exclude(PluginUtils.toBenchmarkRegex(benchmarkName));
+            }
+            options = optionsBuilder.build();
+        }
+
+        if (timeBudget > 0) {
+            options = planTimeBudget(benchContext, options, fingerprints);
+        }
+
+        Collection<RunResult> results = new ArrayList<>();
+        if ((reusable.isEmpty() && resumed.isEmpty()) || !PluginUtils.findBenchmarks(options).isEmpty()) {
+            results.addAll(executeBenchmarks(benchContext, options));
+        } else {
+            getLog().info("All benchmarks are unchanged or completed, skipping benchmarks run");
+        }
+
+        for (Map.Entry<String, BenchmarkResultsCache.CacheEntry> resumedEntry : resumed.entrySet()) {
+            results.addAll(resumedEntry.getValue().getResults());
+            PluginUtils.addBenchmarkMetadata(benchContext, resumedEntry.getKey(), "resumedFromInterruptedRun",
+                    "true");
+        }
+
+        if (resultsCache != null) {
+            resultsCache.update(fingerprints, results);
+            resultsCache.store();
+
+            for (Map.Entry<String, BenchmarkResultsCache.CacheEntry> reused : reusable.entrySet()) {
+                results.addAll(reused.getValue().getResults());
+                PluginUtils.addBenchmarkMetadata(benchContext, reused.getKey(), "reusedFromCache", "true");
+                PluginUtils.addBenchmarkMetadata(benchContext, reused.getKey(), "cachedResultTimestamp",
+                        String.valueOf(reused.getValue().getTimestamp()));
+            }
+        }
+
+        LatencyDistribution.addMetadata(getLog(), benchContext, results);
         benchContext.getResults().addAll(results);
         return results;
     }
 
+    private Options planTimeBudget(BenchmarkingContext benchContext, Options options,
+            Map<String, String> fingerprints) throws IOException {
+        Set<String> benchmarks = PluginUtils.findBenchmarks(options);
+        timeBudgetPlanner = new TimeBudgetPlanner(getLog(), timeBudget, forks, warmUpIterations, warmUpTime,
+                measurementIterations, measurementTime);
+        timeBudgetPlanner.plan(benchmarks, fingerprints, getReportHistory());
+        timeBudgetPlanner.addMetadata(benchContext);
+        return timeBudgetPlanner.apply(options, benchmarks).build();
+    }
+
+    /**
+     * Returns signature of run settings affecting benchmark results, so results measured with other settings are not
+     * reused by incremental or resumed runs.
+     *
+     * @return run settings signature
+     */
+    private String getRunSignature() {
+        return ClassFileUtils.hash(String.valueOf(useCyBenchBenchmarkSettings), String.valueOf(forks),
+                String.valueOf(threads), String.valueOf(warmUpIterations), String.valueOf(warmUpTime),
+                String.valueOf(measurementIterations), String.valueOf(measurementTime), jmvArgs, latencyMode,
+                String.valueOf(timeBudget), String.valueOf(parallelForks), String.valueOf(profilers),
+                adaptiveWarmUp ? adaptiveWarmUpMaxIterations + "/" + adaptiveWarmUpWindow + "/"
+                        + adaptiveWarmUpCvThreshold : "false",
+                targetPrecision > 0 ? targetPrecision + "/" + targetPrecisionTimeBudget : "false",
+                forkModeAnalysis ? String.valueOf(forkModeExtraForks) : "false", jfr ? jfrSettings : "false",
+                String.valueOf(jitDiagnostics), String.valueOf(paramGrids),
+                paramGridRefine ? String.valueOf(paramGridRefineDepth) : "false");
+    }
+
+    protected Collection<RunResult> executeBenchmarks(BenchmarkingContext benchContext, Options options)
+            throws Exception {
+        List<NotifyingOutputFormat.BenchmarkListener> listeners = new ArrayList<>();
+        if (runProgress != null) {
+            listeners.add(runProgress);
+        }
+        TimeBudgetPlanner.DurationRecorder durationRecorder = new TimeBudgetPlanner.DurationRecorder();
+        listeners.add(durationRecorder);
+        if (progressPort >= 0 || progressEvents) {
+            liveProgress = new LiveProgress(getLog(), PluginUtils.findBenchmarks(options).size());
+            if (progressEvents) {
+                liveProgress.startEvents(new File(reportsFolder, LiveProgress.EVENTS_FILE));
+            }
+            if (progressPort >= 0) {
+                liveProgress.startServer(progressPort);
+            }
+            listeners.add(liveProgress);
+        }
+        JfrRecorder jfrRecorder = null;
+        if (jfr) {
+            jfrRecorder = new JfrRecorder(getLog(), reportsFolder, jfrSettings);
+            listeners.add(jfrRecorder);
+        }
+        if (jitDiagnostics) {
+            jitDiagnosticsCollector = new JitDiagnostics(getLog(), reportsFolder);
+            listeners.add(jitDiagnosticsCollector);
+        }
+        ParallelForkScheduler.BenchmarksExecutor executor = NotifyingOutputFormat.executor(listeners);
+        if (jfrRecorder != null) {
+            executor = jfrRecorder.wrap(executor);
+        }
+        if (jitDiagnosticsCollector != null) {
+            executor = jitDiagnosticsCollector.wrap(executor);
+        }
+        if (liveProgress != null) {
+            executor = liveProgress.wrap(executor);
+        }
+        AdaptiveWarmUpExecutor warmUpExecutor = null;
+        if (adaptiveWarmUp) {
+            warmUpExecutor = new AdaptiveWarmUpExecutor(getLog(), executor, reportsFolder,
+                    benchContext.getGeneratedFingerprints(), adaptiveWarmUpMaxIterations, adaptiveWarmUpWindow,
+                    adaptiveWarmUpCvThreshold, measurementIterations, TimeValue.seconds(warmUpTime),
+                    TimeValue.seconds(measurementTime));
+            executor = warmUpExecutor;
+        }
+        AdaptiveMeasurementExecutor measurementExecutor = null;
+        if (targetPrecision > 0) {
+            measurementExecutor = new AdaptiveMeasurementExecutor(getLog(), executor, targetPrecision,
+                    targetPrecisionTimeBudget, durationRecorder);
+            executor = measurementExecutor;
+        }
+
+        Set<String> gridBenchmarks = Collections.emptySet();
+        Options mainOptions = options;
+        if (paramGrids != null && !paramGrids.isEmpty()) {
+            paramGridExplorer = new ParamGridExplorer(getLog(), BenchmarkRules.parse(paramGrids), paramGridRefine,
+                    paramGridRefineDepth);
+            Set<String> benchmarks = PluginUtils.findBenchmarks(options);
+            gridBenchmarks = paramGridExplorer.findGridBenchmarks(benchmarks);
+            Set<String> otherBenchmarks = new TreeSet<>(benchmarks);
+            otherBenchmarks.removeAll(gridBenchmarks);
+            mainOptions = PluginUtils.restrictTo(options, benchmarks, otherBenchmarks).build();
+        }
+
+        Collection<RunResult> results = new ArrayList<>();
+        if (gridBenchmarks.isEmpty() || !PluginUtils.findBenchmarks(mainOptions).isEmpty()) {
+            if (parallelForks > 1) {
+                ParallelForkScheduler scheduler = new ParallelForkScheduler(getLog(), parallelForks,
+                        PluginUtils.getWorkDir(reportsFolder));
+                scheduler.setCosts(new TimeBudgetPlanner(getLog(), timeBudget, forks, warmUpIterations, warmUpTime,
+                        measurementIterations, measurementTime).estimateCosts(PluginUtils.findBenchmarks(mainOptions),
+                                getReportHistory()));
+                results.addAll(scheduler.run(mainOptions, executor));
+                for (Map.Entry<String, String> cpuSet : scheduler.getCpuSets().entrySet()) {
+                    PluginUtils.addBenchmarkMetadata(benchContext, cpuSet.getKey(), "cpuSet", cpuSet.getValue());
+                }
+            } else {
+                results.addAll(executor.run(mainOptions));
+            }
+        }
+        if (forkModeAnalysis && !results.isEmpty()) {
+            // benchmarks run with single fork are left as is
+            forkModeAnalyzer = new ForkModeAnalyzer(getLog(), forkModeExtraForks);
+            Collection<RunResult> analyzedResults = forkModeAnalyzer.run(mainOptions, results, executor);
+            results.clear();
+            results.addAll(analyzedResults);
+            forkModeAnalyzer.addMetadata(benchContext);
+        }
+        if (jvmProfiles != null && !jvmProfiles.isEmpty() && !results.isEmpty() && !skipWhenStopped("JVM profiles")) {
+            jvmProfileMatrix = new JvmProfileMatrix(getLog(), jvmProfiles);
+            jvmProfileMatrix.run(mainOptions);
+            jvmProfileMatrix.addMetadata(benchContext);
+        }
+        if (!gridBenchmarks.isEmpty()) {
+            // grid points run one pass after another, so parallel fork scheduling is not applied
+            results.addAll(paramGridExplorer.run(options, PluginUtils.findBenchmarks(options), gridBenchmarks,
+                    executor));
+            paramGridExplorer.addMetadata(benchContext);
+        }
+
+        durationRecorder.addMetadata(benchContext);
+        if (warmUpExecutor != null) {
+            for (Map.Entry<String, Integer> warmUp : warmUpExecutor.getUsedIterations().entrySet()) {
+                PluginUtils.addBenchmarkMetadata(benchContext, warmUp.getKey(), "warmUpIterationsUsed",
+                        String.valueOf(warmUp.getValue()));
+            }
+        }
+        if (measurementExecutor != null) {
+            for (Map.Entry<String, Double> precision : measurementExecutor.getAchievedPrecisions().entrySet()) {
+                PluginUtils.addBenchmarkMetadata(benchContext, precision.getKey(), "ciHalfWidthPercent",
+                        String.format(Locale.ROOT, "%.3f", precision.getValue()));
+                PluginUtils.addBenchmarkMetadata(benchContext, precision.getKey(), "ciLevel",
+                        String.valueOf(AdaptiveMeasurementExecutor.CONFIDENCE_LEVEL));
+                PluginUtils.addBenchmarkMetadata(benchContext, precision.getKey(), "measurementForks",
+                        String.valueOf(measurementExecutor.getForkCounts().get(precision.getKey())));
+            }
+        }
+        if (StringUtils.isNotBlank(threadLadder) && !skipWhenStopped("thread scaling sweep")) {
+            new ThreadScalingSweep(getLog(), ThreadScalingSweep.parseLadder(threadLadder), threadGroups).run(
+                    benchContext, getUnprofiledOptions(options), results);
+        }
+        if (profilers != null && !profilers.isEmpty()) {
+            ProfilerUtils.collectPerfResults(getLog(), benchContext, results, reportsFolder);
+        }
+        if (jfrRecorder != null) {
+            jfrRecorder.summarize(benchContext);
+        }
+        if (jitDiagnosticsCollector != null) {
+            jitDiagnosticsCollector.analyze(benchContext);
+        }
+        if (asyncProfiler && !skipWhenStopped("async-profiler flame graphs capture")) {
+            new AsyncProfilerCapture(getLog(), reportsFolder, asyncProfilerEvents, asyncProfilerLibPath)
+                    .capture(benchContext, getUnprofiledOptions(options));
+        }
+        if (footprint && !skipWhenStopped("memory footprint pass")) {
+            memoryFootprint = new MemoryFootprint(getLog(), reportsFolder);
+            memoryFootprint.run(benchContext, getUnprofiledOptions(options));
+        }
+        return results;
+    }
+
+    /**
+     * Returns run options without measurement profilers, restricted to benchmarks selected by options.
+     *
+     * @param options
+     *            JMH options of benchmarks run
+     * @return unprofiled JMH options
+     */
+    private Options getUnprofiledOptions(Options options) {
+        return PluginUtils.restrictTo(unprofiledOptions, PluginUtils.findBenchmarks(unprofiledOptions),
+                PluginUtils.findBenchmarks(options)).build();
+    }
+
+    /**
+     * Returns local reports history, loaded once per execution and shared by all history consumers: binary report
+     * store if it is enabled (importing existing JSON reports into empty store), indexed JSON reports otherwise.
+     *
+     * @return local reports history
+     * @throws IOException
+     *             if binary report store can't be opened
+     */
+    private ReportHistory getReportHistory() throws IOException {
+        if (reportHistory == null) {
+            if (binaryReportStore) {
+                reportStore = BinaryReportStore.open(getLog(), reportsFolder);
+                if (reportStore.size() == 0) {
+                    getLog().info("Importing existing JSON reports into empty binary report store");
+                    reportStore.append(JsonReportHistory.load(getLog(), reportsFolder).getEntries(), null);
+                }
+                reportHistory = reportStore;
+            } else {
+                reportHistory = JsonReportHistory.load(getLog(), reportsFolder);
+            }
+        }
+        return reportHistory;
+    }
+
+    private boolean isStopRequested() {
+        return liveProgress != null && liveProgress.isStopRequested();
+    }
+
+    /**
+     * Checks if additional benchmarks pass should be skipped, since benchmarks run stop was requested.
+     *
+     * @param pass
+     *            pass description
+     * @return {@code true} if pass should be skipped
+     */
+    private boolean skipWhenStopped(String pass) {
+        if (isStopRequested()) {
+            getLog().info("Benchmarks run is stopped, skipping " + pass);
+            return true;
+        }
+        return false;
+    }
+
     public BenchmarkOverviewReport processResults(BenchmarkingContext benchContext,
             Map<String, Object> benchmarkSettings, Collection<RunResult> results) {
         BenchmarkOverviewReport report;
@@ -298,6 +1008,10 @@ public class CyBenchLauncherMojo extends AbstractMojo {
                     CollectSystemInformation.getUnclassifiedProperties());
             report.getEnvironmentSettings().put("userDefinedProperties",
                     ComputationUtils.customUserDefinedProperties(userProperties));
+            Object stability = benchContext.getContextMetadata(KEY_ENVIRONMENT_STABILITY);
+            if (stability != null) {
+                report.getEnvironmentSettings().put("stability", stability);
+            }
 
             ComparisonConfig automatedComparisonCfg = benchContext.getAutomatedComparisonCfg();
             if (automatedComparisonCfg != null) {
@@ -322,6 +1036,10 @@ public class CyBenchLauncherMojo extends AbstractMojo {
             benchmarkReport.setClassFingerprint(benchContext.getClassFingerprints().get(name));
             benchmarkReport.setGeneratedFingerprint(benchContext.getGeneratedFingerprints().get(name));
             benchmarkReport.setManualFingerprint(benchContext.getManualFingerprints().get(name));
+            for (Map.Entry<String, String> metadata : PluginUtils.getBenchmarkMetadata(benchContext, name)
+                    .entrySet()) {
+                benchmarkReport.addMetadata(metadata.getKey(), metadata.getValue());
+            }
             try {
                 JMHUtils.ClassAndMethod classAndMethod = new JMHUtils.ClassAndMethod(name).invoke();
                 String clazz = classAndMethod.getClazz();
@@ -340,6 +1058,66 @@ public class CyBenchLauncherMojo extends AbstractMojo {
         return report;
     }
 
+    private List<BudgetChecker.Violation> checkBudgets(BenchmarkingContext benchContext,
+            BenchmarkOverviewReport report) {
+        Map<String, Map<String, String>> benchmarksMetadata = new HashMap<>();
+        for (BenchmarkReport benchmarkReport : report.getBenchmarksList()) {
+            if (benchmarkReport.getMetadata() != null) {
+                benchmarksMetadata.put(benchmarkReport.getName(), benchmarkReport.getMetadata());
+            }
+        }
+        List<String> budgetRules = new ArrayList<>();
+        if (StringUtils.isNotBlank(latencyGates)) {
+            budgetRules.add("*:" + latencyGates);
+        }
+        if (budgets != null) {
+            budgetRules.addAll(budgets);
+        }
+        BudgetChecker checker = BudgetChecker.forGcMetrics(getLog(), BenchmarkRules.parse(budgetRules));
+        LatencyDistribution.addBudgetMetrics(checker);
+        if (memoryFootprint != null) {
+            memoryFootprint.addBudgetMetrics(checker);
+        }
+        List<BudgetChecker.Violation> violations = checker.check(benchContext.getResults(), benchmarksMetadata);
+
+        Map<String, List<BudgetChecker.Violation>> violationsByName = new HashMap<>();
+        for (BudgetChecker.Violation violation : violations) {
+            getLog().error("Benchmark " + violation.getBenchmarkId() + " exceeds budget: " + violation);
+            violationsByName.computeIfAbsent(violation.getBenchmark(), k -> new ArrayList<>()).add(violation);
+        }
+        for (BenchmarkReport benchmarkReport : report.getBenchmarksList()) {
+            List<BudgetChecker.Violation> benchmarkViolations = violationsByName.get(benchmarkReport.getName());
+            if (benchmarkViolations != null) {
+                benchmarkReport.addMetadata("budgetViolations", StringUtils.join(benchmarkViolations, ", "));
+            }
+        }
+        return violations;
+    }
+
+    private List<ThreadScalingSweep.Regression> checkScalingRegressions(BenchmarkOverviewReport report)
+            throws IOException {
+        if (StringUtils.isBlank(threadLadder)) {
+            return Collections.emptyList();
+        }
+        List<ThreadScalingSweep.Regression> regressions = ThreadScalingSweep.findRegressions(
+                getReportHistory(),
+                ReportHistory.parseReport(JSONUtils.parseJsonIntoMap(JSONUtils.marshalToJson(report))),
+                scalingEfficiencyTolerance);
+        Map<String, List<String>> regressionsByName = new HashMap<>();
+        for (ThreadScalingSweep.Regression regression : regressions) {
+            getLog().warn("Benchmark " + regression.getBenchmark() + " scaling regressed: " + regression);
+            regressionsByName.computeIfAbsent(regression.getBenchmark(), k -> new ArrayList<>())
+                    .add(regression.toString());
+        }
+        for (BenchmarkReport benchmarkReport : report.getBenchmarksList()) {
+            List<String> benchmarkRegressions = regressionsByName.get(benchmarkReport.getName());
+            if (benchmarkRegressions != null) {
+                benchmarkReport.addMetadata("scalingRegression", String.join("; ", benchmarkRegressions));
+            }
+        }
+        return regressions;
+    }
+
     private void completeReport(BenchmarkingContext benchContext, BenchmarkOverviewReport report) throws Exception {
         if (report.hasBenchmarks()) {
             List<BenchmarkReport> customBenchmarksCategoryCheck = report.getBenchmarks().get("CUSTOM");
@@ -371,26 +1149,34 @@ public class CyBenchLauncherMojo extends AbstractMojo {
         String reportEncrypted = ReportingService.getInstance()
                 .prepareReportForDelivery(benchContext.getSecurityBuilder(), report);
         reportsFolder = PluginUtils.checkReportSaveLocation(reportsFolder);
+        ComparisonConfig automatedComparisonCfg = benchContext.getAutomatedComparisonCfg();
+        if (binaryReportStore) {
+            // opens report store the current report is appended to
+            getReportHistory();
+        }
+        ReportHistory localHistory = null;
+        if (automationLocal && automatedComparisonCfg != null) {
+            // history has to be indexed before current report gets stored to the same folder
+            localHistory = getReportHistory();
+            if (reportStore == null && !shouldStoreReportToFileSystem) {
+                getLog().warn(
+                        "Reports are not stored to file system, local automated comparison history will not grow");
+            }
+        }
         String deviceReports = null;
         String resultURL = null;
         Map<?, ?> response = new HashMap<>();
         if (report.isEligibleForStoringExternally() && shouldSendReportToCyBench) {
-            String tokenAndEmail = ComputationUtils.getRequestHeader(benchAccessToken, email);
-
-            try (DeliveryService ds = DeliveryService.getInstance()) {
-                String responseWithUrl = ds.sendReportForStoring(reportEncrypted, tokenAndEmail, benchQueryToken);
-                if (StringUtils.isNotEmpty(responseWithUrl)) {
-                    response = JSONUtils.parseJsonIntoMap(responseWithUrl);
-                }
-                if (!response.isEmpty() && !BenchmarkRunner.isErrorResponse(response)) {
-                    deviceReports = String.valueOf(response.get(Constants.REPORT_USER_URL));
-                    resultURL = String.valueOf(response.get(Constants.REPORT_URL));
-                    benchContext.getContextMetadata().put("reportSentSuccessfully", true);
-                    report.setDeviceReportsURL(deviceReports);
-                    report.setReportURL(resultURL);
-                }
-            } catch (Exception exc) {
-                getLog().error("Failed to send report over delivery service\n" + exc);
+            String responseWithUrl = deliverReport(benchContext, reportEncrypted);
+            if (StringUtils.isNotEmpty(responseWithUrl)) {
+                response = JSONUtils.parseJsonIntoMap(responseWithUrl);
+            }
+            if (!response.isEmpty() && !BenchmarkRunner.isErrorResponse(response)) {
+                deviceReports = String.valueOf(response.get(Constants.REPORT_USER_URL));
+                resultURL = String.valueOf(response.get(Constants.REPORT_URL));
+                benchContext.getContextMetadata().put("reportSentSuccessfully", true);
+                report.setDeviceReportsURL(deviceReports);
+                report.setReportURL(resultURL);
             }
 
         } else {
@@ -401,6 +1187,17 @@ public class CyBenchLauncherMojo extends AbstractMojo {
 
         String reportJSON = JSONUtils.marshalToPrettyJson(report);
         // getLog().info(reportJSON);
+        Map<?, ?> reportMap = localHistory != null || reportStore != null ? JSONUtils.parseJsonIntoMap(reportJSON)
+                : null;
+        List<LocalComparisonEngine.Comparison> localComparisons = null;
+        LocalComparisonEngine localComparisonEngine = null;
+        if (localHistory != null) {
+            localComparisonEngine = new LocalComparisonEngine(getLog(), localHistory);
+            localComparisons = localComparisonEngine.compare(automatedComparisonCfg, reportMap);
+        }
+        if (reportStore != null) {
+            reportStore.append(ReportHistory.parseReport(reportMap), benchContext.getResults());
+        }
         if (shouldStoreReportToFileSystem) {
             String fileNameForReport;
             String fileNameForReportEncrypted;
@@ -448,6 +1245,47 @@ public class CyBenchLauncherMojo extends AbstractMojo {
                         + Constants.CYB_UPLOAD_URL);
             }
         }
+
+        if (localComparisonEngine != null) {
+            localComparisonEngine.verifyAnomalies(automatedComparisonCfg, localComparisons);
+        }
+    }
+
+    /**
+     * Stores report into outbox and delivers it together with reports not delivered by previous runs.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param reportEncrypted
+     *            report prepared for delivery
+     * @return delivery endpoint response, or {@code null} if report is not delivered (yet)
+     */
+    private String deliverReport(BenchmarkingContext benchContext, String reportEncrypted) {
+        String tokenAndEmail = ComputationUtils.getRequestHeader(benchAccessToken, email);
+        try {
+            ReportOutbox.Sender sender = StringUtils.isBlank(reportDeliveryUrl)
+                    ? new ReportOutbox.DeliveryServiceSender(tokenAndEmail, benchQueryToken)
+                    : new ReportOutbox.HttpSender(new URL(reportDeliveryUrl), tokenAndEmail, benchQueryToken,
+                            REPORT_DELIVERY_HTTP_TIMEOUT);
+            ReportOutbox outbox = new ReportOutbox(getLog(), reportsFolder, sender, reportDeliveryAttempts);
+            String key = outbox.enqueue(reportEncrypted);
+            int pending = outbox.getPending().size();
+            if (pending > 1) {
+                getLog().info("Delivering report together with " + (pending - 1) + " report(s) of previous runs");
+            }
+            reportDelivery = outbox.deliverInBackground();
+            Map<String, String> responses = ReportOutbox.await(reportDelivery,
+                    asyncReportDelivery ? reportDeliveryTimeout : -1);
+            if (responses == null) {
+                getLog().info("Report " + key + " delivery continues in background");
+                benchContext.getContextMetadata().put("reportDeliveryPending", true);
+                return null;
+            }
+            return responses.get(key);
+        } catch (Exception exc) {
+            getLog().error("Failed to send report over delivery service\n" + exc);
+            return null;
+        }
     }
 
     public void syncReportsMetadata(BenchmarkingContext benchContext, BenchmarkOverviewReport report,
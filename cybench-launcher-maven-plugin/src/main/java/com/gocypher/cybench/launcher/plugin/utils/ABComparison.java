@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+
+/**
+ * Statistical comparison of benchmark results of baseline and current project versions.
+ * <p>
+ * Iterations of the same fork are not independent (they share JIT compilation, memory layout and machine state), so
+ * fork is the sampling unit. Score of every side is mean of its fork means. Improvement is ratio of scores minus one,
+ * oriented so positive value means current version is faster (higher throughput or lower time per operation).
+ * Confidence interval of improvement is estimated by hierarchical percentile bootstrap (forks are resampled, then
+ * iterations within every resampled fork), significance of difference by two-sided Mann-Whitney U test of fork means
+ * (normal approximation with ties correction), so meaningful p-value needs several forks of every side.
+ */
+public class ABComparison {
+
+    private static final int BOOTSTRAP_RESAMPLES = 2000;
+    private static final long BOOTSTRAP_SEED = 42;
+
+    private final double confidence;
+    private final Map<String, RunResult> firstResults = new TreeMap<>();
+    private final Map<String, List<BenchmarkResult>> baselineForks = new HashMap<>();
+    private final Map<String, List<BenchmarkResult>> currentForks = new HashMap<>();
+
+    /**
+     * Constructs A/B comparison.
+     *
+     * @param confidence
+     *            confidence level of improvement interval, e.g. {@code 0.95}
+     */
+    public ABComparison(double confidence) {
+        this.confidence = confidence;
+    }
+
+    /**
+     * Adds results of single run.
+     *
+     * @param baseline
+     *            {@code true} if results are of baseline version
+     * @param results
+     *            run results
+     */
+    public void addResults(boolean baseline, Collection<RunResult> results) {
+        for (RunResult result : results) {
+            String id = result.getParams().id();
+            firstResults.putIfAbsent(id, result);
+            (baseline ? baselineForks : currentForks).computeIfAbsent(id, k -> new ArrayList<>())
+                    .addAll(result.getBenchmarkResults());
+        }
+    }
+
+    /**
+     * Compares baseline and current results of every benchmark run for both versions.
+     *
+     * @return list of benchmark comparisons
+     */
+    public List<Comparison> compare() {
+        List<Comparison> comparisons = new ArrayList<>();
+        Random random = new Random(BOOTSTRAP_SEED);
+        for (Map.Entry<String, RunResult> first : firstResults.entrySet()) {
+            List<BenchmarkResult> baseline = baselineForks.get(first.getKey());
+            List<BenchmarkResult> current = currentForks.get(first.getKey());
+            if (baseline == null || current == null) {
+                continue;
+            }
+            double[][] baselineScores = getForkScores(baseline);
+            double[][] currentScores = getForkScores(current);
+            if (baselineScores.length == 0 || currentScores.length == 0) {
+                continue;
+            }
+            double[] baselineMeans = forkMeans(baselineScores);
+            double[] currentMeans = forkMeans(currentScores);
+            boolean higherIsBetter = first.getValue().getParams().getMode() == Mode.Throughput;
+            Comparison comparison = new Comparison();
+            comparison.benchmark = first.getValue().getParams().getBenchmark();
+            comparison.benchmarkId = first.getKey();
+            comparison.scoreUnit = first.getValue().getPrimaryResult().getScoreUnit();
+            comparison.baselineScore = mean(baselineMeans);
+            comparison.currentScore = mean(currentMeans);
+            comparison.improvement = improvement(baselineMeans, currentMeans, higherIsBetter);
+            double[] interval = bootstrapImprovement(baselineScores, currentScores, higherIsBetter, confidence,
+                    random);
+            comparison.improvementLow = interval[0];
+            comparison.improvementHigh = interval[1];
+            comparison.pValue = mannWhitneyPValue(baselineMeans, currentMeans);
+            comparison.confidence = confidence;
+            comparisons.add(comparison);
+        }
+        return comparisons;
+    }
+
+    private static double[][] getForkScores(List<BenchmarkResult> forks) {
+        List<double[]> scores = new ArrayList<>();
+        for (BenchmarkResult fork : forks) {
+            double[] iterations = ResultUtils.getIterationScores(fork);
+            if (iterations.length > 0) {
+                scores.add(iterations);
+            }
+        }
+        return scores.toArray(new double[0][]);
+    }
+
+    static double[] forkMeans(double[][] forks) {
+        double[] means = new double[forks.length];
+        for (int i = 0; i < forks.length; i++) {
+            means[i] = mean(forks[i]);
+        }
+        return means;
+    }
+
+    static double mean(double[] values) {
+        return ResultUtils.mean(values, 0, values.length);
+    }
+
+    static double improvement(double[] baseline, double[] current, boolean higherIsBetter) {
+        double baselineMean = mean(baseline);
+        double currentMean = mean(current);
+        return higherIsBetter ? currentMean / baselineMean - 1 : baselineMean / currentMean - 1;
+    }
+
+    /**
+     * Estimates improvement confidence interval by hierarchical percentile bootstrap: every resample draws forks with
+     * replacement and then iterations with replacement within every drawn fork.
+     *
+     * @param baseline
+     *            iteration scores of baseline forks
+     * @param current
+     *            iteration scores of current forks
+     * @param higherIsBetter
+     *            {@code true} if higher score is better
+     * @param confidence
+     *            confidence level
+     * @param random
+     *            random numbers generator
+     * @return lower and upper bounds of improvement
+     */
+    static double[] bootstrapImprovement(double[][] baseline, double[][] current, boolean higherIsBetter,
+            double confidence, Random random) {
+        double[] improvements = new double[BOOTSTRAP_RESAMPLES];
+        double[] baselineSample = new double[baseline.length];
+        double[] currentSample = new double[current.length];
+        for (int i = 0; i < BOOTSTRAP_RESAMPLES; i++) {
+            resampleForkMeans(baseline, baselineSample, random);
+            resampleForkMeans(current, currentSample, random);
+            improvements[i] = improvement(baselineSample, currentSample, higherIsBetter);
+        }
+        Arrays.sort(improvements);
+        double tail = (1 - confidence) / 2;
+        int low = (int) Math.floor(tail * (BOOTSTRAP_RESAMPLES - 1));
+        int high = (int) Math.ceil((1 - tail) * (BOOTSTRAP_RESAMPLES - 1));
+        return new double[] { improvements[low], improvements[high] };
+    }
+
+    private static void resampleForkMeans(double[][] forks, double[] means, Random random) {
+        for (int i = 0; i < means.length; i++) {
+            double[] fork = forks[random.nextInt(forks.length)];
+            double sum = 0;
+            for (int j = 0; j < fork.length; j++) {
+                sum += fork[random.nextInt(fork.length)];
+            }
+            means[i] = sum / fork.length;
+        }
+    }
+
+    /**
+     * Computes two-sided p-value of Mann-Whitney U test.
+     *
+     * @param a
+     *            first samples
+     * @param b
+     *            second samples
+     * @return p-value
+     */
+    static double mannWhitneyPValue(double[] a, double[] b) {
+        int n1 = a.length;
+        int n2 = b.length;
+        int n = n1 + n2;
+        double[][] values = new double[n][2];
+        for (int i = 0; i < n1; i++) {
+            values[i] = new double[] { a[i], 0 };
+        }
+        for (int i = 0; i < n2; i++) {
+            values[n1 + i] = new double[] { b[i], 1 };
+        }
+        Arrays.sort(values, Comparator.comparingDouble(value -> value[0]));
+
+        double rankSum = 0;
+        double tiesCorrection = 0;
+        for (int i = 0; i < n;) {
+            int j = i;
+            while (j + 1 < n && values[j + 1][0] == values[i][0]) {
+                j++;
+            }
+            double rank = (i + j) / 2.0 + 1;
+            for (int k = i; k <= j; k++) {
+                if (values[k][1] == 0) {
+                    rankSum += rank;
+                }
+            }
+            double ties = j - i + 1;
+            tiesCorrection += ties * ties * ties - ties;
+            i = j + 1;
+        }
+        double u = rankSum - n1 * (n1 + 1) / 2.0;
+        double meanU = n1 * (double) n2 / 2;
+        double variance = n1 * (double) n2 / 12 * ((n + 1) - tiesCorrection / ((double) n * (n - 1)));
+        if (variance <= 0) {
+            return 1;
+        }
+        double z = Math.max(0, Math.abs(u - meanU) - 0.5) / Math.sqrt(variance);
+        return Math.min(1, 2 * (1 - normalCdf(z)));
+    }
+
+    /**
+     * Computes standard normal cumulative distribution function (Abramowitz and Stegun 7.1.26 approximation).
+     *
+     * @param z
+     *            standard score
+     * @return probability of value not exceeding {@code z}
+     */
+    static double normalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t - 0.284496736) * t + 0.254829592)
+                * t * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    /**
+     * Comparison of single benchmark.
+     */
+    public static class Comparison {
+        private String benchmark;
+        private String benchmarkId;
+        private String scoreUnit;
+        private double baselineScore;
+        private double currentScore;
+        private double improvement;
+        private double improvementLow;
+        private double improvementHigh;
+        private double pValue;
+        private double confidence;
+
+        public String getBenchmark() {
+            return benchmark;
+        }
+
+        public String getBenchmarkId() {
+            return benchmarkId;
+        }
+
+        /**
+         * Returns improvement of current version, positive when current version is faster.
+         *
+         * @return improvement ratio, e.g. {@code 0.023} for 2.3% faster
+         */
+        public double getImprovement() {
+            return improvement;
+        }
+
+        public double getPValue() {
+            return pValue;
+        }
+
+        /**
+         * Converts comparison to structure serializable into report.
+         *
+         * @return comparison map
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("benchmark", benchmark);
+            map.put("benchmarkId", benchmarkId);
+            map.put("scoreUnit", scoreUnit);
+            map.put("baselineScore", baselineScore);
+            map.put("currentScore", currentScore);
+            map.put("improvementPercent", improvement * 100);
+            map.put("improvementCiLowPercent", improvementLow * 100);
+            map.put("improvementCiHighPercent", improvementHigh * 100);
+            map.put("confidence", confidence);
+            map.put("mannWhitneyPValue", pValue);
+            map.put("summary", toString());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.1f%% %s +/-%.1f%% (%.0f%% CI [%+.1f%%, %+.1f%%], p=%.4f)",
+                    Math.abs(improvement) * 100, improvement >= 0 ? "faster" : "slower",
+                    (improvementHigh - improvementLow) / 2 * 100, confidence * 100, improvementLow * 100,
+                    improvementHigh * 100, pValue);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.util.ListStatistics;
+import org.openjdk.jmh.util.Statistics;
+
+/**
+ * Benchmarks executor measuring until target precision is reached.
+ * <p>
+ * Benchmarks are run in rounds of single fork. After every round results of all forks are merged and benchmark which
+ * score confidence interval is within target percentage of the mean, or which time budget is exhausted, is finished.
+ * Iterations of the same fork are correlated, so fork is the sampling unit: confidence interval is computed over fork
+ * means, and at least two forks are needed to reach target precision.
+ * Remaining benchmarks are run in one more round. Time spent by every benchmark is taken from wall clock durations
+ * recorded by {@link TimeBudgetPlanner.DurationRecorder} notified by the delegate executor.
+ */
+public class AdaptiveMeasurementExecutor implements ParallelForkScheduler.BenchmarksExecutor {
+
+    public static final double CONFIDENCE_LEVEL = 0.99;
+
+    private final Log log;
+    private final ParallelForkScheduler.BenchmarksExecutor delegate;
+    private final double targetPrecision;
+    private final long timeBudget;
+    private final TimeBudgetPlanner.DurationRecorder durationRecorder;
+    private final Map<String, Double> achievedPrecisions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> forkCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs adaptive measurement executor.
+     *
+     * @param log
+     *            log
+     * @param delegate
+     *            executor running single round of benchmarks
+     * @param targetPrecision
+     *            target confidence interval half-width, in percents of the mean
+     * @param timeBudget
+     *            per benchmark time budget in seconds
+     * @param durationRecorder
+     *            recorder of benchmark durations, notified by delegate executor
+     */
+    public AdaptiveMeasurementExecutor(Log log, ParallelForkScheduler.BenchmarksExecutor delegate,
+            double targetPrecision, long timeBudget, TimeBudgetPlanner.DurationRecorder durationRecorder) {
+        this.log = log;
+        this.delegate = delegate;
+        this.targetPrecision = targetPrecision;
+        this.timeBudget = TimeUnit.SECONDS.toNanos(timeBudget);
+        this.durationRecorder = durationRecorder;
+    }
+
+    @Override
+    public Collection<RunResult> run(Options options) throws Exception {
+        if (options.getForkCount().orElse(1) <= 0) {
+            log.warn("Benchmarks are configured to run without forking, target precision mode is disabled");
+            return delegate.run(options);
+        }
+        Set<String> benchmarks = PluginUtils.findBenchmarks(options);
+        Map<String, BenchmarkParams> paramsById = new LinkedHashMap<>();
+        Map<String, List<BenchmarkResult>> forksById = new HashMap<>();
+        Map<String, Long> startDurations = new HashMap<>();
+        for (String benchmark : benchmarks) {
+            // durations of previous runs of the same benchmark are not charged to this run
+            startDurations.put(benchmark, durationRecorder.getDuration(benchmark));
+        }
+
+        Set<String> remaining = new TreeSet<>(benchmarks);
+        int round = 0;
+        while (!remaining.isEmpty()) {
+            round++;
+            log.info("Target precision round #" + round + ": running " + remaining.size() + " benchmarks");
+            Options roundOptions = PluginUtils.restrictTo(options, benchmarks, remaining).forks(1).build();
+            Collection<RunResult> roundResults = delegate.run(roundOptions);
+
+            Set<String> measured = new HashSet<>();
+            for (RunResult roundResult : roundResults) {
+                String id = roundResult.getParams().id();
+                paramsById.putIfAbsent(id, roundResult.getParams());
+                forksById.computeIfAbsent(id, k -> new ArrayList<>()).addAll(roundResult.getBenchmarkResults());
+                measured.add(roundResult.getParams().getBenchmark());
+            }
+
+            Set<String> nextRound = new TreeSet<>();
+            for (String benchmark : remaining) {
+                long elapsed = durationRecorder.getDuration(benchmark) - startDurations.get(benchmark);
+                if (!measured.contains(benchmark)) {
+                    log.warn("Benchmark " + benchmark + " produced no results, skipping further measurements");
+                    continue;
+                }
+                double precision = 0;
+                int forks = 0;
+                for (Map.Entry<String, BenchmarkParams> params : paramsById.entrySet()) {
+                    if (benchmark.equals(params.getValue().getBenchmark())) {
+                        List<BenchmarkResult> forkResults = forksById.get(params.getKey());
+                        precision = Math.max(precision, computePrecision(forkResults));
+                        forks = forkResults.size();
+                    }
+                }
+                achievedPrecisions.put(benchmark, precision);
+                forkCounts.put(benchmark, forks);
+                if (precision <= targetPrecision) {
+                    log.info(String.format("Benchmark %s reached target precision: +/-%.2f%% after %d forks",
+                            benchmark, precision, forks));
+                } else if (elapsed >= timeBudget) {
+                    log.warn(String.format("Benchmark %s time budget exhausted before reaching target precision:"
+                            + " +/-%.2f%% after %d forks", benchmark, precision, forks));
+                } else {
+                    nextRound.add(benchmark);
+                }
+            }
+            remaining = nextRound;
+        }
+
+        Collection<RunResult> results = new ArrayList<>(paramsById.size());
+        for (Map.Entry<String, BenchmarkParams> params : paramsById.entrySet()) {
+            results.add(new RunResult(params.getValue(), forksById.get(params.getKey())));
+        }
+        return results;
+    }
+
+    /**
+     * Computes confidence interval half-width of fork means, in percents of the mean.
+     *
+     * @param forkResults
+     *            results of all forks
+     * @return confidence interval half-width in percents, or {@link Double#POSITIVE_INFINITY} if it can't be computed
+     *         (e.g. less than two forks)
+     */
+    public static double computePrecision(List<BenchmarkResult> forkResults) {
+        ListStatistics forkMeans = new ListStatistics();
+        for (BenchmarkResult forkResult : forkResults) {
+            double[] scores = ResultUtils.getIterationScores(forkResult);
+            if (scores.length > 0) {
+                forkMeans.addValue(ResultUtils.mean(scores, 0, scores.length));
+            }
+        }
+        return computePrecision(forkMeans);
+    }
+
+    /**
+     * Computes confidence interval half-width of statistics, in percents of the mean.
+     *
+     * @param statistics
+     *            score statistics
+     * @return confidence interval half-width in percents, or {@link Double#POSITIVE_INFINITY} if it can't be computed
+     */
+    public static double computePrecision(Statistics statistics) {
+        if (statistics.getN() < 2 || statistics.getMean() == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] interval = statistics.getConfidenceIntervalAt(CONFIDENCE_LEVEL);
+        double precision = (interval[1] - interval[0]) / 2 / Math.abs(statistics.getMean()) * 100;
+        return Double.isNaN(precision) ? Double.POSITIVE_INFINITY : precision;
+    }
+
+    /**
+     * Returns achieved confidence interval half-width, in percents of the mean, of every benchmark.
+     *
+     * @return map of benchmark name and achieved precision
+     */
+    public Map<String, Double> getAchievedPrecisions() {
+        return achievedPrecisions;
+    }
+
+    /**
+     * Returns forks count every benchmark was run with.
+     *
+     * @return map of benchmark name and forks count
+     */
+    public Map<String, Integer> getForkCounts() {
+        return forkCounts;
+    }
+}
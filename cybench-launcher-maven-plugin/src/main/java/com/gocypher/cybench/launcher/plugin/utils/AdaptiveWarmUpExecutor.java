@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.profile.CompilerProfiler;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Benchmarks executor replacing fixed warm-up iterations count with adaptive one.
+ * <p>
+ * JMH can't end warm-up phase from the outside, so benchmark having no known warm-up length is run in detection mode:
+ * without warm-up, but with up to {@code maxIterations} extra measurement iterations and JIT compiler profiler
+ * enabled. Steady state starts at first window of iterations having scores coefficient of variation below the bound and
+ * no significant JIT compilation activity. Only {@code measurementIterations} iterations starting at steady state are
+ * kept in the results (without JIT compiler profiler results, unless it was requested by run options), and detected
+ * warm-up length is stored under reports folder (converted to iterations of warm-up length), so next runs of
+ * unchanged benchmark use it as fixed warm-up iterations count.
+ */
+public class AdaptiveWarmUpExecutor implements ParallelForkScheduler.BenchmarksExecutor {
+
+    private static final String STORE_FILE = "warmup-iterations.properties";
+    private static final String COMPILER_TIME_LABEL = "compiler.time.profiled";
+    private static final String COMPILER_RESULTS_PREFIX = "compiler.";
+    private static final String COMPILER_PROFILER_ALIAS = "comp";
+    private static final double MAX_COMPILE_TIME_SHARE = 0.01;
+
+    private final Log log;
+    private final ParallelForkScheduler.BenchmarksExecutor delegate;
+    private final File storeFile;
+    private final Map<String, String> fingerprints;
+    private final int maxIterations;
+    private final int window;
+    private final double cvThreshold;
+    private final int measurementIterations;
+    private final TimeValue warmUpTime;
+    private final TimeValue measurementTime;
+    private final Properties learnedIterations = new Properties();
+    private final Map<String, Integer> usedIterations = new ConcurrentHashMap<>();
+
+    public AdaptiveWarmUpExecutor(Log log, ParallelForkScheduler.BenchmarksExecutor delegate, String reportsFolder,
+            Map<String, String> fingerprints, int maxIterations, int window, double cvThreshold,
+            int measurementIterations, TimeValue warmUpTime, TimeValue measurementTime) {
+        this.log = log;
+        this.delegate = delegate;
+        this.storeFile = new File(PluginUtils.getWorkDir(reportsFolder), STORE_FILE);
+        this.fingerprints = fingerprints;
+        this.maxIterations = maxIterations;
+        this.window = Math.max(2, window);
+        this.cvThreshold = cvThreshold;
+        this.measurementIterations = measurementIterations;
+        this.warmUpTime = warmUpTime;
+        this.measurementTime = measurementTime;
+        loadLearnedIterations();
+    }
+
+    @Override
+    public Collection<RunResult> run(Options options) throws Exception {
+        Set<String> benchmarks = PluginUtils.findBenchmarks(options);
+        Map<Integer, List<String>> knownWarmUps = new TreeMap<>();
+        List<String> unknownWarmUps = new ArrayList<>();
+        for (String benchmark : benchmarks) {
+            Integer iterations = getLearnedIterations(benchmark);
+            if (iterations == null) {
+                unknownWarmUps.add(benchmark);
+            } else {
+                knownWarmUps.computeIfAbsent(iterations, k -> new ArrayList<>()).add(benchmark);
+            }
+        }
+
+        Collection<RunResult> results = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> knownWarmUp : knownWarmUps.entrySet()) {
+            log.info("Running " + knownWarmUp.getValue().size() + " benchmarks with learned warm-up of "
+                    + knownWarmUp.getKey() + " iterations");
+            Options warmUpOptions = PluginUtils.restrictTo(options, benchmarks, knownWarmUp.getValue())
+                    .warmupIterations(knownWarmUp.getKey()).build();
+            results.addAll(delegate.run(warmUpOptions));
+            for (String benchmark : knownWarmUp.getValue()) {
+                usedIterations.put(benchmark, knownWarmUp.getKey());
+            }
+        }
+
+        if (!unknownWarmUps.isEmpty()) {
+            log.info("Running " + unknownWarmUps.size() + " benchmarks with steady state detection (max warm-up "
+                    + maxIterations + " iterations)");
+            ChainedOptionsBuilder detectionOptions = PluginUtils.restrictTo(options, benchmarks, unknownWarmUps)
+                    .warmupIterations(0).measurementIterations(maxIterations + measurementIterations)
+                    .measurementTime(measurementTime);
+            boolean compilerProfiled = hasCompilerProfiler(options);
+            if (!compilerProfiled) {
+                detectionOptions.addProfiler(CompilerProfiler.class);
+            }
+            for (RunResult runResult : delegate.run(detectionOptions.build())) {
+                results.add(trimWarmUp(runResult, !compilerProfiled));
+            }
+            storeLearnedIterations();
+        }
+        return results;
+    }
+
+    /**
+     * Returns warm-up iterations count every benchmark was actually run with.
+     *
+     * @return map of benchmark name and warm-up iterations count
+     */
+    public Map<String, Integer> getUsedIterations() {
+        return usedIterations;
+    }
+
+    private static boolean hasCompilerProfiler(Options options) {
+        for (ProfilerConfig profiler : options.getProfilers()) {
+            if (COMPILER_PROFILER_ALIAS.equals(profiler.getKlass())
+                    || CompilerProfiler.class.getName().equals(profiler.getKlass())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private RunResult trimWarmUp(RunResult runResult, boolean stripCompilerResults) {
+        String benchmark = runResult.getParams().getBenchmark();
+        double maxCompileTime = measurementTime.convertTo(TimeUnit.MILLISECONDS) * MAX_COMPILE_TIME_SHARE;
+        List<BenchmarkResult> forks = new ArrayList<>();
+        int warmUpIterations = 0;
+        for (BenchmarkResult fork : runResult.getBenchmarkResults()) {
+            List<IterationResult> iterations = new ArrayList<>(fork.getIterationResults());
+            double[] scores = ResultUtils.getIterationScores(fork);
+            double[] compileTimes = new double[iterations.size()];
+            for (int i = 0; i < compileTimes.length; i++) {
+                compileTimes[i] = ResultUtils.getSecondaryScore(iterations.get(i).getSecondaryResults(),
+                        COMPILER_TIME_LABEL);
+            }
+            int steadyStateStart = findSteadyStateStart(scores, compileTimes, maxCompileTime);
+            if (steadyStateStart < 0) {
+                log.warn("Steady state not reached by benchmark " + benchmark + " within " + maxIterations
+                        + " warm-up iterations");
+                steadyStateStart = maxIterations;
+            }
+            steadyStateStart = Math.max(0, Math.min(steadyStateStart, iterations.size() - measurementIterations));
+
+            // forks run the same number of measured iterations, however long their warm-up is
+            int steadyStateEnd = Math.min(iterations.size(), steadyStateStart + measurementIterations);
+            List<IterationResult> steadyState = new ArrayList<>();
+            for (IterationResult iteration : iterations.subList(steadyStateStart, steadyStateEnd)) {
+                steadyState.add(stripCompilerResults ? withoutCompilerResults(iteration) : iteration);
+            }
+            BenchmarkResult trimmedFork = new BenchmarkResult(fork.getParams(), steadyState);
+            for (String label : fork.getBenchmarkResults().keys()) {
+                for (Result<?> forkResult : fork.getBenchmarkResults().get(label)) {
+                    trimmedFork.addBenchmarkResult(forkResult);
+                }
+            }
+            forks.add(trimmedFork);
+            warmUpIterations = Math.max(warmUpIterations, steadyStateStart);
+        }
+        log.info("Benchmark " + benchmark + " reached steady state after " + warmUpIterations + " iterations");
+        usedIterations.merge(benchmark, toWarmUpIterations(warmUpIterations), Math::max);
+        synchronized (learnedIterations) {
+            learnedIterations.setProperty(benchmark,
+                    usedIterations.get(benchmark) + ":" + fingerprints.getOrDefault(benchmark, ""));
+        }
+        return new RunResult(runResult.getParams(), forks);
+    }
+
+    /**
+     * Removes results of JIT compiler profiler, added by detection run only, from iteration results, so they are not
+     * reported as benchmark secondary results.
+     *
+     * @param iteration
+     *            iteration result
+     * @return iteration result without JIT compiler profiler results
+     */
+    private static IterationResult withoutCompilerResults(IterationResult iteration) {
+        IterationResult stripped = new IterationResult(iteration.getBenchmarkParams(), iteration.getParams(),
+                iteration.getMetadata());
+        stripped.addResults(iteration.getRawPrimaryResults());
+        for (String label : iteration.getRawSecondaryResults().keys()) {
+            if (!label.startsWith(COMPILER_RESULTS_PREFIX)) {
+                stripped.addResults(iteration.getRawSecondaryResults().get(label));
+            }
+        }
+        return stripped;
+    }
+
+    /**
+     * Finds first iteration of steady state: window of iterations having coefficient of variation below bound and JIT
+     * compilation time below provided limit.
+     *
+     * @param scores
+     *            iteration scores
+     * @param compileTimes
+     *            iteration JIT compilation times in milliseconds, {@link Double#NaN} if not available
+     * @param maxCompileTime
+     *            JIT compilation time limit for steady state iteration
+     * @return steady state first iteration index, or {@code -1} if steady state is not reached within maximum warm-up
+     *         iterations
+     */
+    int findSteadyStateStart(double[] scores, double[] compileTimes, double maxCompileTime) {
+        for (int start = 0; start <= maxIterations && start + window <= scores.length; start++) {
+            double cv = ResultUtils.coefficientOfVariation(scores, start, start + window);
+            if (Double.isNaN(cv) || cv > cvThreshold) {
+                continue;
+            }
+            boolean compiling = false;
+            for (int i = start; i < start + window; i++) {
+                if (!Double.isNaN(compileTimes[i]) && compileTimes[i] > maxCompileTime) {
+                    compiling = true;
+                    break;
+                }
+            }
+            if (!compiling) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts count of detection iterations (of measurement length) to count of warm-up iterations covering the same
+     * time.
+     *
+     * @param iterations
+     *            detection iterations count
+     * @return warm-up iterations count
+     */
+    int toWarmUpIterations(int iterations) {
+        long warmUpMillis = warmUpTime.convertTo(TimeUnit.MILLISECONDS);
+        if (warmUpMillis <= 0) {
+            return iterations;
+        }
+        return (int) Math.ceil((double) iterations * measurementTime.convertTo(TimeUnit.MILLISECONDS) / warmUpMillis);
+    }
+
+    private Integer getLearnedIterations(String benchmark) {
+        String value;
+        synchronized (learnedIterations) {
+            value = learnedIterations.getProperty(benchmark);
+        }
+        if (value == null) {
+            return null;
+        }
+        int separatorIndex = value.indexOf(':');
+        String fingerprint = value.substring(separatorIndex + 1);
+        if (separatorIndex <= 0 || !fingerprint.equals(fingerprints.getOrDefault(benchmark, ""))) {
+            return null;
+        }
+        try {
+            return Math.min(Integer.parseInt(value.substring(0, separatorIndex)),
+                    toWarmUpIterations(maxIterations));
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+    }
+
+    private void loadLearnedIterations() {
+        if (storeFile.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(storeFile), "UTF-8")) {
+                learnedIterations.load(reader);
+            } catch (IOException exc) {
+                log.warn("Failed to read learned warm-up iterations from '" + storeFile + "': " + exc);
+            }
+        }
+    }
+
+    private void storeLearnedIterations() {
+        synchronized (learnedIterations) {
+            File storeDir = storeFile.getParentFile();
+            try {
+                if (!storeDir.exists() && !storeDir.mkdirs()) {
+                    throw new IOException("Can't create directory " + storeDir);
+                }
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(storeFile), "UTF-8")) {
+                    learnedIterations.store(writer, "CyBench learned warm-up iterations: <count>:<fingerprint>");
+                }
+            } catch (IOException exc) {
+                log.warn("Failed to store learned warm-up iterations to '" + storeFile + "': " + exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.util.Utils;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Captures async-profiler flame graphs of benchmarks using JMH async-profiler integration.
+ * <p>
+ * Async-profiler samples single event per session, so every benchmark is run once per profiled event in a separate
+ * single fork profiling pass, after benchmarks have been measured. This way profiler overhead does not affect
+ * measured scores. Flame graphs (HTML) and collapsed stacks are written to
+ * {@code reportsFolder/async-profiler/<benchmark>/<event>} and linked from benchmark metadata.
+ */
+public class AsyncProfilerCapture {
+
+    private static final String OUTPUT_FOLDER = "async-profiler";
+    private static final String PROFILER_ALIAS = "async";
+    private static final String OUTPUT_FORMATS = "flamegraph,collapsed";
+
+    private final Log log;
+    private final String reportsFolder;
+    private final List<String> events;
+    private final String libPath;
+
+    /**
+     * Constructs async-profiler capture.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @param events
+     *            comma separated async-profiler events, e.g. {@code cpu,alloc,lock}
+     * @param libPath
+     *            path of async-profiler library, blank to let JMH look it up
+     */
+    public AsyncProfilerCapture(Log log, String reportsFolder, String events, String libPath) {
+        this.log = log;
+        this.reportsFolder = reportsFolder;
+        this.events = new ArrayList<>();
+        for (String event : events.split(",")) {
+            if (StringUtils.isNotBlank(event)) {
+                this.events.add(event.trim());
+            }
+        }
+        this.libPath = libPath;
+    }
+
+    /**
+     * Runs profiling passes of benchmarks selected by options and adds produced files paths to benchmark metadata.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param options
+     *            JMH options of benchmarks to profile, without measurement profilers (e.g. GC or perfasm ones) that
+     *            would distort profiles
+     */
+    public void capture(BenchmarkingContext benchContext, Options options) {
+        if (Utils.isWindows()) {
+            log.warn("Async-profiler is not supported on Windows, skipping flame graphs capture");
+            return;
+        }
+        Set<String> benchmarks = PluginUtils.findBenchmarks(options);
+        File logFile = new File(PluginUtils.getWorkDir(reportsFolder), "async-profiler.log");
+        log.info("Capturing async-profiler flame graphs (" + StringUtils.join(events, ",") + ") of "
+                + benchmarks.size() + " benchmarks, output: '" + logFile + "'");
+        for (String benchmark : benchmarks) {
+            for (String event : events) {
+                String relativeDir = OUTPUT_FOLDER + "/" + benchmark + "/" + event;
+                File outputDir = new File(reportsFolder, relativeDir);
+                String initLine = "event=" + event + ";output=" + OUTPUT_FORMATS + ";dir="
+                        + outputDir.getAbsolutePath();
+                if (StringUtils.isNotBlank(libPath)) {
+                    initLine += ";libPath=" + libPath;
+                }
+                try {
+                    deleteFiles(outputDir);
+                    Files.createDirectories(outputDir.toPath());
+                    Files.createDirectories(logFile.getParentFile().toPath());
+                    Options profilingOptions = PluginUtils.restrictTo(options, benchmarks,
+                            Collections.singleton(benchmark)).forks(1).output(logFile.getAbsolutePath())
+                            .addProfiler(PROFILER_ALIAS, initLine).build();
+                    ParallelForkScheduler.JMH_RUNNER.run(profilingOptions);
+                } catch (Exception exc) {
+                    if (isLibraryMissing(exc)) {
+                        log.warn("Async-profiler library is not available, skipping flame graphs capture: " + exc);
+                        return;
+                    }
+                    log.warn("Failed to capture async-profiler " + event + " profile of " + benchmark + ": " + exc);
+                    continue;
+                }
+                List<String> files = listFiles(outputDir, relativeDir);
+                if (files.isEmpty()) {
+                    log.warn("Async-profiler produced no " + event + " profile for " + benchmark);
+                } else {
+                    PluginUtils.addBenchmarkMetadata(benchContext, benchmark,
+                            "asyncProfiler" + StringUtils.capitalize(event) + "Files", StringUtils.join(files, ","));
+                }
+            }
+        }
+    }
+
+    private static boolean isLibraryMissing(Throwable exc) {
+        for (Throwable cause = exc; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.toLowerCase(Locale.ROOT).contains("unable to load async-profiler")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void deleteFiles(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        // profiles of previous run
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static List<String> listFiles(File dir, String relativeDir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> relativeDir + "/" + dir.toPath().relativize(path).toString().replace('\\', '/'))
+                    .sorted().collect(Collectors.toList());
+        } catch (IOException exc) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.results.RunResult;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Local benchmark fingerprint to {@link RunResult} cache used by incremental benchmarking. Cache is stored as
+ * serialized file under reports folder and maps benchmark name to fingerprint and results of the last run of that
+ * benchmark. Cached fingerprint combines benchmark fingerprint with run settings signature, so results measured with
+ * other run settings are not reused.
+ */
+public class BenchmarkResultsCache {
+
+    private static final String CACHE_FILE = "benchmark-results.cache";
+
+    private final Log log;
+    private final File cacheFile;
+    private final Collection<File> classDirs;
+    private final String runSignature;
+    private Map<String, CacheEntry> entries = new HashMap<>();
+
+    public BenchmarkResultsCache(Log log, String reportsFolder, Collection<File> classDirs) {
+        this(log, reportsFolder, classDirs, null);
+    }
+
+    /**
+     * Constructs benchmark results cache.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @param classDirs
+     *            project class directories
+     * @param runSignature
+     *            signature of run settings results are measured with
+     */
+    public BenchmarkResultsCache(Log log, String reportsFolder, Collection<File> classDirs, String runSignature) {
+        this.log = log;
+        this.cacheFile = new File(PluginUtils.getWorkDir(reportsFolder), CACHE_FILE);
+        this.classDirs = classDirs;
+        this.runSignature = runSignature;
+    }
+
+    @SuppressWarnings("unchecked")
+    public BenchmarkResultsCache load() {
+        if (cacheFile.isFile()) {
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                entries = (Map<String, CacheEntry>) in.readObject();
+                log.info("Loaded " + entries.size() + " cached benchmark results from '" + cacheFile + "'");
+            } catch (Exception exc) {
+                log.warn("Failed to read benchmark results cache '" + cacheFile + "', all benchmarks will be run: "
+                        + exc);
+                entries = new HashMap<>();
+            }
+        }
+        return this;
+    }
+
+    public void store() {
+        try {
+            File cacheDir = cacheFile.getParentFile();
+            if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+                throw new IOException("Can't create cache directory " + cacheDir);
+            }
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+                out.writeObject(entries);
+            }
+            log.info("Stored " + entries.size() + " benchmark results to cache '" + cacheFile + "'");
+        } catch (IOException exc) {
+            log.warn("Failed to store benchmark results cache '" + cacheFile + "': " + exc);
+        }
+    }
+
+    /**
+     * Computes benchmark fingerprints combining class, generated and manual fingerprints with fingerprint of project
+     * classes benchmark class depends on.
+     *
+     * @param benchContext
+     *            benchmarking context having benchmark classes analyzed
+     * @return map of benchmark name and its combined fingerprint
+     */
+    public Map<String, String> computeFingerprints(BenchmarkingContext benchContext) {
+        Map<String, String> fingerprints = new HashMap<>();
+        Map<String, String> dependencyFingerprints = new HashMap<>();
+        for (Map.Entry<String, String> classFingerprint : benchContext.getClassFingerprints().entrySet()) {
+            String benchmarkName = classFingerprint.getKey();
+            String className = getClassName(benchmarkName);
+            String dependencyFingerprint = dependencyFingerprints.get(className);
+            if (dependencyFingerprint == null && !dependencyFingerprints.containsKey(className)) {
+                try {
+                    dependencyFingerprint = ClassFileUtils.computeDependencyFingerprint(classDirs, className);
+                } catch (IOException exc) {
+                    log.warn("Failed to compute dependency fingerprint for class " + className + ": " + exc);
+                }
+                dependencyFingerprints.put(className, dependencyFingerprint);
+            }
+            if (dependencyFingerprint == null) {
+                continue;
+            }
+            fingerprints.put(benchmarkName,
+                    ClassFileUtils.hash(classFingerprint.getValue(),
+                            benchContext.getGeneratedFingerprints().get(benchmarkName),
+                            benchContext.getManualFingerprints().get(benchmarkName), dependencyFingerprint));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Picks cached results for benchmarks which fingerprints have not changed since they were cached.
+     *
+     * @param fingerprints
+     *            current benchmark fingerprints
+     * @return map of benchmark name and its cache entry
+     */
+    public Map<String, CacheEntry> findReusable(Map<String, String> fingerprints) {
+        Map<String, CacheEntry> reusable = new TreeMap<>();
+        for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+            CacheEntry entry = entries.get(fingerprint.getKey());
+            if (entry != null && getCacheFingerprint(fingerprint.getValue()).equals(entry.getFingerprint())) {
+                reusable.put(fingerprint.getKey(), entry);
+            }
+        }
+        return reusable;
+    }
+
+    /**
+     * Puts fresh benchmark run results into cache.
+     *
+     * @param fingerprints
+     *            current benchmark fingerprints
+     * @param results
+     *            benchmark run results
+     */
+    public void update(Map<String, String> fingerprints, Collection<RunResult> results) {
+        Map<String, List<RunResult>> resultsByName = new HashMap<>();
+        for (RunResult result : results) {
+            resultsByName.computeIfAbsent(result.getParams().getBenchmark(), k -> new ArrayList<>()).add(result);
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<RunResult>> benchmarkResults : resultsByName.entrySet()) {
+            String fingerprint = fingerprints.get(benchmarkResults.getKey());
+            if (fingerprint != null) {
+                entries.put(benchmarkResults.getKey(), new CacheEntry(getCacheFingerprint(fingerprint), now,
+                        new ArrayList<>(benchmarkResults.getValue())));
+            }
+        }
+    }
+
+    private String getCacheFingerprint(String fingerprint) {
+        return ClassFileUtils.hash(fingerprint, runSignature);
+    }
+
+    private static String getClassName(String benchmarkName) {
+        int methodIndex = benchmarkName.lastIndexOf('.');
+        return methodIndex > 0 ? benchmarkName.substring(0, methodIndex) : benchmarkName;
+    }
+
+    public static class CacheEntry implements Serializable {
+        private static final long serialVersionUID = 8416839516378128127L;
+
+        private final String fingerprint;
+        private final long timestamp;
+        private final ArrayList<RunResult> results;
+
+        public CacheEntry(String fingerprint, long timestamp, ArrayList<RunResult> results) {
+            this.fingerprint = fingerprint;
+            this.timestamp = timestamp;
+            this.results = results;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public List<RunResult> getResults() {
+            return results;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Benchmark name pattern based rules. Rule is defined as {@code pattern:key=value;key=value}, where pattern is
+ * benchmark name glob ({@code *} matches any characters, {@code ?} - single character), e.g.
+ * {@code com.example.*Hot*:allocPerOp=0;gcCount=0}. When several rules match the benchmark, values of later rules
+ * override values of earlier ones.
+ */
+public class BenchmarkRules {
+
+    private final Map<Pattern, Map<String, String>> rules = new LinkedHashMap<>();
+
+    /**
+     * Parses rules definitions.
+     *
+     * @param definitions
+     *            rules definitions, may be {@code null}
+     * @return parsed rules
+     * @throws IllegalArgumentException
+     *             if rule definition is invalid
+     */
+    public static BenchmarkRules parse(Collection<String> definitions) {
+        BenchmarkRules benchmarkRules = new BenchmarkRules();
+        if (definitions == null) {
+            return benchmarkRules;
+        }
+        for (String definition : definitions) {
+            if (StringUtils.isBlank(definition)) {
+                continue;
+            }
+            int separatorIndex = definition.indexOf(':');
+            if (separatorIndex <= 0) {
+                throw new IllegalArgumentException("Invalid rule, expected 'pattern:key=value;...': " + definition);
+            }
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String value : definition.substring(separatorIndex + 1).split(";")) {
+                if (StringUtils.isBlank(value)) {
+                    continue;
+                }
+                int valueIndex = value.indexOf('=');
+                if (valueIndex <= 0) {
+                    throw new IllegalArgumentException("Invalid rule value, expected 'key=value': " + value);
+                }
+                values.put(value.substring(0, valueIndex).trim(), value.substring(valueIndex + 1).trim());
+            }
+            benchmarkRules.rules.put(toPattern(definition.substring(0, separatorIndex).trim()), values);
+        }
+        return benchmarkRules;
+    }
+
+    static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : glob.split("((?<=[*?])|(?=[*?]))")) {
+            if ("*".equals(part)) {
+                regex.append(".*");
+            } else if ("?".equals(part)) {
+                regex.append('.');
+            } else if (!part.isEmpty()) {
+                regex.append(Pattern.quote(part));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Collects values of all rules matching benchmark.
+     *
+     * @param benchmark
+     *            benchmark name
+     * @return map of rule value key and value
+     */
+    public Map<String, String> getValues(String benchmark) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Map.Entry<Pattern, Map<String, String>> rule : rules.entrySet()) {
+            if (rule.getKey().matcher(benchmark).matches()) {
+                values.putAll(rule.getValue());
+            }
+        }
+        return values;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+}
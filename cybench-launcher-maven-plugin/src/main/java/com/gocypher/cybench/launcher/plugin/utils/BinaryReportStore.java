@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.util.Statistics;
+
+/**
+ * Compact append-only binary store of benchmark results history.
+ * <p>
+ * Every benchmark result is a row of fixed width columns, each column is stored in a separate file and is memory
+ * mapped for reading. Strings (benchmark names, fingerprints, modes, parameters, versions, environment hashes and
+ * metadata used by history consumers, see {@link #STORED_METADATA_KEYS}) are stored once in a dictionary file and
+ * referenced by id. Rows are indexed by benchmark fingerprint, mode, parameters and project version, and by benchmark
+ * name, so history lookup reads only the rows of requested benchmark regardless of the store size. Appending is
+ * guarded by a file lock, so concurrent builds may share the same store.
+ */
+public class BinaryReportStore extends ReportHistory {
+
+    private static final String STORE_DIR = "history";
+    private static final String DICTIONARY_FILE = "strings.dict";
+    private static final String INDEX_FILE = "rows.idx";
+    private static final String LOCK_FILE = "store.lock";
+    private static final String COLUMN_FILE_EXTENSION = ".col";
+    // changed when index keys change, so index of older store gets rebuilt
+    private static final int INDEX_MAGIC = 0x43594250;
+    private static final int NO_STRING = -1;
+    private static final String NAME_KEY_PREFIX = "#name:";
+    /**
+     * Benchmark metadata read from history by time budget planning and thread scaling regressions check.
+     */
+    static final List<String> STORED_METADATA_KEYS = Arrays.asList(TimeBudgetPlanner.DURATION_KEY,
+            TimeBudgetPlanner.FINGERPRINT_KEY, TimeBudgetPlanner.SCALE_KEY, ThreadScalingSweep.EFFICIENCY_KEY,
+            ThreadScalingSweep.THREADS_KEY);
+
+    enum Column {
+        TIMESTAMP(8), NAME(4), FINGERPRINT(4), MODE(4), VERSION(4), ENVIRONMENT(4), SCORE(8), P50(8), P90(8), P99(8),
+        PARAMS(4), METADATA(4);
+
+        final int width;
+
+        Column(int width) {
+            this.width = width;
+        }
+
+        String getFileName() {
+            return name().toLowerCase() + COLUMN_FILE_EXTENSION;
+        }
+    }
+
+    private final Log log;
+    private final File storeDir;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final Map<String, List<Integer>> index = new HashMap<>();
+    private final Map<Column, ByteBuffer> columns = new EnumMap<>(Column.class);
+    private long dictionaryLength;
+    private int indexedRows;
+    private int rowCount;
+
+    private BinaryReportStore(Log log, File storeDir) {
+        this.log = log;
+        this.storeDir = storeDir;
+    }
+
+    /**
+     * Opens binary report store located under reports folder, creating it if it does not exist yet.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @return opened report store
+     * @throws IOException
+     *             if store can't be read
+     */
+    public static BinaryReportStore open(Log log, String reportsFolder) throws IOException {
+        BinaryReportStore store = new BinaryReportStore(log,
+                new File(PluginUtils.getWorkDir(reportsFolder), STORE_DIR));
+        if (!store.storeDir.exists() && !store.storeDir.mkdirs()) {
+            throw new IOException("Can't create directory " + store.storeDir);
+        }
+        store.load();
+        log.info("Opened binary report store '" + store.storeDir + "' with " + store.rowCount + " results");
+        return store;
+    }
+
+    /**
+     * Returns number of benchmark results in store.
+     *
+     * @return results count
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    @Override
+    public synchronized List<HistoryEntry> find(String key, String version, int limit) {
+        return findRows(index.get(version == null ? key : getVersionKey(key, version)), limit);
+    }
+
+    @Override
+    public synchronized List<HistoryEntry> findByName(String name, int limit) {
+        return findRows(index.get(NAME_KEY_PREFIX + name), limit);
+    }
+
+    private List<HistoryEntry> findRows(List<Integer> rows, int limit) {
+        if (rows == null) {
+            return new ArrayList<>();
+        }
+        List<Integer> sortedRows = new ArrayList<>(rows);
+        sortedRows.sort(Comparator.comparingLong((Integer row) -> readLong(Column.TIMESTAMP, row)).reversed());
+        List<HistoryEntry> found = new ArrayList<>(Math.min(limit, sortedRows.size()));
+        for (int i = 0; i < sortedRows.size() && i < limit; i++) {
+            found.add(readEntry(sortedRows.get(i)));
+        }
+        return found;
+    }
+
+    /**
+     * Appends benchmark results to store.
+     *
+     * @param entries
+     *            benchmark results, e.g. parsed from report by {@link #parseReport(Map)}
+     * @param runResults
+     *            JMH run results to take score percentiles from, may be {@code null}
+     * @throws IOException
+     *             if results can't be written
+     */
+    public synchronized void append(List<HistoryEntry> entries, Collection<RunResult> runResults)
+            throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Map<String, Statistics> statistics = new HashMap<>();
+        if (runResults != null) {
+            for (RunResult runResult : runResults) {
+                BenchmarkParams params = runResult.getParams();
+                Map<String, String> paramValues = new HashMap<>();
+                for (String key : params.getParamsKeys()) {
+                    paramValues.put(key, params.getParam(key));
+                }
+                statistics.put(getStatisticsKey(params.getBenchmark(), ReportHistory.toParamsKey(paramValues)),
+                        runResult.getPrimaryResult().getStatistics());
+            }
+        }
+
+        try (FileChannel lockChannel = FileChannel.open(new File(storeDir, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = lockChannel.lock()) {
+            // other builds may have appended to store since it was opened
+            load();
+
+            Map<Column, ByteBuffer> buffers = new EnumMap<>(Column.class);
+            for (Column column : Column.values()) {
+                buffers.put(column, ByteBuffer.allocate(column.width * entries.size()));
+            }
+            ByteArrayOutputStream newStrings = new ByteArrayOutputStream();
+            DataOutputStream newStringsOut = new DataOutputStream(newStrings);
+            for (HistoryEntry entry : entries) {
+                Statistics entryStatistics = statistics.get(getStatisticsKey(entry.getName(), entry.getParams()));
+                if (entryStatistics != null && entryStatistics.getN() > 0) {
+                    entry.percentile50 = entryStatistics.getPercentile(50);
+                    entry.percentile90 = entryStatistics.getPercentile(90);
+                    entry.percentile99 = entryStatistics.getPercentile(99);
+                }
+                buffers.get(Column.TIMESTAMP).putLong(entry.getTimestamp());
+                buffers.get(Column.NAME).putInt(getStringId(entry.getName(), newStringsOut));
+                buffers.get(Column.FINGERPRINT).putInt(getStringId(entry.getFingerprint(), newStringsOut));
+                buffers.get(Column.MODE).putInt(getStringId(entry.getMode(), newStringsOut));
+                buffers.get(Column.VERSION).putInt(getStringId(entry.getVersion(), newStringsOut));
+                buffers.get(Column.ENVIRONMENT).putInt(getStringId(entry.getEnvironmentHash(), newStringsOut));
+                buffers.get(Column.SCORE).putDouble(entry.getScore());
+                buffers.get(Column.P50).putDouble(entry.getPercentile50());
+                buffers.get(Column.P90).putDouble(entry.getPercentile90());
+                buffers.get(Column.P99).putDouble(entry.getPercentile99());
+                buffers.get(Column.PARAMS).putInt(getStringId(entry.getParams(), newStringsOut));
+                buffers.get(Column.METADATA).putInt(getStringId(encodeMetadata(entry), newStringsOut));
+            }
+
+            // strings first, rows refer to them
+            newStringsOut.flush();
+            writeAt(new File(storeDir, DICTIONARY_FILE), ByteBuffer.wrap(newStrings.toByteArray()), dictionaryLength);
+            dictionaryLength += newStrings.size();
+            for (Column column : Column.values()) {
+                ByteBuffer buffer = buffers.get(column);
+                buffer.flip();
+                writeAt(getColumnFile(column), buffer, (long) rowCount * column.width);
+            }
+            rowCount += entries.size();
+            mapColumns();
+            indexRows();
+            storeIndex();
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        loadDictionary();
+        addMissingColumns();
+        rowCount = Integer.MAX_VALUE;
+        for (Column column : Column.values()) {
+            rowCount = (int) Math.min(rowCount, getColumnFile(column).length() / column.width);
+        }
+        mapColumns();
+        loadIndex();
+        indexRows();
+    }
+
+    /**
+     * Fills (string) columns added after store was created with empty values of existing rows.
+     *
+     * @throws IOException
+     *             if column file can't be written
+     */
+    private void addMissingColumns() throws IOException {
+        long rows = getColumnFile(Column.TIMESTAMP).length() / Column.TIMESTAMP.width;
+        for (Column column : Column.values()) {
+            File columnFile = getColumnFile(column);
+            if (rows > 0 && !columnFile.exists()) {
+                log.info("Adding column " + column.name().toLowerCase() + " to binary report store");
+                ByteBuffer buffer = ByteBuffer.allocate((int) rows * column.width);
+                while (buffer.hasRemaining()) {
+                    buffer.putInt(NO_STRING);
+                }
+                buffer.flip();
+                writeAt(columnFile, buffer, 0);
+            }
+        }
+    }
+
+    private void loadDictionary() throws IOException {
+        strings.clear();
+        stringIds.clear();
+        dictionaryLength = 0;
+        File dictionaryFile = new File(storeDir, DICTIONARY_FILE);
+        if (!dictionaryFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(dictionaryFile)))) {
+            long fileLength = dictionaryFile.length();
+            while (dictionaryLength < fileLength) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                stringIds.put(value, strings.size());
+                strings.add(value);
+                dictionaryLength += 4 + bytes.length;
+            }
+        } catch (EOFException | NegativeArraySizeException exc) {
+            log.warn("Binary report store dictionary has incomplete record, it will be overwritten");
+        }
+    }
+
+    private void loadIndex() {
+        index.clear();
+        indexedRows = 0;
+        File indexFile = new File(storeDir, INDEX_FILE);
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Invalid index file");
+            }
+            int rows = in.readInt();
+            int keys = in.readInt();
+            for (int i = 0; i < keys; i++) {
+                String key = in.readUTF();
+                int keyRows = in.readInt();
+                List<Integer> rowList = new ArrayList<>(keyRows);
+                for (int j = 0; j < keyRows; j++) {
+                    rowList.add(in.readInt());
+                }
+                index.put(key, rowList);
+            }
+            if (rows > rowCount) {
+                throw new IOException("Index refers to missing rows");
+            }
+            indexedRows = rows;
+        } catch (IOException exc) {
+            log.warn("Rebuilding binary report store index '" + indexFile + "': " + exc);
+            index.clear();
+            indexedRows = 0;
+        }
+    }
+
+    private void indexRows() {
+        for (int row = indexedRows; row < rowCount; row++) {
+            String key = getKey(readString(Column.FINGERPRINT, row), readString(Column.MODE, row),
+                    readString(Column.PARAMS, row));
+            index.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+            index.computeIfAbsent(getVersionKey(key, readString(Column.VERSION, row)), k -> new ArrayList<>())
+                    .add(row);
+            index.computeIfAbsent(NAME_KEY_PREFIX + readString(Column.NAME, row), k -> new ArrayList<>()).add(row);
+        }
+        indexedRows = rowCount;
+    }
+
+    private void storeIndex() throws IOException {
+        File indexFile = new File(storeDir, INDEX_FILE);
+        File tmpFile = new File(storeDir, INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(indexedRows);
+            out.writeInt(index.size());
+            for (Map.Entry<String, List<Integer>> key : index.entrySet()) {
+                out.writeUTF(key.getKey());
+                out.writeInt(key.getValue().size());
+                for (int row : key.getValue()) {
+                    out.writeInt(row);
+                }
+            }
+        }
+        try {
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exc) {
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void mapColumns() throws IOException {
+        columns.clear();
+        if (rowCount == 0) {
+            return;
+        }
+        for (Column column : Column.values()) {
+            try (FileChannel channel = FileChannel.open(getColumnFile(column).toPath(), StandardOpenOption.READ)) {
+                columns.put(column, channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) rowCount * column.width));
+            }
+        }
+    }
+
+    private HistoryEntry readEntry(int row) {
+        HistoryEntry entry = new HistoryEntry(readString(Column.NAME, row), readString(Column.FINGERPRINT, row),
+                readString(Column.MODE, row), readString(Column.VERSION, row), readLong(Column.TIMESTAMP, row),
+                readDouble(Column.SCORE, row));
+        entry.environmentHash = readString(Column.ENVIRONMENT, row);
+        entry.percentile50 = readDouble(Column.P50, row);
+        entry.percentile90 = readDouble(Column.P90, row);
+        entry.percentile99 = readDouble(Column.P99, row);
+        entry.params = readString(Column.PARAMS, row);
+        decodeMetadata(readString(Column.METADATA, row), entry.metadata);
+        return entry;
+    }
+
+    /**
+     * Encodes stored metadata of benchmark result as {@code key=value} lines. Metadata of benchmark parameters
+     * combinations is reduced to the value of result parameters combination.
+     *
+     * @param entry
+     *            benchmark result
+     * @return encoded metadata, or {@code null} if result has no stored metadata
+     */
+    private static String encodeMetadata(HistoryEntry entry) {
+        StringBuilder encoded = new StringBuilder();
+        for (String key : STORED_METADATA_KEYS) {
+            String value = PluginUtils.getParamsValue(entry.getMetadata().get(key), entry.getParams());
+            if (value != null) {
+                encoded.append(key).append('=').append(value.replace('\n', ' ')).append('\n');
+            }
+        }
+        return encoded.length() == 0 ? null : encoded.toString();
+    }
+
+    private static void decodeMetadata(String encoded, Map<String, String> metadata) {
+        if (encoded == null) {
+            return;
+        }
+        for (String line : encoded.split("\n")) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                metadata.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+    }
+
+    private long readLong(Column column, int row) {
+        return columns.get(column).getLong(row * column.width);
+    }
+
+    private double readDouble(Column column, int row) {
+        return columns.get(column).getDouble(row * column.width);
+    }
+
+    private String readString(Column column, int row) {
+        int id = columns.get(column).getInt(row * column.width);
+        return id == NO_STRING || id >= strings.size() ? null : strings.get(id);
+    }
+
+    private int getStringId(String value, DataOutputStream newStrings) throws IOException {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            newStrings.writeInt(bytes.length);
+            newStrings.write(bytes);
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    private File getColumnFile(Column column) {
+        return new File(storeDir, column.getFileName());
+    }
+
+    private static String getStatisticsKey(String name, String params) {
+        return name + ":" + params;
+    }
+
+    private static String getVersionKey(String key, String version) {
+        return key + "@" + version;
+    }
+
+    private static void writeAt(File file, ByteBuffer buffer, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            // drop leftovers of previously failed append
+            channel.truncate(position);
+        }
+    }
+}
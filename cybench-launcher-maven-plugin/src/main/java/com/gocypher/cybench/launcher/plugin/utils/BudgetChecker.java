@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.results.RunResult;
+
+/**
+ * Checks benchmark metrics against budgets. Budgets are defined by benchmark name pattern rules (see
+ * {@link BenchmarkRules}) or by benchmark metadata (e.g. set by {@code @BenchmarkMetaData} annotation) having key
+ * {@code budget.<metric>}. Metadata budgets override pattern budgets.
+ */
+public class BudgetChecker {
+
+    public static final String METADATA_PREFIX = "budget.";
+
+    private final Log log;
+    private final BenchmarkRules rules;
+    private final Map<String, ToDoubleFunction<RunResult>> metrics = new LinkedHashMap<>();
+
+    public BudgetChecker(Log log, BenchmarkRules rules) {
+        this.log = log;
+        this.rules = rules;
+    }
+
+    /**
+     * Creates budget checker of GC profiler metrics: {@code allocPerOp} (bytes allocated per operation),
+     * {@code gcCount} (GC count) and {@code gcTime} (GC time in milliseconds).
+     *
+     * @param log
+     *            log
+     * @param rules
+     *            budget rules
+     * @return budget checker
+     */
+    public static BudgetChecker forGcMetrics(Log log, BenchmarkRules rules) {
+        BudgetChecker checker = new BudgetChecker(log, rules);
+        checker.addMetric("allocPerOp", secondaryScore("gc.alloc.rate.norm"));
+        checker.addMetric("gcCount", secondaryScore("gc.count"));
+        checker.addMetric("gcTime", secondaryScore("gc.time"));
+        return checker;
+    }
+
+    /**
+     * Creates metric value extractor taking score of run result secondary result.
+     *
+     * @param label
+     *            secondary result label
+     * @return metric value extractor
+     */
+    public static ToDoubleFunction<RunResult> secondaryScore(String label) {
+        return result -> ResultUtils.getSecondaryScore(result.getSecondaryResults(), label);
+    }
+
+    /**
+     * Registers checked metric.
+     *
+     * @param name
+     *            metric name used in budget definitions
+     * @param extractor
+     *            metric value extractor, returning {@link Double#NaN} when value is not available
+     */
+    public void addMetric(String name, ToDoubleFunction<RunResult> extractor) {
+        metrics.put(name, extractor);
+    }
+
+    /**
+     * Checks run results against budgets.
+     *
+     * @param results
+     *            benchmark run results
+     * @param benchmarksMetadata
+     *            map of benchmark name and its metadata
+     * @return list of budget violations
+     */
+    public List<Violation> check(Collection<RunResult> results, Map<String, Map<String, String>> benchmarksMetadata) {
+        List<Violation> violations = new ArrayList<>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            Map<String, String> budgets = rules.getValues(benchmark);
+            Map<String, String> metadata = benchmarksMetadata.get(benchmark);
+            if (metadata != null) {
+                for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                    if (entry.getKey().startsWith(METADATA_PREFIX)) {
+                        budgets.put(entry.getKey().substring(METADATA_PREFIX.length()), entry.getValue());
+                    }
+                }
+            }
+            for (Map.Entry<String, String> budget : budgets.entrySet()) {
+                ToDoubleFunction<RunResult> extractor = metrics.get(budget.getKey());
+                if (extractor == null) {
+                    continue;
+                }
+                double limit;
+                try {
+                    limit = Double.parseDouble(budget.getValue());
+                } catch (NumberFormatException exc) {
+                    log.warn("Invalid " + budget.getKey() + " budget of benchmark " + benchmark + ": "
+                            + budget.getValue());
+                    continue;
+                }
+                double value = extractor.applyAsDouble(result);
+                if (Double.isNaN(value)) {
+                    log.warn("Benchmark " + benchmark + " has no " + budget.getKey() + " metric to check budget");
+                } else if (value > limit) {
+                    violations.add(new Violation(benchmark, result.getParams().id(), budget.getKey(), value, limit));
+                }
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Converts violations to structure serializable into report.
+     *
+     * @param violations
+     *            budget violations
+     * @return list of violation maps
+     */
+    public static List<Map<String, Object>> toMaps(List<Violation> violations) {
+        List<Map<String, Object>> maps = new ArrayList<>(violations.size());
+        for (Violation violation : violations) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("benchmark", violation.getBenchmark());
+            map.put("benchmarkId", violation.getBenchmarkId());
+            map.put("metric", violation.getMetric());
+            map.put("value", violation.getValue());
+            map.put("budget", violation.getBudget());
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    /**
+     * Benchmark metric exceeding its budget.
+     */
+    public static class Violation {
+        private final String benchmark;
+        private final String benchmarkId;
+        private final String metric;
+        private final double value;
+        private final double budget;
+
+        public Violation(String benchmark, String benchmarkId, String metric, double value, double budget) {
+            this.benchmark = benchmark;
+            this.benchmarkId = benchmarkId;
+            this.metric = metric;
+            this.value = value;
+            this.budget = budget;
+        }
+
+        public String getBenchmark() {
+            return benchmark;
+        }
+
+        /**
+         * Returns JMH benchmark identifier, including mode and parameter values.
+         *
+         * @return benchmark identifier
+         */
+        public String getBenchmarkId() {
+            return benchmarkId;
+        }
+
+        public String getMetric() {
+            return metric;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public double getBudget() {
+            return budget;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s=%.3f > %.3f", metric, value, budget);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads compiled class files directly from the class directories, without loading them into the JVM.
+ */
+public final class ClassFileUtils {
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([\\w/$]+);");
+
+    private ClassFileUtils() {
+    }
+
+    /**
+     * Finds class file for given class name in provided class directories.
+     *
+     * @param classDirs
+     *            class directories to search
+     * @param className
+     *            fully qualified class name
+     * @return class file, or {@code null} if class is not found in any of the directories
+     */
+    public static File findClassFile(Collection<File> classDirs, String className) {
+        String path = className.replace('.', File.separatorChar) + ".class";
+        for (File classDir : classDirs) {
+            File classFile = new File(classDir, path);
+            if (classFile.isFile()) {
+                return classFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects names of all classes referenced from class constant pool: class entries and types used in field/method
+     * descriptors.
+     *
+     * @param classBytes
+     *            class file bytes
+     * @return set of referenced class names in dotted notation
+     * @throws IOException
+     *             if class file bytes are malformed
+     */
+    public static Set<String> readReferencedClasses(byte[] classBytes) throws IOException {
+        ConstantPool constantPool = readConstantPool(new DataInputStream(new ByteArrayInputStream(classBytes)));
+
+        Set<String> classNames = new TreeSet<>();
+        for (int i = 1; i < constantPool.classNameIndexes.length; i++) {
+            String name = constantPool.getClassName(i);
+            if (name == null) {
+                continue;
+            }
+            if (name.startsWith("[")) {
+                collectDescriptorTypes(name, classNames);
+            } else {
+                classNames.add(name);
+            }
+        }
+        for (String value : constantPool.utf8) {
+            if (value != null && value.indexOf(';') > 0) {
+                collectDescriptorTypes(value, classNames);
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Reads name of class super class.
+     *
+     * @param classBytes
+     *            class file bytes
+     * @return super class name in dotted notation, or {@code null} if class has no super class
+     * @throws IOException
+     *             if class file bytes are malformed
+     */
+    public static String readSuperClass(byte[] classBytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        ConstantPool constantPool = readConstantPool(in);
+        in.readUnsignedShort(); // access flags
+        in.readUnsignedShort(); // this class
+        return constantPool.getClassName(in.readUnsignedShort());
+    }
+
+    private static ConstantPool readConstantPool(DataInputStream in) throws IOException {
+        if (in.readInt() != CLASS_MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+        int cpCount = in.readUnsignedShort();
+        ConstantPool constantPool = new ConstantPool(cpCount);
+        for (int i = 1; i < cpCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                constantPool.utf8[i] = in.readUTF();
+                break;
+            case 7: // Class
+                constantPool.classNameIndexes[i] = in.readUnsignedShort();
+                break;
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.skipBytes(2);
+                break;
+            case 15: // MethodHandle
+                in.skipBytes(3);
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.skipBytes(4);
+                break;
+            case 5: // Long
+            case 6: // Double
+                in.skipBytes(8);
+                i++;
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+        return constantPool;
+    }
+
+    private static void collectDescriptorTypes(String descriptor, Set<String> classNames) {
+        Matcher matcher = DESCRIPTOR_TYPE.matcher(descriptor);
+        while (matcher.find()) {
+            classNames.add(matcher.group(1).replace('/', '.'));
+        }
+    }
+
+    /**
+     * Computes fingerprint of class and all project classes it (transitively) depends on. Only classes found in
+     * provided class directories are taken into account, so library classes do not affect the fingerprint.
+     *
+     * @param classDirs
+     *            project class directories
+     * @param className
+     *            fully qualified class name
+     * @return hex encoded SHA-256 fingerprint, or {@code null} if class file is not found
+     * @throws IOException
+     *             if class file can't be read
+     */
+    public static String computeDependencyFingerprint(Collection<File> classDirs, String className)
+            throws IOException {
+        File rootFile = findClassFile(classDirs, className);
+        if (rootFile == null) {
+            return null;
+        }
+        Map<String, byte[]> visited = new TreeMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(className);
+        while (!pending.isEmpty()) {
+            String name = pending.poll();
+            if (visited.containsKey(name)) {
+                continue;
+            }
+            File classFile = findClassFile(classDirs, name);
+            if (classFile == null) {
+                continue;
+            }
+            byte[] classBytes = Files.readAllBytes(classFile.toPath());
+            visited.put(name, classBytes);
+            for (String referenced : readReferencedClasses(classBytes)) {
+                if (!visited.containsKey(referenced)) {
+                    pending.add(referenced);
+                }
+            }
+        }
+
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String, byte[]> classEntry : visited.entrySet()) {
+            digest.update(classEntry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update(classEntry.getValue());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes hex encoded SHA-256 hash of provided values.
+     *
+     * @param values
+     *            values to hash, {@code null} values are hashed as empty strings
+     * @return hex encoded hash
+     */
+    public static String hash(String... values) {
+        MessageDigest digest = newDigest();
+        for (String value : values) {
+            digest.update((value == null ? "" : value).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes hex encoded SHA-256 hash of provided byte arrays.
+     *
+     * @param contents
+     *            contents to hash
+     * @return hex encoded hash
+     */
+    public static String hash(List<byte[]> contents) {
+        MessageDigest digest = newDigest();
+        for (byte[] content : contents) {
+            digest.update(content);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("SHA-256 digest is not available", exc);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        return String.format("%064x", new BigInteger(1, bytes));
+    }
+
+    private static class ConstantPool {
+        final String[] utf8;
+        final int[] classNameIndexes;
+
+        ConstantPool(int count) {
+            utf8 = new String[count];
+            classNameIndexes = new int[count];
+        }
+
+        String getClassName(int index) {
+            if (index <= 0 || index >= classNameIndexes.length || classNameIndexes[index] == 0) {
+                return null;
+            }
+            String name = utf8[classNameIndexes[index]];
+            return name == null || name.startsWith("[") ? name : name.replace('/', '.');
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.gocypher.cybench.core.utils.SecurityUtils;
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Cache of benchmark class fingerprints (manual, class and generated ones). Cache is stored as serialized file under
+ * reports folder and maps benchmark class name to fingerprints computed for the class bytes.
+ * <p>
+ * Cached fingerprints are reused when timestamps and sizes of class files (of benchmark class and its super classes)
+ * are unchanged, without reading the files. Otherwise class bytes are read directly from class path resources,
+ * without loading classes, and cached fingerprints are reused when checksum of class bytes is unchanged. Only changed
+ * classes are loaded and fingerprinted, in parallel.
+ */
+public class ClassFingerprintCache {
+
+    private static final String CACHE_FILE = "class-fingerprints.cache";
+
+    private final Log log;
+    private final File cacheFile;
+    private final ClassLoader classLoader;
+    private Map<String, CacheEntry> entries = new HashMap<>();
+
+    public ClassFingerprintCache(Log log, String reportsFolder, ClassLoader classLoader) {
+        this.log = log;
+        this.cacheFile = new File(PluginUtils.getWorkDir(reportsFolder), CACHE_FILE);
+        this.classLoader = classLoader;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ClassFingerprintCache load() {
+        if (cacheFile.isFile()) {
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                entries = (Map<String, CacheEntry>) in.readObject();
+            } catch (Exception exc) {
+                log.warn("Failed to read class fingerprints cache '" + cacheFile + "', all classes will be analyzed: "
+                        + exc);
+                entries = new HashMap<>();
+            }
+        }
+        return this;
+    }
+
+    public void store() {
+        try {
+            File cacheDir = cacheFile.getParentFile();
+            if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+                throw new IOException("Can't create cache directory " + cacheDir);
+            }
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+                out.writeObject(entries);
+            }
+        } catch (IOException exc) {
+            log.warn("Failed to store class fingerprints cache '" + cacheFile + "': " + exc);
+        }
+    }
+
+    /**
+     * Computes fingerprints of benchmark classes and puts them into benchmarking context. Unchanged classes get
+     * fingerprints from cache, changed ones are fingerprinted in parallel.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param benchmarkClasses
+     *            benchmark class names
+     * @throws Exception
+     *             if fingerprinting is interrupted
+     */
+    public void analyze(BenchmarkingContext benchContext, Collection<String> benchmarkClasses) throws Exception {
+        long start = System.currentTimeMillis();
+        int threads = Math.max(1, Math.min(benchmarkClasses.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        Map<String, Future<CacheEntry>> futures = new LinkedHashMap<>();
+        try {
+            for (String className : new LinkedHashSet<>(benchmarkClasses)) {
+                CacheEntry cached = entries.get(className);
+                futures.put(className, executorService.submit(() -> analyze(className, cached)));
+            }
+
+            int reused = 0;
+            Map<String, CacheEntry> analyzed = new HashMap<>();
+            for (Map.Entry<String, Future<CacheEntry>> future : futures.entrySet()) {
+                CacheEntry entry;
+                try {
+                    entry = future.getValue().get();
+                } catch (ExecutionException exc) {
+                    log.error("Failed to fingerprint benchmark class " + future.getKey(), exc.getCause());
+                    continue;
+                }
+                if (entry == null) {
+                    continue;
+                }
+                if (entry == entries.get(future.getKey())) {
+                    reused++;
+                }
+                analyzed.put(future.getKey(), entry);
+                benchContext.getManualFingerprints().putAll(entry.manualFingerprints);
+                benchContext.getClassFingerprints().putAll(entry.classFingerprints);
+                benchContext.getGeneratedFingerprints().putAll(entry.generatedFingerprints);
+            }
+            // reports folder may be shared by several modules, so entries of other classes are kept
+            entries.putAll(analyzed);
+            log.info("Analyzed " + analyzed.size() + " benchmark classes (" + reused + " unchanged) in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private CacheEntry analyze(String className, CacheEntry cached) throws IOException {
+        if (cached != null && isUnchanged(className, cached)) {
+            return cached;
+        }
+        Map<String, byte[]> classFiles = readClassFiles(className);
+        if (classFiles.isEmpty()) {
+            log.error("Class not found in the classpath for execution: " + className);
+            return null;
+        }
+        Map<String, String> stamps = new LinkedHashMap<>();
+        for (String resource : classFiles.keySet()) {
+            stamps.put(resource, getStamp(new URL(resource)));
+        }
+        String checksum = ClassFileUtils.hash(new ArrayList<>(classFiles.values()));
+        if (cached != null && cached.checksum.equals(checksum)) {
+            cached.stamps = stamps;
+            return cached;
+        }
+
+        CacheEntry entry = new CacheEntry();
+        entry.stamps = stamps;
+        entry.checksum = checksum;
+        try {
+            Class<?> classObj = Class.forName(className, false, classLoader);
+            SecurityUtils.generateMethodFingerprints(classObj, entry.manualFingerprints, entry.classFingerprints);
+            SecurityUtils.computeClassHashForMethods(classObj, entry.generatedFingerprints);
+        } catch (ClassNotFoundException exc) {
+            log.error("Class not found in the classpath for execution", exc);
+            return null;
+        }
+        return entry;
+    }
+
+    private boolean isUnchanged(String className, CacheEntry cached) throws IOException {
+        URL resource = classLoader.getResource(toResourceName(className));
+        if (resource == null || cached.stamps.isEmpty()
+                || !resource.toString().equals(cached.stamps.keySet().iterator().next())) {
+            return false;
+        }
+        for (Map.Entry<String, String> stamp : cached.stamps.entrySet()) {
+            if (!stamp.getValue().equals(getStamp(new URL(stamp.getKey())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads class files of class and its super classes, up to the first JDK class.
+     *
+     * @param className
+     *            fully qualified class name
+     * @return map of class file resource URL and its bytes
+     * @throws IOException
+     *             if class file can't be read
+     */
+    private Map<String, byte[]> readClassFiles(String className) throws IOException {
+        Map<String, byte[]> classFiles = new LinkedHashMap<>();
+        String name = className;
+        while (name != null && !name.startsWith("java.")) {
+            URL resource = classLoader.getResource(toResourceName(name));
+            if (resource == null) {
+                break;
+            }
+            byte[] classBytes = readBytes(resource);
+            classFiles.put(resource.toString(), classBytes);
+            name = ClassFileUtils.readSuperClass(classBytes);
+        }
+        return classFiles;
+    }
+
+    private static String toResourceName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static String getStamp(URL resource) throws IOException {
+        if ("file".equals(resource.getProtocol())) {
+            try {
+                File file = new File(resource.toURI());
+                return file.lastModified() + ":" + file.length();
+            } catch (URISyntaxException exc) {
+                // falls back to connection
+            }
+        }
+        URLConnection connection = resource.openConnection();
+        connection.setUseCaches(false);
+        try (InputStream ignored = connection.getInputStream()) {
+            return connection.getLastModified() + ":" + connection.getContentLengthLong();
+        }
+    }
+
+    private static byte[] readBytes(URL resource) throws IOException {
+        URLConnection connection = resource.openConnection();
+        connection.setUseCaches(false);
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static class CacheEntry implements Serializable {
+        private static final long serialVersionUID = 3846029731052387443L;
+
+        private Map<String, String> stamps;
+        private String checksum;
+        private final Map<String, String> manualFingerprints = new HashMap<>();
+        private final Map<String, String> classFingerprints = new HashMap<>();
+        private final Map<String, String> generatedFingerprints = new HashMap<>();
+    }
+}
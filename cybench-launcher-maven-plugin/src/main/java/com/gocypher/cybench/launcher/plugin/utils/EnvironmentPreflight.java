@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Checks if machine is fit to run benchmarks on, before benchmarks are measured.
+ * <p>
+ * On Linux CPU frequency governor, turbo boost, transparent huge pages and isolated CPUs settings are read from
+ * {@code /sys}, load average and CPU steal time and utilization (sampled over a second) from {@code /proc}. Short
+ * calibration loop is run to measure timing noise. Every finding lowers stability score from {@code 100}, machine
+ * is considered stable when score reaches configured minimum.
+ */
+public class EnvironmentPreflight {
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+    private static final String THP_FILE = "/sys/kernel/mm/transparent_hugepage/enabled";
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+    private static final long WAIT_INTERVAL_MILLIS = 10000;
+    private static final int CALIBRATION_ROUNDS = 30;
+    private static final int CALIBRATION_WARM_UP_ROUNDS = 5;
+    private static final int CALIBRATION_ROUND_OPS = 2_000_000;
+
+    /**
+     * Action taken when machine is not stable.
+     */
+    public enum Action {
+        /**
+         * Preflight is not run
+         */
+        OFF,
+        /**
+         * Findings are logged as warnings and benchmarks are run
+         */
+        WARN,
+        /**
+         * Machine is re-checked until it gets stable or wait timeout expires
+         */
+        WAIT,
+        /**
+         * Benchmarks are not run
+         */
+        FAIL
+    }
+
+    private final Log log;
+    private final int minScore;
+    private long calibrationSink;
+
+    /**
+     * Constructs environment preflight.
+     *
+     * @param log
+     *            log
+     * @param minScore
+     *            minimal stability score of stable machine
+     */
+    public EnvironmentPreflight(Log log, int minScore) {
+        this.log = log;
+        this.minScore = minScore;
+    }
+
+    /**
+     * Runs preflight check.
+     *
+     * @param action
+     *            action taken when machine is not stable
+     * @param waitTimeout
+     *            maximal time to wait for machine to get stable, in seconds
+     * @return stability check result of the last check
+     * @throws InterruptedException
+     *             if waiting is interrupted
+     */
+    public Stability run(Action action, int waitTimeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitTimeout);
+        Stability stability = check();
+        while (action == Action.WAIT && !stability.isStable() && System.currentTimeMillis() < deadline) {
+            log.info("Environment stability score " + stability.getScore() + " is below " + minScore
+                    + ", waiting for machine to quiet down: " + StringUtils.join(stability.getFindings(), "; "));
+            Thread.sleep(WAIT_INTERVAL_MILLIS);
+            stability = check();
+        }
+        if (stability.isStable()) {
+            log.info("Environment stability score: " + stability.getScore());
+        } else {
+            log.warn("Environment stability score " + stability.getScore() + " is below " + minScore
+                    + ", benchmark results may be noisy");
+        }
+        for (String finding : stability.getFindings()) {
+            log.warn("  " + finding);
+        }
+        return stability;
+    }
+
+    /**
+     * Checks machine stability once.
+     *
+     * @return stability check result
+     * @throws InterruptedException
+     *             if CPU utilization sampling is interrupted
+     */
+    public Stability check() throws InterruptedException {
+        Stability stability = new Stability(minScore);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Set<String> governors = new TreeSet<>();
+        File[] cpuDirs = new File(CPU_DIR).listFiles((dir, name) -> name.matches("cpu\\d+"));
+        if (cpuDirs != null) {
+            for (File cpuDir : cpuDirs) {
+                String governor = readFirstLine(new File(cpuDir, "cpufreq/scaling_governor"));
+                if (governor != null) {
+                    governors.add(governor);
+                }
+            }
+        }
+        if (!governors.isEmpty()) {
+            stability.metrics.put("cpuGovernors", StringUtils.join(governors, ","));
+            if (governors.size() > 1 || !governors.contains("performance")) {
+                stability.penalize(15, "CPU frequency governor is not 'performance': " + governors);
+            }
+        }
+
+        String noTurbo = readFirstLine(new File(CPU_DIR, "intel_pstate/no_turbo"));
+        String boost = readFirstLine(new File(CPU_DIR, "cpufreq/boost"));
+        if (noTurbo != null || boost != null) {
+            boolean turbo = noTurbo != null ? "0".equals(noTurbo) : "1".equals(boost);
+            stability.metrics.put("turboBoost", turbo);
+            if (turbo) {
+                stability.penalize(10, "Turbo boost is enabled, CPU frequency depends on load and temperature");
+            }
+        }
+
+        String thp = readFirstLine(new File(THP_FILE));
+        if (thp != null) {
+            String thpMode = StringUtils.substringBetween(thp, "[", "]");
+            stability.metrics.put("transparentHugePages", thpMode);
+            if ("always".equals(thpMode)) {
+                stability.penalize(5,
+                        "Transparent huge pages are set to 'always', memory layout may vary between runs");
+            }
+        }
+
+        String isolated = readFirstLine(new File(CPU_DIR, "isolated"));
+        if (isolated != null) {
+            stability.metrics.put("isolatedCpus", isolated);
+        }
+
+        double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        if (loadAverage >= 0) {
+            double loadPerCore = loadAverage / cores;
+            stability.metrics.put("loadAveragePerCore", round(loadPerCore));
+            if (loadPerCore > 0.1) {
+                stability.penalize(Math.min(30, (int) Math.round((loadPerCore - 0.1) * 40)),
+                        String.format(Locale.ROOT, "System load average is %.2f per core", loadPerCore));
+            }
+        }
+
+        long[] cpuTimesStart = readCpuTimes();
+        if (cpuTimesStart != null) {
+            Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            long[] cpuTimesEnd = readCpuTimes();
+            if (cpuTimesEnd != null) {
+                double total = 0;
+                for (int i = 0; i < cpuTimesStart.length; i++) {
+                    total += cpuTimesEnd[i] - cpuTimesStart[i];
+                }
+                if (total > 0) {
+                    // user nice system idle iowait irq softirq steal
+                    double idle = (cpuTimesEnd[3] - cpuTimesStart[3]) + (cpuTimesEnd[4] - cpuTimesStart[4]);
+                    double stealPercent = (cpuTimesEnd[7] - cpuTimesStart[7]) / total * 100;
+                    double busyPercent = (total - idle) / total * 100;
+                    stability.metrics.put("cpuStealPercent", round(stealPercent));
+                    stability.metrics.put("cpuBusyPercent", round(busyPercent));
+                    if (stealPercent > 0.5) {
+                        stability.penalize(Math.min(25, (int) Math.round(stealPercent * 5)), String.format(Locale.ROOT,
+                                "CPU steal time is %.1f%%, machine is shared with other virtual machines",
+                                stealPercent));
+                    }
+                    if (busyPercent > 10) {
+                        stability.penalize(Math.min(20, (int) Math.round((busyPercent - 10) / 2)), String
+                                .format(Locale.ROOT, "CPUs are %.1f%% busy by other processes", busyPercent));
+                    }
+                }
+            }
+        }
+
+        double calibrationCv = calibrate();
+        stability.metrics.put("calibrationCvPercent", round(calibrationCv * 100));
+        if (calibrationCv > 0.01) {
+            stability.penalize(Math.min(30, (int) Math.round(calibrationCv * 500)), String.format(Locale.ROOT,
+                    "Calibration loop timing varies by %.1f%% (coefficient of variation)", calibrationCv * 100));
+        }
+        return stability;
+    }
+
+    /**
+     * Runs fixed amount of work several times and measures variation of its duration.
+     *
+     * @return coefficient of variation of calibration rounds durations
+     */
+    double calibrate() {
+        double[] durations = new double[CALIBRATION_ROUNDS];
+        long value = System.nanoTime();
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALIBRATION_ROUND_OPS; i++) {
+                value = value * 6364136223846793005L + 1442695040888963407L;
+                value ^= value >>> 29;
+            }
+            durations[round] = System.nanoTime() - start;
+        }
+        // keeps calibration loop from being optimized away
+        calibrationSink += value;
+        return ResultUtils.coefficientOfVariation(durations, CALIBRATION_WARM_UP_ROUNDS, CALIBRATION_ROUNDS);
+    }
+
+    private static long[] readCpuTimes() {
+        String cpuLine = readFirstLine(new File("/proc/stat"));
+        if (cpuLine == null || !cpuLine.startsWith("cpu ")) {
+            return null;
+        }
+        String[] fields = cpuLine.trim().split("\\s+");
+        if (fields.length < 9) {
+            return null;
+        }
+        long[] times = new long[8];
+        try {
+            for (int i = 0; i < times.length; i++) {
+                times[i] = Long.parseLong(fields[i + 1]);
+            }
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+        return times;
+    }
+
+    private static String readFirstLine(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            return lines.isEmpty() ? null : lines.get(0).trim();
+        } catch (IOException exc) {
+            return null;
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Environment stability check result.
+     */
+    public static class Stability {
+        private final int minScore;
+        private int score = 100;
+        private final List<String> findings = new ArrayList<>();
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Stability(int minScore) {
+            this.minScore = minScore;
+        }
+
+        void penalize(int penalty, String finding) {
+            score = Math.max(0, score - penalty);
+            findings.add(finding);
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public boolean isStable() {
+            return score >= minScore;
+        }
+
+        public List<String> getFindings() {
+            return findings;
+        }
+
+        public Map<String, Object> getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Converts check result to structure serializable into report.
+         *
+         * @return stability map
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("score", score);
+            map.put("minScore", minScore);
+            map.put("stable", isStable());
+            map.put("findings", findings);
+            map.put("metrics", metrics);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+import org.openjdk.jmh.runner.IterationType;
+
+/**
+ * JMH profiler measuring memory footprint of benchmark state in the fork.
+ * <p>
+ * Baseline is taken before the first iteration, i.e. before {@code Level.Trial} setup of benchmark states. Footprint
+ * is taken after the last but one iteration, while trial states are still reachable (JMH tears them down in the last
+ * iteration). Both snapshots are taken after full GC, so footprint is retained size of objects the benchmark keeps
+ * reachable between iterations, direct buffers memory and (if fork runs with {@code -XX:NativeMemoryTracking}) native
+ * memory committed outside of Java heap. When benchmark runs less than two iterations (counting warm-up ones), footprint
+ * can't be measured and {@value #NOT_MEASURED_LABEL} result of iterations count is reported instead.
+ * <p>
+ * Profiler is loaded by benchmark forks, so it must not depend on anything but JDK and JMH.
+ */
+public class FootprintProfiler implements InternalProfiler {
+
+    public static final String RETAINED_HEAP_LABEL = "footprint.retainedHeap";
+    public static final String DIRECT_MEMORY_LABEL = "footprint.directMemory";
+    public static final String NATIVE_MEMORY_LABEL = "footprint.nativeMemory";
+    public static final String NOT_MEASURED_LABEL = "footprint.notMeasured";
+
+    private static final String UNIT = "bytes";
+    private static final int MAX_GC_ROUNDS = 10;
+    private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=(\\d+)KB, committed=(\\d+)KB");
+    private static final Pattern NMT_HEAP = Pattern.compile("Java Heap \\(reserved=(\\d+)KB, committed=(\\d+)KB\\)");
+
+    private Snapshot baseline;
+    private Snapshot footprint;
+    private int measurementIteration;
+    private int iterations;
+
+    @Override
+    public String getDescription() {
+        return "Retained heap, direct and native memory footprint of benchmark state";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        if (baseline == null) {
+            baseline = Snapshot.take();
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+            IterationParams iterationParams, IterationResult result) {
+        iterations++;
+        if (iterationParams.getType() != IterationType.MEASUREMENT) {
+            footprint = Snapshot.take();
+            return Collections.emptyList();
+        }
+        measurementIteration++;
+        if (measurementIteration < iterationParams.getCount()) {
+            footprint = Snapshot.take();
+            return Collections.emptyList();
+        }
+        if (footprint == null) {
+            return Collections.singletonList(
+                    new ScalarResult(NOT_MEASURED_LABEL, iterations, "iterations", AggregationPolicy.MAX));
+        }
+        List<Result> results = new ArrayList<>();
+        results.add(bytes(RETAINED_HEAP_LABEL, footprint.heap - baseline.heap));
+        results.add(bytes(DIRECT_MEMORY_LABEL, footprint.direct - baseline.direct));
+        if (footprint.nativeMemory >= 0 && baseline.nativeMemory >= 0) {
+            results.add(bytes(NATIVE_MEMORY_LABEL, footprint.nativeMemory - baseline.nativeMemory));
+        }
+        return results;
+    }
+
+    private static ScalarResult bytes(String label, long value) {
+        // objects freed by the benchmark itself (e.g. JMH or JIT caches) may make footprint negative
+        return new ScalarResult(label, Math.max(0, value), UNIT, AggregationPolicy.MAX);
+    }
+
+    static final class Snapshot {
+        final long heap;
+        final long direct;
+        final long nativeMemory;
+
+        private Snapshot(long heap, long direct, long nativeMemory) {
+            this.heap = heap;
+            this.direct = direct;
+            this.nativeMemory = nativeMemory;
+        }
+
+        static Snapshot take() {
+            return new Snapshot(usedHeapAfterGc(), directMemoryUsed(), nativeMemoryCommitted());
+        }
+    }
+
+    static long usedHeapAfterGc() {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < MAX_GC_ROUNDS; i++) {
+            System.gc();
+            long current = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                break;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+    static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns native memory committed by JVM outside of Java heap, as reported by native memory tracking.
+     *
+     * @return committed native memory in bytes, or {@code -1} if native memory tracking is not enabled
+     */
+    static long nativeMemoryCommitted() {
+        String summary;
+        try {
+            summary = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+                    new Object[] { new String[] { "summary" } }, new String[] { String[].class.getName() });
+        } catch (Exception exc) {
+            return -1;
+        }
+        return parseNativeMemory(summary);
+    }
+
+    static long parseNativeMemory(String summary) {
+        Matcher total = summary == null ? null : NMT_TOTAL.matcher(summary);
+        if (total == null || !total.find()) {
+            return -1;
+        }
+        long committed = Long.parseLong(total.group(2));
+        Matcher heap = NMT_HEAP.matcher(summary);
+        if (heap.find()) {
+            committed -= Long.parseLong(heap.group(2));
+        }
+        return committed * 1024;
+    }
+}
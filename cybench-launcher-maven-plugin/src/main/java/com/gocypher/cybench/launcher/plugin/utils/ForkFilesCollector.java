@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Collects files written by benchmark forks (e.g. recordings or logs) per benchmark.
+ * <p>
+ * Forks are started with additional JVM arguments making them write files to directory of the runner thread, where
+ * every fork writes uniquely named file. JMH runs forks of benchmark one after another, so when benchmark is finished,
+ * files of runner directory are files of benchmark forks: they are moved to
+ * {@code reportsFolder/<output folder>/<benchmark id>/fork-<n><suffix>}. Benchmark may be finished several times within
+ * one run (e.g. target precision rounds, fork mode analysis extra forks or adaptive warm-up detection), files of
+ * every pass are collected with continuing fork numbers. Files of previous runs are removed when benchmark is
+ * finished first time.
+ */
+public abstract class ForkFilesCollector implements NotifyingOutputFormat.BenchmarkListener {
+
+    protected final Log log;
+    protected final String reportsFolder;
+    private final String outputFolder;
+    private final String fileSuffix;
+    private final AtomicInteger slotCounter = new AtomicInteger();
+    private final ThreadLocal<File> slot = new ThreadLocal<>();
+    private final Map<String, List<File>> forkFiles = new TreeMap<>();
+    private final Map<String, BenchmarkParams> benchmarkParams = new HashMap<>();
+    private final Set<String> clearedDirs = new HashSet<>();
+
+    /**
+     * Constructs fork files collector.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @param outputFolder
+     *            folder under reports folder to store collected files to
+     * @param fileSuffix
+     *            suffix of files written by forks
+     */
+    protected ForkFilesCollector(Log log, String reportsFolder, String outputFolder, String fileSuffix) {
+        this.log = log;
+        this.reportsFolder = reportsFolder;
+        this.outputFolder = outputFolder;
+        this.fileSuffix = fileSuffix;
+    }
+
+    /**
+     * Returns JVM arguments making fork to write uniquely named file to provided directory.
+     *
+     * @param dir
+     *            directory of the runner thread
+     * @return fork JVM arguments
+     */
+    protected abstract List<String> getJvmArgs(File dir);
+
+    /**
+     * Wraps benchmarks executor to run benchmark forks with additional JVM arguments.
+     *
+     * @param delegate
+     *            executor running benchmarks with output format notifying this listener
+     * @return wrapped benchmarks executor
+     */
+    public ParallelForkScheduler.BenchmarksExecutor wrap(ParallelForkScheduler.BenchmarksExecutor delegate) {
+        return options -> {
+            File slotDir = new File(PluginUtils.getWorkDir(reportsFolder),
+                    outputFolder + "-forks" + File.separator + slotCounter.incrementAndGet());
+            Files.createDirectories(slotDir.toPath());
+            // JMH runner notifies about started and finished benchmarks from the thread calling it
+            slot.set(slotDir);
+            try {
+                return delegate.run(withJvmArgs(options, slotDir));
+            } finally {
+                slot.remove();
+                deleteFiles(slotDir);
+                slotDir.delete();
+            }
+        };
+    }
+
+    private Options withJvmArgs(Options options, File slotDir) {
+        List<String> jvmArgs = new ArrayList<>(options.getJvmArgsAppend().orElse(Collections.emptyList()));
+        jvmArgs.addAll(getJvmArgs(slotDir));
+        return new OptionsBuilder().parent(options).jvmArgsAppend(jvmArgs.toArray(new String[0])).build();
+    }
+
+    @Override
+    public void benchmarkStarted(BenchmarkParams params) {
+        File slotDir = slot.get();
+        if (slotDir != null) {
+            // files of failed benchmark forks
+            deleteFiles(slotDir);
+        }
+    }
+
+    @Override
+    public void benchmarkFinished(RunResult result) {
+        File slotDir = slot.get();
+        if (slotDir == null) {
+            return;
+        }
+        String id = result.getParams().id();
+        String relativeDir = getRelativeOutputDir(id);
+        File outputDir = new File(reportsFolder, relativeDir);
+        List<File> files = new ArrayList<>();
+        synchronized (this) {
+            List<File> collected = forkFiles.getOrDefault(id, Collections.emptyList());
+            try {
+                if (clearedDirs.add(relativeDir)) {
+                    // files of previous run
+                    deleteFiles(outputDir);
+                }
+                Files.createDirectories(outputDir.toPath());
+                for (File file : listFiles(slotDir)) {
+                    File forkFile = new File(outputDir, "fork-" + (collected.size() + files.size() + 1) + fileSuffix);
+                    Files.move(file.toPath(), forkFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    files.add(forkFile);
+                }
+            } catch (IOException exc) {
+                log.warn("Failed to store " + fileSuffix + " files of " + id + " forks: " + exc);
+            }
+            if (!files.isEmpty()) {
+                forkFiles.computeIfAbsent(id, k -> new ArrayList<>()).addAll(files);
+                benchmarkParams.put(id, result.getParams());
+            }
+        }
+        if (files.isEmpty()) {
+            log.warn("No " + fileSuffix + " files produced by forks of " + id);
+        }
+    }
+
+    /**
+     * Returns collected files of finished benchmarks.
+     *
+     * @return map of benchmark id and its forks files
+     */
+    protected synchronized Map<String, List<File>> getForkFiles() {
+        Map<String, List<File>> files = new TreeMap<>();
+        for (Map.Entry<String, List<File>> benchmarkFiles : forkFiles.entrySet()) {
+            files.put(benchmarkFiles.getKey(), new ArrayList<>(benchmarkFiles.getValue()));
+        }
+        return files;
+    }
+
+    /**
+     * Returns parameters of finished benchmark.
+     *
+     * @param id
+     *            benchmark id
+     * @return benchmark parameters
+     */
+    protected synchronized BenchmarkParams getBenchmarkParams(String id) {
+        return benchmarkParams.get(id);
+    }
+
+    /**
+     * Returns path (relative to reports folder) of directory having collected files of benchmark.
+     *
+     * @param id
+     *            benchmark id
+     * @return directory path
+     */
+    protected String getRelativeOutputDir(String id) {
+        return outputFolder + "/" + id.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private List<File> listFiles(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(fileSuffix));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+        return Arrays.asList(files);
+    }
+
+    private void deleteFiles(File dir) {
+        for (File file : listFiles(dir)) {
+            if (!file.delete()) {
+                log.debug("Failed to delete fork file " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.Options;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Detects performance modes and outlier forks of benchmarks run with multiple forks.
+ * <p>
+ * Fork scores are sorted and split at the largest gap, recursively, while gap is wider than
+ * {@value #SEPARATION} times the spread of both sides: within-fork spread (standard deviation of fork iterations) or
+ * between-forks spread of the side (scaled median absolute deviation), whichever is larger. Gaps narrower than
+ * {@value #MIN_RELATIVE_GAP} of median score are ignored. Groups of forks found are performance modes, single fork
+ * groups are outlier forks.
+ * <p>
+ * When more than one group is found, extra forks of benchmark are run once and analysis is repeated on all forks.
+ * Outlier forks confirmed by extra forks are excluded from benchmark result, modes are kept and recorded in benchmark
+ * metadata.
+ */
+public class ForkModeAnalyzer {
+
+    static final double SEPARATION = 4;
+    static final double MIN_RELATIVE_GAP = 0.02;
+    private static final double MAD_SCALE = 1.4826;
+
+    private final Log log;
+    private final int extraForks;
+    private final List<Map<String, Object>> analyses = new ArrayList<>();
+    private final Map<String, BenchmarkParams> analyzedParams = new TreeMap<>();
+    private final Map<String, Map<String, String>> metadata = new TreeMap<>();
+
+    /**
+     * Constructs fork mode analyzer.
+     *
+     * @param log
+     *            log
+     * @param extraForks
+     *            number of extra forks to run for benchmarks having more than one group of forks
+     */
+    public ForkModeAnalyzer(Log log, int extraForks) {
+        this.log = log;
+        this.extraForks = extraForks;
+    }
+
+    /**
+     * Analyzes forks of benchmarks, runs extra forks of unsettled benchmarks and excludes confirmed outlier forks.
+     *
+     * @param options
+     *            JMH options benchmarks were run with
+     * @param results
+     *            benchmarks results
+     * @param executor
+     *            executor to run extra forks with
+     * @return benchmarks results, having extra forks added and outlier forks excluded
+     * @throws Exception
+     *             if extra forks run fails
+     */
+    public Collection<RunResult> run(Options options, Collection<RunResult> results,
+            ParallelForkScheduler.BenchmarksExecutor executor) throws Exception {
+        Map<String, RunResult> resultsById = new LinkedHashMap<>();
+        Set<String> unsettled = new TreeSet<>();
+        for (RunResult result : results) {
+            resultsById.put(result.getParams().id(), result);
+            if (findGroups(new ArrayList<>(result.getBenchmarkResults())).size() > 1) {
+                unsettled.add(result.getParams().getBenchmark());
+            }
+        }
+        Set<String> rerun = new HashSet<>();
+        if (!unsettled.isEmpty() && extraForks > 0) {
+            log.info("Fork scores of " + unsettled.size() + " benchmarks differ, running " + extraForks
+                    + " extra forks of: " + unsettled);
+            Options extraOptions = PluginUtils.restrictTo(options, PluginUtils.findBenchmarks(options), unsettled)
+                    .forks(extraForks).build();
+            for (RunResult extra : executor.run(extraOptions)) {
+                RunResult result = resultsById.get(extra.getParams().id());
+                if (result != null) {
+                    List<BenchmarkResult> forks = new ArrayList<>(result.getBenchmarkResults());
+                    forks.addAll(extra.getBenchmarkResults());
+                    resultsById.put(extra.getParams().id(), new RunResult(result.getParams(), forks));
+                    rerun.add(extra.getParams().id());
+                }
+            }
+        }
+
+        List<RunResult> analyzed = new ArrayList<>(resultsById.size());
+        for (RunResult result : resultsById.values()) {
+            analyzed.add(analyze(result, rerun.contains(result.getParams().id())));
+        }
+        return analyzed;
+    }
+
+    private RunResult analyze(RunResult result, boolean rerun) {
+        List<BenchmarkResult> forks = new ArrayList<>(result.getBenchmarkResults());
+        List<List<Integer>> groups = findGroups(forks);
+        if (groups.size() <= 1) {
+            return result;
+        }
+        BenchmarkParams params = result.getParams();
+        String unit = result.getPrimaryResult().getScoreUnit();
+        List<List<Integer>> modes = new ArrayList<>();
+        List<Integer> outliers = new ArrayList<>();
+        for (List<Integer> group : groups) {
+            if (group.size() > 1) {
+                modes.add(group);
+            } else {
+                outliers.add(group.get(0));
+            }
+        }
+        // outliers are excluded only when extra forks confirmed them and there is a mode to keep
+        boolean excludeOutliers = rerun && !modes.isEmpty() && !outliers.isEmpty();
+
+        Map<String, Object> analysis = new LinkedHashMap<>();
+        analysis.put("benchmark", params.getBenchmark());
+        analysis.put("id", params.id());
+        analysis.put("forks", forks.size());
+        analysis.put("extraForks", rerun ? extraForks : 0);
+        analysis.put("scoreUnit", unit);
+        List<Map<String, Object>> modeMaps = new ArrayList<>();
+        List<String> modeDescriptions = new ArrayList<>();
+        for (List<Integer> mode : modes) {
+            double modeScore = median(scores(forks, mode));
+            Map<String, Object> modeMap = new LinkedHashMap<>();
+            modeMap.put("score", modeScore);
+            modeMap.put("forks", toForkNumbers(mode));
+            modeMaps.add(modeMap);
+            modeDescriptions.add(format(modeScore) + " " + unit + " (" + mode.size() + " forks)");
+        }
+        analysis.put("modes", modeMaps);
+        List<Map<String, Object>> outlierMaps = new ArrayList<>();
+        List<String> outlierDescriptions = new ArrayList<>();
+        for (Integer outlier : outliers) {
+            double outlierScore = forks.get(outlier).getPrimaryResult().getScore();
+            Map<String, Object> outlierMap = new LinkedHashMap<>();
+            outlierMap.put("fork", outlier + 1);
+            outlierMap.put("score", outlierScore);
+            outlierMaps.add(outlierMap);
+            outlierDescriptions.add("fork " + (outlier + 1) + " " + format(outlierScore) + " " + unit);
+        }
+        analysis.put("outlierForks", outlierMaps);
+        analysis.put("outlierForksExcluded", excludeOutliers);
+
+        if (modes.size() > 1) {
+            addMetadata(params, "forkModes", String.join(", ", modeDescriptions));
+            log.warn("Benchmark " + params.id() + " has " + modes.size() + " performance modes: "
+                    + String.join(", ", modeDescriptions));
+        }
+        if (!outliers.isEmpty()) {
+            addMetadata(params, "forkOutliers",
+                    String.join(", ", outlierDescriptions) + (excludeOutliers ? " (excluded)" : ""));
+            log.warn("Benchmark " + params.id() + " outlier forks: " + String.join(", ", outlierDescriptions)
+                    + (excludeOutliers ? ", excluded from result" : ""));
+        }
+        if (modes.isEmpty()) {
+            addMetadata(params, "forkModes", "undecided, fork scores are scattered");
+        }
+        synchronized (analyses) {
+            analyses.add(analysis);
+        }
+
+        if (!excludeOutliers) {
+            return result;
+        }
+        List<BenchmarkResult> keptForks = new ArrayList<>();
+        for (int i = 0; i < forks.size(); i++) {
+            if (!outliers.contains(i)) {
+                keptForks.add(forks.get(i));
+            }
+        }
+        return new RunResult(params, keptForks);
+    }
+
+    private void addMetadata(BenchmarkParams params, String key, String value) {
+        synchronized (metadata) {
+            analyzedParams.put(params.id(), params);
+            metadata.computeIfAbsent(params.id(), k -> new LinkedHashMap<>()).put(key, value);
+        }
+    }
+
+    /**
+     * Adds modes and outlier forks found to benchmark metadata, prefixed by {@code @Param} values of benchmark
+     * parameters combination.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    public void addMetadata(BenchmarkingContext benchContext) {
+        synchronized (metadata) {
+            for (Map.Entry<String, Map<String, String>> analyzed : metadata.entrySet()) {
+                BenchmarkParams params = analyzedParams.get(analyzed.getKey());
+                for (Map.Entry<String, String> entry : analyzed.getValue().entrySet()) {
+                    PluginUtils.addBenchmarkMetadata(benchContext, params, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns analyses of benchmarks having more than one group of forks.
+     *
+     * @return list of analysis maps
+     */
+    public List<Map<String, Object>> getAnalyses() {
+        synchronized (analyses) {
+            return new ArrayList<>(analyses);
+        }
+    }
+
+    /**
+     * Splits forks into groups of similar scores.
+     *
+     * @param forks
+     *            fork results
+     * @return groups of fork indexes, sorted by score
+     */
+    static List<List<Integer>> findGroups(List<BenchmarkResult> forks) {
+        List<Integer> sorted = new ArrayList<>();
+        double[] noises = new double[forks.size()];
+        for (int i = 0; i < forks.size(); i++) {
+            sorted.add(i);
+            double noise = forks.get(i).getPrimaryResult().getStatistics().getStandardDeviation();
+            noises[i] = Double.isNaN(noise) ? 0 : noise;
+        }
+        sorted.sort(Comparator.comparingDouble(i -> forks.get(i).getPrimaryResult().getScore()));
+        List<List<Integer>> groups = new ArrayList<>();
+        if (forks.size() > 1) {
+            double center = Math.abs(median(scores(forks, sorted)));
+            split(forks, sorted, median(noises), center, groups);
+        } else {
+            groups.add(sorted);
+        }
+        return groups;
+    }
+
+    private static void split(List<BenchmarkResult> forks, List<Integer> group, double noise, double center,
+            List<List<Integer>> groups) {
+        if (group.size() < 2) {
+            groups.add(group);
+            return;
+        }
+        double[] scores = scores(forks, group);
+        int gapIndex = 0;
+        for (int i = 1; i < scores.length - 1; i++) {
+            if (scores[i + 1] - scores[i] > scores[gapIndex + 1] - scores[gapIndex]) {
+                gapIndex = i;
+            }
+        }
+        double gap = scores[gapIndex + 1] - scores[gapIndex];
+        List<Integer> lower = group.subList(0, gapIndex + 1);
+        List<Integer> upper = group.subList(gapIndex + 1, group.size());
+        double spread = Math.max(noise, MAD_SCALE * Math.max(mad(scores(forks, lower)), mad(scores(forks, upper))));
+        if (gap > SEPARATION * spread && gap > MIN_RELATIVE_GAP * center) {
+            split(forks, lower, noise, center, groups);
+            split(forks, upper, noise, center, groups);
+        } else {
+            groups.add(group);
+        }
+    }
+
+    private static double[] scores(List<BenchmarkResult> forks, List<Integer> indexes) {
+        double[] scores = new double[indexes.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = forks.get(indexes.get(i)).getPrimaryResult().getScore();
+        }
+        return scores;
+    }
+
+    private static List<Integer> toForkNumbers(List<Integer> indexes) {
+        List<Integer> forkNumbers = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+            forkNumbers.add(index + 1);
+        }
+        Collections.sort(forkNumbers);
+        return forkNumbers;
+    }
+
+    static double median(double[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 0 ? (sorted[middle - 1] + sorted[middle]) / 2 : sorted[middle];
+    }
+
+    static double mad(double[] values) {
+        double median = median(values);
+        double[] deviations = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            deviations[i] = Math.abs(values[i] - median);
+        }
+        return values.length == 0 ? 0 : median(deviations);
+    }
+
+    private static String format(double score) {
+        return String.format(Locale.ROOT, "%.4g", score);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import com.gocypher.cybench.core.utils.JSONUtils;
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Records Java Flight Recorder recording of every benchmark fork and summarizes recordings after the run.
+ * <p>
+ * Forks are started with {@code -XX:StartFlightRecording} pointing to directory of the runner thread, so JFR creates
+ * separate recording file for every fork. When benchmark is finished, recordings of its forks are moved to
+ * {@code reportsFolder/jfr/<benchmark id>}. Recordings are parsed locally and summary (hot methods, contended
+ * monitors, deoptimizations and JIT compilation time) is written next to recordings and added to benchmark metadata,
+ * prefixed by {@code @Param} values of benchmark parameters combination.
+ * Recordings are parsed using {@code jdk.jfr.consumer} API of the JVM running Maven (Java 11 or later), forked JVMs
+ * have to support JFR (Java 11 or later, Java 8 update 262 or later).
+ */
+public class JfrRecorder extends ForkFilesCollector {
+
+    private static final String SUMMARY_FILE = "summary.json";
+    private static final int TOP_ENTRIES = 5;
+
+    private final String settings;
+
+    /**
+     * Constructs JFR recorder.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @param settings
+     *            JFR settings name (e.g. {@code default}, {@code profile}) or settings file path
+     */
+    public JfrRecorder(Log log, String reportsFolder, String settings) {
+        super(log, reportsFolder, "jfr", ".jfr");
+        this.settings = settings;
+    }
+
+    @Override
+    protected List<String> getJvmArgs(File dir) {
+        // directory as file name makes JFR to create uniquely named file for every fork
+        return Collections.singletonList("-XX:StartFlightRecording=dumponexit=true,settings=" + settings
+                + ",filename=" + dir.getAbsolutePath());
+    }
+
+    /**
+     * Parses recordings of finished benchmarks, writes summaries next to recordings and adds summaries to benchmark
+     * metadata.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    public void summarize(BenchmarkingContext benchContext) {
+        Map<String, List<File>> recordings = getForkFiles();
+        if (recordings.isEmpty()) {
+            return;
+        }
+        log.info("Summarizing flight recordings of " + recordings.size() + " benchmarks");
+        Map<String, Summary> summaries = new TreeMap<>();
+        try {
+            for (Map.Entry<String, List<File>> recording : recordings.entrySet()) {
+                Summary summary = new Summary();
+                for (File forkFile : recording.getValue()) {
+                    summary.read(forkFile.toPath());
+                }
+                File summaryFile = new File(recording.getValue().get(0).getParentFile(), SUMMARY_FILE);
+                Files.write(summaryFile.toPath(),
+                        JSONUtils.marshalToPrettyJson(summary.toMap()).getBytes(StandardCharsets.UTF_8));
+                summaries.put(recording.getKey(), summary);
+            }
+        } catch (ClassNotFoundException exc) {
+            log.warn("Flight recordings can't be parsed by Java " + System.getProperty("java.version")
+                    + " (Java 11 or later is required), recordings are left in reports folder");
+            return;
+        } catch (Exception exc) {
+            log.warn("Failed to summarize flight recordings: " + exc);
+            return;
+        }
+        for (Map.Entry<String, Summary> summary : summaries.entrySet()) {
+            addMetadata(benchContext, summary.getKey(), summary.getValue());
+        }
+    }
+
+    private void addMetadata(BenchmarkingContext benchContext, String id, Summary summary) {
+        BenchmarkParams benchmark = getBenchmarkParams(id);
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrRecordings", getRelativeOutputDir(id));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrHotMethods",
+                formatTop(summary.hotMethods, summary.samples, true));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrMonitorContentions",
+                String.valueOf(summary.monitorContentions));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrMonitorContentionMillis",
+                String.valueOf(summary.monitorContentionNanos / 1000000));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrContendedMonitors",
+                formatTop(summary.contendedMonitors, summary.monitorContentions, false));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrDeoptimizations",
+                String.valueOf(summary.deoptimizations));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrDeoptimizedMethods",
+                formatTop(summary.deoptimizedMethods, summary.deoptimizations, false));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrCompilations",
+                String.valueOf(summary.compilations));
+        PluginUtils.addBenchmarkMetadata(benchContext, benchmark, "jfrCompilationMillis",
+                String.valueOf(summary.compilationNanos / 1000000));
+    }
+
+    private static String formatTop(Map<String, Long> counts, long total, boolean percents) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : top(counts)) {
+            if (sb.length() > 0) {
+                sb.append(";");
+            }
+            sb.append(entry.getKey()).append(" ");
+            if (percents) {
+                sb.append(String.format(Locale.ROOT, "%.1f%%", entry.getValue() * 100.0 / Math.max(1, total)));
+            } else {
+                sb.append(entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<Map.Entry<String, Long>> top(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long> comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return entries.subList(0, Math.min(TOP_ENTRIES, entries.size()));
+    }
+
+    /**
+     * Summary of flight recordings.
+     * <p>
+     * Recordings are read using reflection, since {@code jdk.jfr.consumer} API is not available in Java 8 the plugin
+     * is built for.
+     */
+    private static class Summary {
+        long samples;
+        final Map<String, Long> hotMethods = new HashMap<>();
+        long monitorContentions;
+        long monitorContentionNanos;
+        final Map<String, Long> contendedMonitors = new HashMap<>();
+        long deoptimizations;
+        final Map<String, Long> deoptimizedMethods = new HashMap<>();
+        long compilations;
+        long compilationNanos;
+
+        void read(Path recording) throws Exception {
+            Class<?> recordingFileClass = Class.forName("jdk.jfr.consumer.RecordingFile");
+            Object recordingFile = recordingFileClass.getConstructor(Path.class).newInstance(recording);
+            long lastCompilations = 0;
+            long lastCompilationNanos = 0;
+            try {
+                while ((Boolean) invoke(recordingFile, "hasMoreEvents")) {
+                    Object event = invoke(recordingFile, "readEvent");
+                    switch ((String) invoke(invoke(event, "getEventType"), "getName")) {
+                    case "jdk.ExecutionSample":
+                        samples++;
+                        String method = getTopMethod(invoke(event, "getStackTrace"));
+                        if (method != null) {
+                            hotMethods.merge(method, 1L, Long::sum);
+                        }
+                        break;
+                    case "jdk.JavaMonitorEnter":
+                        monitorContentions++;
+                        monitorContentionNanos += ((Duration) invoke(event, "getDuration")).toNanos();
+                        Object monitorClass = getValue(event, "monitorClass");
+                        if (monitorClass != null) {
+                            contendedMonitors.merge((String) invoke(monitorClass, "getName"), 1L, Long::sum);
+                        }
+                        break;
+                    case "jdk.Deoptimization":
+                        deoptimizations++;
+                        Object deoptimizedMethod = getValue(event, "method");
+                        if (deoptimizedMethod != null) {
+                            deoptimizedMethods.merge(getMethodName(deoptimizedMethod), 1L, Long::sum);
+                        }
+                        break;
+                    case "jdk.CompilerStatistics":
+                        // statistics are cumulative, so the last event of fork is used
+                        lastCompilations = ((Number) getValue(event, "compileCount")).longValue();
+                        lastCompilationNanos = ((Duration) event.getClass().getMethod("getDuration", String.class)
+                                .invoke(event, "totalTimeSpent")).toNanos();
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } finally {
+                invoke(recordingFile, "close");
+            }
+            compilations += lastCompilations;
+            compilationNanos += lastCompilationNanos;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("executionSamples", samples);
+            List<Map<String, Object>> methods = new ArrayList<>();
+            for (Map.Entry<String, Long> method : top(hotMethods)) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("method", method.getKey());
+                entry.put("samples", method.getValue());
+                entry.put("percent", method.getValue() * 100.0 / Math.max(1, samples));
+                methods.add(entry);
+            }
+            map.put("hotMethods", methods);
+            map.put("monitorContentions", monitorContentions);
+            map.put("monitorContentionMillis", monitorContentionNanos / 1000000);
+            map.put("contendedMonitors", toCounts(contendedMonitors));
+            map.put("deoptimizations", deoptimizations);
+            map.put("deoptimizedMethods", toCounts(deoptimizedMethods));
+            map.put("compilations", compilations);
+            map.put("compilationMillis", compilationNanos / 1000000);
+            return map;
+        }
+
+        private static Map<String, Long> toCounts(Map<String, Long> counts) {
+            Map<String, Long> topCounts = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> entry : top(counts)) {
+                topCounts.put(entry.getKey(), entry.getValue());
+            }
+            return topCounts;
+        }
+
+        private static String getTopMethod(Object stackTrace) throws Exception {
+            if (stackTrace == null) {
+                return null;
+            }
+            for (Object frame : (List<?>) invoke(stackTrace, "getFrames")) {
+                if ((Boolean) invoke(frame, "isJavaFrame")) {
+                    return getMethodName(invoke(frame, "getMethod"));
+                }
+            }
+            return null;
+        }
+
+        private static String getMethodName(Object method) throws Exception {
+            return invoke(invoke(method, "getType"), "getName") + "." + invoke(method, "getName");
+        }
+
+        private static Object getValue(Object recordedObject, String field) throws Exception {
+            if (!(Boolean) recordedObject.getClass().getMethod("hasField", String.class).invoke(recordedObject,
+                    field)) {
+                return null;
+            }
+            return recordedObject.getClass().getMethod("getValue", String.class).invoke(recordedObject, field);
+        }
+
+        private static Object invoke(Object target, String method) throws Exception {
+            try {
+                return target.getClass().getMethod(method).invoke(target);
+            } catch (InvocationTargetException exc) {
+                throw exc.getCause() instanceof Exception ? (Exception) exc.getCause() : exc;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.gocypher.cybench.core.utils.JSONUtils;
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Detects benchmarks which hot code path is not JIT stable.
+ * <p>
+ * Forks are started with {@code -XX:+LogCompilation}, and HotSpot compilation log of every fork is analyzed for
+ * methods of benchmark class and JMH generated benchmark stub (hot path) compiled by C2:
+ * <ul>
+ * <li>calls not inlined because of callee size or inlining depth (e.g. {@code hot method too big})</li>
+ * <li>methods of benchmark class compiled only as on-stack replacement (OSR) and never inlined</li>
+ * <li>repeated deoptimizations (uncommon traps) of compiled hot path code</li>
+ * <li>failed compilations of hot path methods</li>
+ * </ul>
+ * Issues are reported with number of forks they were found in: issue found in some forks only explains scores
+ * swinging between forks. Forks of all passes of benchmark (e.g. target precision rounds) are analyzed. Benchmark
+ * parameters combination having any of issues is marked as JIT unstable, metadata is prefixed by {@code @Param} values
+ * of combination.
+ */
+public class JitDiagnostics extends ForkFilesCollector {
+
+    private static final String SUMMARY_FILE = "jit-summary.json";
+    private static final int DEOPT_THRESHOLD = 2;
+    private static final String[] SIZE_INLINE_FAILURES = { "too big", "too large", "too deep", "big method",
+            "medium method", "DesiredMethodLimit", "NodeCountInliningCutoff" };
+
+    private final Set<String> unstableBenchmarks = new TreeSet<>();
+
+    /**
+     * Constructs JIT diagnostics.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     */
+    public JitDiagnostics(Log log, String reportsFolder) {
+        super(log, reportsFolder, "jit", ".log");
+    }
+
+    @Override
+    protected List<String> getJvmArgs(File dir) {
+        // %p is replaced by fork process id
+        return Arrays.asList("-XX:+UnlockDiagnosticVMOptions", "-XX:+LogCompilation",
+                "-XX:LogFile=" + new File(dir, "compilation-%p.log").getAbsolutePath());
+    }
+
+    /**
+     * Analyzes compilation logs of finished benchmarks, writes summaries next to logs and adds JIT stability of
+     * benchmarks to benchmark metadata.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    public void analyze(BenchmarkingContext benchContext) {
+        Map<String, List<File>> compilationLogs = getForkFiles();
+        if (compilationLogs.isEmpty()) {
+            return;
+        }
+        log.info("Analyzing JIT compilation logs of " + compilationLogs.size() + " benchmarks");
+        for (Map.Entry<String, List<File>> compilationLog : compilationLogs.entrySet()) {
+            String id = compilationLog.getKey();
+            BenchmarkParams params = getBenchmarkParams(id);
+            String benchmark = params.getBenchmark();
+            Summary summary = new Summary();
+            for (File forkLog : compilationLog.getValue()) {
+                summary.add(analyze(forkLog, benchmark));
+            }
+            File summaryFile = new File(compilationLog.getValue().get(0).getParentFile(), SUMMARY_FILE);
+            try {
+                Files.write(summaryFile.toPath(),
+                        JSONUtils.marshalToPrettyJson(summary.toMap()).getBytes(StandardCharsets.UTF_8));
+            } catch (Exception exc) {
+                log.warn("Failed to write JIT summary " + summaryFile + ": " + exc);
+            }
+            boolean stable = summary.issues.isEmpty();
+            PluginUtils.addBenchmarkMetadata(benchContext, params, "jitStable", String.valueOf(stable));
+            PluginUtils.addBenchmarkMetadata(benchContext, params, "jitCompilationLogs", getRelativeOutputDir(id));
+            if (!stable) {
+                String issues = summary.formatIssues();
+                PluginUtils.addBenchmarkMetadata(benchContext, params, "jitIssues", issues);
+                log.warn("Benchmark " + id + " hot path is not JIT stable: " + issues);
+                synchronized (this) {
+                    unstableBenchmarks.add(id);
+                }
+            }
+        }
+    }
+
+    private Summary analyze(File forkLog, String benchmark) {
+        CompilationLogHandler handler = new CompilationLogHandler(benchmark);
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(forkLog, handler);
+        } catch (SAXException exc) {
+            // log of killed fork is not complete, events read so far are used
+            log.debug("Compilation log " + forkLog + " is not complete: " + exc);
+        } catch (Exception exc) {
+            log.warn("Failed to read compilation log " + forkLog + ": " + exc);
+        }
+        return handler.getSummary();
+    }
+
+    /**
+     * Returns benchmark parameters combinations found to be JIT unstable.
+     *
+     * @return ids of JIT unstable benchmarks
+     */
+    public synchronized Set<String> getUnstableBenchmarks() {
+        return new TreeSet<>(unstableBenchmarks);
+    }
+
+    static boolean isSizeInlineFailure(String reason) {
+        for (String sizeReason : SIZE_INLINE_FAILURES) {
+            if (reason.contains(sizeReason)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Converts compilation log method or class name (e.g. {@code com/example/Bench test (I)I} of Java 8, or
+     * {@code com.example.Bench test (I)I}) to {@code com.example.Bench.test}.
+     *
+     * @param name
+     *            compilation log name
+     * @return qualified name
+     */
+    static String toQualifiedName(String name) {
+        int signatureIndex = name.indexOf(" (");
+        String qualifiedName = signatureIndex < 0 ? name : name.substring(0, signatureIndex);
+        return qualifiedName.replace('/', '.').replace(' ', '.');
+    }
+
+    /**
+     * JIT issues of benchmark forks.
+     */
+    static class Summary {
+        int forks;
+        final Map<String, Integer> issues = new TreeMap<>();
+        final Map<String, Integer> inlineFailures = new TreeMap<>();
+        final Map<String, Integer> deoptimizations = new TreeMap<>();
+        final Map<String, Integer> hotCompilations = new TreeMap<>();
+
+        void add(Summary other) {
+            forks += other.forks;
+            other.issues.forEach((k, v) -> issues.merge(k, v, Integer::sum));
+            other.inlineFailures.forEach((k, v) -> inlineFailures.merge(k, v, Integer::sum));
+            other.deoptimizations.forEach((k, v) -> deoptimizations.merge(k, v, Integer::sum));
+            other.hotCompilations.forEach((k, v) -> hotCompilations.merge(k, v, Integer::sum));
+        }
+
+        String formatIssues() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Integer> issue : issues.entrySet()) {
+                if (sb.length() > 0) {
+                    // "; " separates values of benchmark parameters combinations
+                    sb.append(", ");
+                }
+                sb.append(issue.getKey()).append(" [").append(issue.getValue()).append("/").append(forks)
+                        .append(" forks]");
+            }
+            return sb.toString();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("forks", forks);
+            map.put("jitStable", issues.isEmpty());
+            map.put("issues", issues);
+            map.put("hotPathC2Compilations", hotCompilations);
+            map.put("inlineFailures", inlineFailures);
+            map.put("deoptimizations", deoptimizations);
+            return map;
+        }
+    }
+
+    /**
+     * Reads HotSpot compilation log of single fork.
+     */
+    static class CompilationLogHandler extends DefaultHandler {
+        private final String benchmarkClass;
+        private final String stubClassPrefix;
+
+        private final Map<String, String> compiledMethods = new HashMap<>();
+        private final Map<String, Integer> osrCompilations = new HashMap<>();
+        private final Map<String, Integer> compilations = new HashMap<>();
+        private final Set<String> inlined = new HashSet<>();
+        private final Map<String, Integer> deoptimizations = new TreeMap<>();
+        private final Map<String, Integer> inlineFailures = new TreeMap<>();
+        private final Set<String> compilationFailures = new TreeSet<>();
+
+        private final Map<String, String> taskKlasses = new HashMap<>();
+        private final Map<String, String> taskMethods = new HashMap<>();
+        private String taskMethod;
+        private boolean hotC2Task;
+        private String lastCallee;
+        private String taskFailure;
+
+        /**
+         * Constructs compilation log handler.
+         *
+         * @param benchmark
+         *            benchmark name, e.g. {@code com.example.Bench.test}
+         */
+        CompilationLogHandler(String benchmark) {
+            int methodIndex = benchmark.lastIndexOf('.');
+            benchmarkClass = benchmark.substring(0, methodIndex);
+            int classIndex = benchmarkClass.lastIndexOf('.');
+            String packagePrefix = classIndex < 0 ? "" : benchmarkClass.substring(0, classIndex + 1);
+            // JMH generates benchmark stub class com.example.jmh_generated.Bench_test_jmhTest
+            stubClassPrefix = packagePrefix + "jmh_generated." + benchmarkClass.substring(classIndex + 1)
+                    .replace('$', '_') + "_" + benchmark.substring(methodIndex + 1) + "_jmhTest";
+        }
+
+        boolean isHot(String method) {
+            if (method == null) {
+                return false;
+            }
+            String holder = method.substring(0, Math.max(0, method.lastIndexOf('.')));
+            return holder.equals(benchmarkClass) || holder.startsWith(stubClassPrefix);
+        }
+
+        private static boolean isC2(String level) {
+            // C2 tasks are logged without level in tiered compilation logs
+            return level == null || "4".equals(level);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (qName) {
+            case "task_queued":
+            case "nmethod":
+                String compileId = attributes.getValue("compile_id");
+                String method = attributes.getValue("method");
+                if (compileId != null && method != null) {
+                    compiledMethods.put(compileId, toQualifiedName(method));
+                }
+                break;
+            case "task":
+                taskKlasses.clear();
+                taskMethods.clear();
+                lastCallee = null;
+                taskFailure = null;
+                taskMethod = toQualifiedName(attributes.getValue("method"));
+                hotC2Task = isHot(taskMethod) && isC2(attributes.getValue("level"));
+                if (hotC2Task) {
+                    boolean osr = "osr".equals(attributes.getValue("compile_kind"));
+                    (osr ? osrCompilations : compilations).merge(taskMethod, 1, Integer::sum);
+                }
+                break;
+            case "klass":
+                taskKlasses.put(attributes.getValue("id"), toQualifiedName(attributes.getValue("name")));
+                break;
+            case "method":
+                String holder = taskKlasses.get(attributes.getValue("holder"));
+                if (holder != null) {
+                    taskMethods.put(attributes.getValue("id"), holder + "." + attributes.getValue("name"));
+                }
+                break;
+            case "call":
+                lastCallee = taskMethods.get(attributes.getValue("method"));
+                break;
+            case "inline_success":
+                if (hotC2Task && lastCallee != null) {
+                    inlined.add(lastCallee);
+                }
+                break;
+            case "inline_fail":
+                String reason = attributes.getValue("reason");
+                if (hotC2Task && lastCallee != null && reason != null && isSizeInlineFailure(reason)) {
+                    inlineFailures.merge(lastCallee + " (" + reason + ")", 1, Integer::sum);
+                }
+                break;
+            case "failure":
+                taskFailure = attributes.getValue("reason");
+                break;
+            case "task_done":
+                if (hotC2Task && "0".equals(attributes.getValue("success"))) {
+                    compilationFailures.add(taskMethod + " (" + taskFailure + ")");
+                }
+                break;
+            case "uncommon_trap":
+            case "deoptimized":
+                // runtime traps have thread attribute, traps without it are logged by compiler while parsing
+                if (attributes.getValue("thread") != null && "c2".equals(attributes.getValue("compiler"))) {
+                    String compiledMethod = compiledMethods.get(attributes.getValue("compile_id"));
+                    if (isHot(compiledMethod)) {
+                        deoptimizations.merge(compiledMethod + " (" + attributes.getValue("reason") + ")", 1,
+                                Integer::sum);
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("task".equals(qName)) {
+                hotC2Task = false;
+                taskMethod = null;
+            }
+        }
+
+        Summary getSummary() {
+            Summary summary = new Summary();
+            summary.forks = 1;
+            for (String inlineFailure : inlineFailures.keySet()) {
+                summary.issues.put("inline failed: " + inlineFailure, 1);
+            }
+            for (Map.Entry<String, Integer> osr : osrCompilations.entrySet()) {
+                String method = osr.getKey();
+                if (method.startsWith(benchmarkClass + ".") && !compilations.containsKey(method)
+                        && !inlined.contains(method)) {
+                    summary.issues.put("OSR only: " + method, 1);
+                }
+            }
+            Map<String, Integer> methodDeoptimizations = new TreeMap<>();
+            for (Map.Entry<String, Integer> deoptimization : deoptimizations.entrySet()) {
+                String method = deoptimization.getKey().substring(0, deoptimization.getKey().indexOf(" ("));
+                methodDeoptimizations.merge(method, deoptimization.getValue(), Integer::sum);
+            }
+            for (Map.Entry<String, Integer> deoptimization : methodDeoptimizations.entrySet()) {
+                if (deoptimization.getValue() >= DEOPT_THRESHOLD) {
+                    summary.issues.put("repeated deoptimization: " + deoptimization.getKey(), 1);
+                }
+            }
+            for (String compilationFailure : compilationFailures) {
+                summary.issues.put("compilation failed: " + compilationFailure, 1);
+            }
+            summary.inlineFailures.putAll(inlineFailures);
+            summary.deoptimizations.putAll(deoptimizations);
+            compilations.forEach((k, v) -> summary.hotCompilations.merge(k, v, Integer::sum));
+            osrCompilations.forEach((k, v) -> summary.hotCompilations.merge(k + " (OSR)", v, Integer::sum));
+            return summary;
+        }
+    }
+}
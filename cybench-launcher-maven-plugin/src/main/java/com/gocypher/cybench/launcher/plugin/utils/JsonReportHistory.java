@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.gocypher.cybench.core.utils.JSONUtils;
+
+/**
+ * Report history built by scanning plain JSON reports stored in reports folder.
+ */
+public class JsonReportHistory extends ReportHistory {
+
+    private static final String[] REPORT_FILE_EXTENSIONS = { ".cybench", ".json" };
+
+    private final Map<String, List<HistoryEntry>> entries = new HashMap<>();
+
+    /**
+     * Indexes plain (not encrypted) JSON reports stored in reports folder.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @return report history
+     */
+    public static JsonReportHistory load(Log log, String reportsFolder) {
+        JsonReportHistory history = new JsonReportHistory();
+        File[] reportFiles = new File(reportsFolder)
+                .listFiles((dir, name) -> StringUtils.endsWithAny(name.toLowerCase(), REPORT_FILE_EXTENSIONS));
+        if (reportFiles == null) {
+            return history;
+        }
+        int reportsCount = 0;
+        for (File reportFile : reportFiles) {
+            try {
+                String reportJSON = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+                Map<?, ?> report = JSONUtils.parseJsonIntoMap(reportJSON);
+                if (report != null && report.containsKey("benchmarks")) {
+                    history.addAll(parseReport(report));
+                    reportsCount++;
+                }
+            } catch (Exception exc) {
+                log.warn("Skipping unreadable report file '" + reportFile + "': " + exc);
+            }
+        }
+        log.info("Indexed " + reportsCount + " local reports from '" + reportsFolder + "'");
+        return history;
+    }
+
+    public void addAll(Collection<HistoryEntry> historyEntries) {
+        for (HistoryEntry entry : historyEntries) {
+            entries.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    /**
+     * Returns all indexed history entries.
+     *
+     * @return list of history entries
+     */
+    public List<HistoryEntry> getEntries() {
+        List<HistoryEntry> allEntries = new ArrayList<>();
+        for (List<HistoryEntry> keyEntries : entries.values()) {
+            allEntries.addAll(keyEntries);
+        }
+        return allEntries;
+    }
+
+    @Override
+    public List<HistoryEntry> find(String key, String version, int limit) {
+        List<HistoryEntry> found = new ArrayList<>();
+        for (HistoryEntry entry : entries.getOrDefault(key, Collections.emptyList())) {
+            if (version == null || version.equals(entry.getVersion())) {
+                found.add(entry);
+            }
+        }
+        found.sort(Comparator.comparingLong(HistoryEntry::getTimestamp).reversed());
+        return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+    }
+
+    @Override
+    public List<HistoryEntry> findByName(String name, int limit) {
+        List<HistoryEntry> found = new ArrayList<>();
+        for (HistoryEntry entry : getEntries()) {
+            if (name.equals(entry.getName())) {
+                found.add(entry);
+            }
+        }
+        found.sort(Comparator.comparingLong(HistoryEntry::getTimestamp).reversed());
+        return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Utils;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Runs benchmarks under several named JVM profiles and ranks profiles per benchmark.
+ * <p>
+ * Profile is defined as {@code name[@jdk]=arguments}, e.g. {@code zgc@17=-XX:+UseZGC -Xmx2g}. Profile arguments
+ * replace JVM arguments of main run. Optional JDK is either JDK home directory, or JDK version looked up among JDKs
+ * installed on local machine ({@code JAVA_HOME_<version>_X64} environment variables, {@code /usr/lib/jvm},
+ * {@code /Library/Java/JavaVirtualMachines}, SDKMAN and IntelliJ IDEA JDK folders).
+ * <p>
+ * Main run JVM arguments are ranked as {@code default} profile. Results of main run itself are not ranked, since they
+ * may be measured by adaptive warm-up, target precision, fork mode analysis or parallel forks, so benchmarks are run
+ * once more with main run JVM arguments the same way as with other profiles.
+ * <p>
+ * Profiles are ranked by score of every benchmark (including mode and parameters). Difference of profile from the
+ * best profile is marked as significant by JMH Student's t-test: {@code *} at 95%, {@code **} at 99% and
+ * {@code ***} at 99.9% confidence.
+ */
+public class JvmProfileMatrix {
+
+    public static final String DEFAULT_PROFILE = "default";
+
+    private static final double[] SIGNIFICANCE_LEVELS = { 0.95, 0.99, 0.999 };
+
+    private final Log log;
+    private final List<Profile> profiles;
+    private final Map<String, Map<String, RunResult>> resultsById = new TreeMap<>();
+    private final List<Map<String, Object>> matrix = new ArrayList<>();
+    private final List<BenchmarkParams> matrixParams = new ArrayList<>();
+
+    /**
+     * Constructs JVM profile matrix.
+     *
+     * @param log
+     *            log
+     * @param profiles
+     *            profile definitions, see {@link #parseProfile(String)}
+     */
+    public JvmProfileMatrix(Log log, Collection<String> profiles) {
+        this.log = log;
+        this.profiles = new ArrayList<>();
+        for (String profile : profiles) {
+            if (StringUtils.isNotBlank(profile)) {
+                this.profiles.add(parseProfile(profile));
+            }
+        }
+    }
+
+    /**
+     * Parses profile definition {@code name[@jdk]=arguments}.
+     *
+     * @param definition
+     *            profile definition
+     * @return JVM profile
+     * @throws IllegalArgumentException
+     *             if definition is invalid or JDK can't be found
+     */
+    static Profile parseProfile(String definition) {
+        int separatorIndex = definition.indexOf('=');
+        if (separatorIndex <= 0) {
+            throw new IllegalArgumentException("Invalid JVM profile, expected 'name[@jdk]=arguments': " + definition);
+        }
+        String name = definition.substring(0, separatorIndex).trim();
+        String jdk = null;
+        if (name.contains("@")) {
+            jdk = StringUtils.substringAfter(name, "@").trim();
+            name = StringUtils.substringBefore(name, "@").trim();
+        }
+        String arguments = definition.substring(separatorIndex + 1).trim();
+        String java = null;
+        if (StringUtils.isNotBlank(jdk)) {
+            File javaFile = findJava(jdk);
+            if (javaFile == null) {
+                throw new IllegalArgumentException("JDK '" + jdk + "' of JVM profile " + name + " is not found");
+            }
+            java = javaFile.getAbsolutePath();
+        }
+        return new Profile(name, java, arguments.isEmpty() ? new String[0] : arguments.split("\\s+"));
+    }
+
+    /**
+     * Finds java executable of JDK.
+     *
+     * @param jdk
+     *            JDK home directory, or JDK version (e.g. {@code 11}, {@code 17.0.2})
+     * @return java executable, or {@code null} if JDK is not found
+     */
+    static File findJava(String jdk) {
+        File home = new File(jdk);
+        if (home.isDirectory()) {
+            return getJavaExecutable(home);
+        }
+        String version = jdk.startsWith("1.") ? jdk : ("8".equals(jdk) ? "1.8" : jdk);
+        for (File candidate : findInstalledJdks()) {
+            String candidateVersion = getJdkVersion(candidate);
+            if (candidateVersion != null
+                    && (candidateVersion.equals(version) || candidateVersion.startsWith(version + ".")
+                            || candidateVersion.startsWith(version + "_"))) {
+                File java = getJavaExecutable(candidate);
+                if (java != null) {
+                    return java;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<File> findInstalledJdks() {
+        List<File> homes = new ArrayList<>();
+        for (Map.Entry<String, String> env : System.getenv().entrySet()) {
+            if (env.getKey().matches("JAVA_HOME_\\d+.*")) {
+                homes.add(new File(env.getValue()));
+            }
+        }
+        String userHome = System.getProperty("user.home");
+        List<File> parents = Arrays.asList(new File("/usr/lib/jvm"), new File("/usr/java"),
+                new File("/Library/Java/JavaVirtualMachines"), new File(userHome, ".sdkman/candidates/java"),
+                new File(userHome, ".jdks"));
+        for (File parent : parents) {
+            File[] children = parent.listFiles(File::isDirectory);
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    File macHome = new File(child, "Contents/Home");
+                    homes.add(macHome.isDirectory() ? macHome : child);
+                }
+            }
+        }
+        return homes;
+    }
+
+    private static String getJdkVersion(File home) {
+        File release = new File(home, "release");
+        if (!release.isFile()) {
+            return null;
+        }
+        try {
+            for (String line : Files.readAllLines(release.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("JAVA_VERSION=")) {
+                    return line.substring("JAVA_VERSION=".length()).replace("\"", "").trim();
+                }
+            }
+        } catch (IOException exc) {
+            return null;
+        }
+        return null;
+    }
+
+    private static File getJavaExecutable(File home) {
+        File java = new File(home, "bin/" + (Utils.isWindows() ? "java.exe" : "java"));
+        return java.isFile() ? java : null;
+    }
+
+    /**
+     * Runs benchmarks selected by options under {@value #DEFAULT_PROFILE} and every defined profile.
+     *
+     * @param options
+     *            JMH options of main run
+     */
+    public void run(Options options) {
+        log.info("Running benchmarks with JVM profile " + DEFAULT_PROFILE);
+        runProfile(DEFAULT_PROFILE, new OptionsBuilder().parent(options));
+        for (Profile profile : profiles) {
+            log.info("Running benchmarks with JVM profile " + profile.name + ": "
+                    + (profile.java == null ? "" : profile.java + " ") + String.join(" ", profile.arguments));
+            ChainedOptionsBuilder profileOptions = new OptionsBuilder().parent(options).jvmArgs(profile.arguments);
+            if (profile.java != null) {
+                profileOptions.jvm(profile.java);
+            }
+            runProfile(profile.name, profileOptions);
+        }
+        rank();
+    }
+
+    private void runProfile(String name, ChainedOptionsBuilder profileOptions) {
+        try {
+            addResults(name, ParallelForkScheduler.JMH_RUNNER.run(profileOptions.build()));
+        } catch (Exception exc) {
+            log.warn("Benchmarks run with JVM profile " + name + " failed, skipping profile: " + exc);
+        }
+    }
+
+    private void addResults(String profile, Collection<RunResult> results) {
+        for (RunResult result : results) {
+            resultsById.computeIfAbsent(result.getParams().id(), k -> new LinkedHashMap<>()).put(profile, result);
+        }
+    }
+
+    private void rank() {
+        for (Map.Entry<String, Map<String, RunResult>> benchmarkResults : resultsById.entrySet()) {
+            List<Map.Entry<String, RunResult>> ranked = new ArrayList<>(benchmarkResults.getValue().entrySet());
+            RunResult first = ranked.get(0).getValue();
+            boolean higherIsBetter = first.getParams().getMode() == Mode.Throughput;
+            ranked.sort(Comparator.comparingDouble(
+                    entry -> (higherIsBetter ? -1 : 1) * entry.getValue().getPrimaryResult().getScore()));
+            Result<?> best = ranked.get(0).getValue().getPrimaryResult();
+
+            List<Map<String, Object>> profileRanks = new ArrayList<>();
+            List<String> summary = new ArrayList<>();
+            for (int i = 0; i < ranked.size(); i++) {
+                Result<?> result = ranked.get(i).getValue().getPrimaryResult();
+                String significance = i == 0 ? "" : getSignificance(best, result);
+                Map<String, Object> profileRank = new LinkedHashMap<>();
+                profileRank.put("profile", ranked.get(i).getKey());
+                profileRank.put("rank", i + 1);
+                profileRank.put("score", result.getScore());
+                profileRank.put("scoreError", result.getScoreError());
+                profileRank.put("relativeToBest", best.getScore() == 0 ? Double.NaN
+                        : result.getScore() / best.getScore());
+                profileRank.put("significance", significance);
+                profileRanks.add(profileRank);
+                summary.add(String.format(Locale.ROOT, "%d. %s %.3f%s", i + 1, ranked.get(i).getKey(),
+                        result.getScore(), significance.isEmpty() ? "" : " " + significance));
+            }
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("benchmark", first.getParams().getBenchmark());
+            row.put("benchmarkId", benchmarkResults.getKey());
+            row.put("scoreUnit", first.getPrimaryResult().getScoreUnit());
+            row.put("profiles", profileRanks);
+            row.put("summary", StringUtils.join(summary, ", "));
+            matrix.add(row);
+            matrixParams.add(first.getParams());
+            log.info("JVM profiles of " + benchmarkResults.getKey() + " (" + first.getPrimaryResult().getScoreUnit()
+                    + "): " + row.get("summary"));
+        }
+    }
+
+    private static String getSignificance(Result<?> best, Result<?> result) {
+        if (best.getStatistics() == null || result.getStatistics() == null || best.getStatistics().getN() < 2
+                || result.getStatistics().getN() < 2) {
+            return "";
+        }
+        String significance = "";
+        for (double level : SIGNIFICANCE_LEVELS) {
+            if (!best.getStatistics().isDifferent(result.getStatistics(), level)) {
+                break;
+            }
+            significance += "*";
+        }
+        return significance;
+    }
+
+    /**
+     * Adds profiles ranking to benchmark metadata, prefixed by {@code @Param} values of benchmark parameters
+     * combination.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    public void addMetadata(BenchmarkingContext benchContext) {
+        for (int i = 0; i < matrix.size(); i++) {
+            PluginUtils.addBenchmarkMetadata(benchContext, matrixParams.get(i), "jvmProfileRanking",
+                    String.valueOf(matrix.get(i).get("summary")));
+        }
+    }
+
+    /**
+     * Returns profiles ranking of every benchmark, serializable into report.
+     *
+     * @return list of benchmark ranking maps
+     */
+    public List<Map<String, Object>> getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Returns profile definitions, serializable into report.
+     *
+     * @return map of profile name and its JVM and arguments
+     */
+    public Map<String, String> getProfiles() {
+        Map<String, String> definitions = new LinkedHashMap<>();
+        for (Profile profile : profiles) {
+            definitions.put(profile.name,
+                    (profile.java == null ? "" : profile.java + " ") + String.join(" ", profile.arguments));
+        }
+        return definitions;
+    }
+
+    /**
+     * Named JVM profile.
+     */
+    static class Profile {
+        final String name;
+        final String java;
+        final String[] arguments;
+
+        Profile(String name, String java, String[] arguments) {
+            this.name = name;
+            this.java = java;
+            this.arguments = arguments;
+        }
+    }
+}
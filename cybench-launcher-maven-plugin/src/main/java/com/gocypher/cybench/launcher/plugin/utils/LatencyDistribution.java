@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.util.Statistics;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Helper methods for latency distributions of {@link Mode#SampleTime} and {@link Mode#SingleShotTime} benchmarks.
+ * <p>
+ * Measured samples are recorded into HdrHistogram in nanoseconds. Histogram is stored in benchmark metadata in
+ * compressed Base64 encoded form (same as HdrHistogram log files use), so full distribution can be restored from
+ * report, together with tail percentiles values.
+ */
+public final class LatencyDistribution {
+
+    public static final String HISTOGRAM_KEY = "latencyHistogram";
+
+    /**
+     * Percentile metric names usable in budgets, values are in nanoseconds.
+     */
+    static final String[] PERCENTILE_METRICS = { "p50", "p90", "p99", "p99.9", "p99.99", "max" };
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final String MAX_METRIC = "max";
+
+    private LatencyDistribution() {
+    }
+
+    /**
+     * Parses latency benchmark mode.
+     *
+     * @param mode
+     *            JMH mode short or long label, e.g. {@code sample} or {@code SingleShotTime}
+     * @return benchmark mode
+     * @throws IllegalArgumentException
+     *             if mode is not latency distribution mode
+     */
+    public static Mode parseMode(String mode) {
+        Mode benchmarkMode = Mode.deepValueOf(mode.trim());
+        if (!isLatencyMode(benchmarkMode)) {
+            throw new IllegalArgumentException(
+                    "Latency mode must be " + Mode.SampleTime.shortLabel() + " or " + Mode.SingleShotTime.shortLabel()
+                            + ": " + mode);
+        }
+        return benchmarkMode;
+    }
+
+    static boolean isLatencyMode(Mode mode) {
+        return mode == Mode.SampleTime || mode == Mode.SingleShotTime;
+    }
+
+    /**
+     * Records samples of latency mode run result into histogram.
+     *
+     * @param result
+     *            run result
+     * @return histogram of samples in nanoseconds, or {@code null} if result is not of latency mode
+     */
+    public static Histogram toHistogram(RunResult result) {
+        if (!isLatencyMode(result.getParams().getMode())) {
+            return null;
+        }
+        double nanosPerUnit = ResultUtils.getNanosPerUnit(result.getPrimaryResult().getScoreUnit());
+        Statistics statistics = result.getPrimaryResult().getStatistics();
+        if (Double.isNaN(nanosPerUnit) || statistics == null || statistics.getN() == 0) {
+            return null;
+        }
+        Histogram histogram = new Histogram(SIGNIFICANT_DIGITS);
+        for (Iterator<Map.Entry<Double, Long>> it = statistics.getRawData(); it.hasNext();) {
+            Map.Entry<Double, Long> sample = it.next();
+            histogram.recordValueWithCount(Math.round(sample.getKey() * nanosPerUnit), sample.getValue());
+        }
+        return histogram;
+    }
+
+    /**
+     * Encodes histogram into compressed Base64 form.
+     *
+     * @param histogram
+     *            histogram
+     * @return encoded histogram
+     */
+    public static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+    }
+
+    /**
+     * Decodes histogram encoded by {@link #encode(Histogram)}.
+     *
+     * @param encoded
+     *            encoded histogram
+     * @return histogram
+     * @throws DataFormatException
+     *             if encoded data is corrupted
+     */
+    public static Histogram decode(String encoded) throws DataFormatException {
+        return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)), 0);
+    }
+
+    /**
+     * Adds latency histograms and percentiles of latency mode results to benchmark metadata, prefixed by
+     * {@code @Param} values of benchmark parameters combination, e.g. {@code latencyP99Ns=size=10: 250; size=100: 900}.
+     *
+     * @param log
+     *            log
+     * @param benchContext
+     *            benchmarking context
+     * @param results
+     *            benchmark run results
+     */
+    public static void addMetadata(Log log, BenchmarkingContext benchContext, Collection<RunResult> results) {
+        for (RunResult result : results) {
+            Histogram histogram = toHistogram(result);
+            if (histogram == null) {
+                continue;
+            }
+            BenchmarkParams params = result.getParams();
+            StringBuilder summary = new StringBuilder();
+            for (String metric : PERCENTILE_METRICS) {
+                long value = getValue(histogram, metric);
+                PluginUtils.addBenchmarkMetadata(benchContext, params, getMetadataKey(metric),
+                        String.valueOf(value));
+                summary.append(summary.length() == 0 ? "" : ", ").append(metric).append('=').append(value);
+            }
+            PluginUtils.addBenchmarkMetadata(benchContext, params, "latencySampleCount",
+                    String.valueOf(histogram.getTotalCount()));
+            PluginUtils.addBenchmarkMetadata(benchContext, params, HISTOGRAM_KEY, encode(histogram));
+            log.info("Latency distribution of " + params.id() + " (ns): " + summary);
+        }
+    }
+
+    /**
+     * Returns benchmark metadata key of percentile metric, e.g. {@code latencyP999Ns} for {@code p99.9}.
+     *
+     * @param metric
+     *            percentile metric name
+     * @return metadata key
+     */
+    static String getMetadataKey(String metric) {
+        return "latency" + Character.toUpperCase(metric.charAt(0)) + metric.substring(1).replace(".", "") + "Ns";
+    }
+
+    private static long getValue(Histogram histogram, String metric) {
+        if (MAX_METRIC.equals(metric)) {
+            return histogram.getMaxValue();
+        }
+        return histogram.getValueAtPercentile(Double.parseDouble(metric.substring(1)));
+    }
+
+    /**
+     * Registers latency percentile metrics ({@code p50}, {@code p90}, {@code p99}, {@code p99.9}, {@code p99.99} and
+     * {@code max}, in nanoseconds) of budget checker.
+     *
+     * @param checker
+     *            budget checker
+     */
+    public static void addBudgetMetrics(BudgetChecker checker) {
+        for (String metric : PERCENTILE_METRICS) {
+            checker.addMetric(metric, percentile(metric));
+        }
+    }
+
+    private static ToDoubleFunction<RunResult> percentile(String metric) {
+        return result -> {
+            Histogram histogram = toHistogram(result);
+            return histogram == null ? Double.NaN : getValue(histogram, metric);
+        };
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.IterationType;
+
+import com.gocypher.cybench.core.utils.JSONUtils;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes progress of running benchmarks: current benchmark, fork and iteration, iteration scores, finished
+ * benchmark scores and estimated time left.
+ * <p>
+ * Progress is exposed as Prometheus text format metrics on local HTTP port ({@code /metrics} path) and/or appended as
+ * JSON lines events to file. Estimated time left is approximate: it is based on iterations settings of running
+ * benchmark and average duration of finished benchmarks, while parameters combinations of benchmarks not started yet
+ * are unknown.
+ * <p>
+ * Run can be stopped early by {@code POST} request to {@code /stop} path: running benchmarks are completed, next
+ * benchmarks are not started, and executor {@link #wrap(ParallelForkScheduler.BenchmarksExecutor) wrapped} by this
+ * listener returns results of completed benchmarks as if run has finished.
+ */
+public class LiveProgress implements NotifyingOutputFormat.BenchmarkListener, Closeable {
+
+    public static final String EVENTS_FILE = "cybench-events.jsonl";
+    private static final String METRICS_PATH = "/metrics";
+    private static final String STOP_PATH = "/stop";
+
+    private final Log log;
+    private final int totalBenchmarks;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Running> running = new LinkedHashMap<>();
+    private final Map<String, Finished> finished = new LinkedHashMap<>();
+    private final Set<String> startedBenchmarks = new HashSet<>();
+    private final Set<String> finishedBenchmarks = new HashSet<>();
+    private final ThreadLocal<List<RunResult>> executorResults = new ThreadLocal<>();
+    private volatile boolean stopRequested;
+    private double finishedSeconds;
+    private HttpServer server;
+    private PrintWriter events;
+
+    /**
+     * Constructs live progress publisher.
+     *
+     * @param log
+     *            log
+     * @param totalBenchmarks
+     *            number of benchmarks selected to run
+     */
+    public LiveProgress(Log log, int totalBenchmarks) {
+        this.log = log;
+        this.totalBenchmarks = totalBenchmarks;
+    }
+
+    /**
+     * Starts HTTP server exposing metrics on loopback interface.
+     *
+     * @param port
+     *            HTTP port, {@code 0} to pick free port
+     * @throws IOException
+     *             if server can't be started
+     */
+    public void startServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(METRICS_PATH, exchange -> {
+            byte[] body = renderMetrics().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext(STOP_PATH, exchange -> {
+            int status = 405;
+            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                requestStop();
+                status = 202;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        log.info("Live benchmarks progress metrics: http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + METRICS_PATH);
+    }
+
+    /**
+     * Starts appending events to JSON lines file.
+     *
+     * @param eventsFile
+     *            events file
+     * @throws IOException
+     *             if file can't be opened
+     */
+    public void startEvents(File eventsFile) throws IOException {
+        File parent = eventsFile.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent);
+        }
+        events = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(eventsFile, true), StandardCharsets.UTF_8), true);
+        log.info("Live benchmarks progress events: " + eventsFile.getAbsolutePath());
+        Map<String, Object> event = newEvent("runStarted");
+        event.put("benchmarks", totalBenchmarks);
+        writeEvent(event);
+    }
+
+    /**
+     * Requests benchmarks run to stop after running benchmarks are completed.
+     */
+    public synchronized void requestStop() {
+        if (!stopRequested) {
+            stopRequested = true;
+            log.warn("Benchmarks run stop requested, run is stopped when running benchmarks complete");
+            writeEvent(newEvent("stopRequested"));
+        }
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /**
+     * Wraps benchmarks executor to complete normally when run is stopped, returning results of benchmarks completed
+     * by that executor run.
+     *
+     * @param delegate
+     *            executor running benchmarks with output format notifying this listener
+     * @return wrapped benchmarks executor
+     */
+    public ParallelForkScheduler.BenchmarksExecutor wrap(ParallelForkScheduler.BenchmarksExecutor delegate) {
+        return options -> {
+            List<RunResult> completed = new ArrayList<>();
+            // JMH runner notifies about started and finished benchmarks from the thread calling it
+            executorResults.set(completed);
+            try {
+                return delegate.run(options);
+            } catch (Exception exc) {
+                if (!stopRequested) {
+                    throw exc;
+                }
+                return completed;
+            } finally {
+                executorResults.remove();
+            }
+        };
+    }
+
+    @Override
+    public synchronized void benchmarkStarted(BenchmarkParams params) {
+        if (stopRequested) {
+            // JMH runner aborts the run on output format failure
+            throw new IllegalStateException("Benchmarks run is stopped");
+        }
+        Running current = new Running(params);
+        running.put(params.id(), current);
+        startedBenchmarks.add(params.getBenchmark());
+
+        Map<String, Object> event = newEvent("benchmarkStarted");
+        putBenchmark(event, params);
+        event.put("forks", params.getForks());
+        event.put("expectedSeconds", current.expectedSeconds);
+        writeEvent(event);
+    }
+
+    @Override
+    public synchronized void iterationStarted(BenchmarkParams params, IterationParams iterationParams,
+            int iteration) {
+        Running current = running.get(params.id());
+        if (current == null) {
+            return;
+        }
+        boolean firstIteration = iteration == 1 && (iterationParams.getType() == IterationType.WARMUP
+                || params.getWarmup().getCount() == 0);
+        if (firstIteration) {
+            current.fork++;
+            Map<String, Object> event = newEvent("forkStarted");
+            putBenchmark(event, params);
+            event.put("fork", current.fork);
+            event.put("forks", params.getForks());
+            writeEvent(event);
+        }
+        current.phase = iterationParams.getType() == IterationType.WARMUP ? "warmup" : "measurement";
+        current.iteration = iteration;
+    }
+
+    @Override
+    public synchronized void iterationFinished(BenchmarkParams params, IterationParams iterationParams,
+            int iteration, IterationResult result) {
+        Running current = running.get(params.id());
+        Result<?> primary = result.getPrimaryResult();
+        if (current != null) {
+            current.lastScore = primary.getScore();
+            current.scoreUnit = primary.getScoreUnit();
+        }
+        Map<String, Object> event = newEvent("iteration");
+        putBenchmark(event, params);
+        event.put("fork", current == null ? null : current.fork);
+        event.put("phase", iterationParams.getType() == IterationType.WARMUP ? "warmup" : "measurement");
+        event.put("iteration", iteration);
+        putNumber(event, "score", primary.getScore());
+        event.put("scoreUnit", primary.getScoreUnit());
+        writeEvent(event);
+    }
+
+    @Override
+    public synchronized void benchmarkFinished(RunResult result) {
+        String id = result.getParams().id();
+        Running current = running.remove(id);
+        if (current != null) {
+            finishedSeconds += secondsSince(current.startNanos);
+        }
+        Result<?> primary = result.getPrimaryResult();
+        finished.put(id, new Finished(result.getParams(), primary.getScore(), primary.getScoreError(),
+                primary.getScoreUnit()));
+        finishedBenchmarks.add(result.getParams().getBenchmark());
+        List<RunResult> completed = executorResults.get();
+        if (completed != null) {
+            completed.add(result);
+        }
+
+        Map<String, Object> event = newEvent("benchmarkFinished");
+        putBenchmark(event, result.getParams());
+        putNumber(event, "score", primary.getScore());
+        putNumber(event, "scoreError", primary.getScoreError());
+        event.put("scoreUnit", primary.getScoreUnit());
+        putNumber(event, "etaSeconds", getEtaSeconds());
+        writeEvent(event);
+    }
+
+    @Override
+    public synchronized void runFinished() {
+        Map<String, Object> event = newEvent("runFinished");
+        event.put("finished", finished.size());
+        event.put("stopped", stopRequested);
+        writeEvent(event);
+    }
+
+    /**
+     * Estimates time left until all benchmarks are finished.
+     *
+     * @return estimated seconds left
+     */
+    synchronized double getEtaSeconds() {
+        double runningLeft = 0;
+        for (Running current : running.values()) {
+            runningLeft += Math.max(0, current.expectedSeconds - secondsSince(current.startNanos));
+        }
+        int notStarted = Math.max(0, totalBenchmarks - startedBenchmarks.size());
+        double perBenchmark;
+        if (!finishedBenchmarks.isEmpty()) {
+            perBenchmark = finishedSeconds / finishedBenchmarks.size();
+        } else if (!running.isEmpty()) {
+            perBenchmark = running.values().iterator().next().expectedSeconds;
+        } else {
+            perBenchmark = 0;
+        }
+        // concurrently running partitions share remaining work
+        return (runningLeft + notStarted * perBenchmark) / Math.max(1, running.size());
+    }
+
+    synchronized String renderMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        metric(metrics, "cybench_benchmarks_total", "gauge", "Number of benchmark methods selected to run");
+        metrics.append("cybench_benchmarks_total ").append(totalBenchmarks).append('\n');
+        metric(metrics, "cybench_benchmarks_finished", "gauge", "Number of finished benchmark parameters combinations");
+        metrics.append("cybench_benchmarks_finished ").append(finished.size()).append('\n');
+        metric(metrics, "cybench_stop_requested", "gauge", "Whether benchmarks run stop is requested");
+        metrics.append("cybench_stop_requested ").append(stopRequested ? 1 : 0).append('\n');
+        metric(metrics, "cybench_elapsed_seconds", "gauge", "Time since benchmarks run started");
+        metrics.append("cybench_elapsed_seconds ").append(format(secondsSince(startNanos))).append('\n');
+        metric(metrics, "cybench_eta_seconds", "gauge", "Estimated time left until all benchmarks are finished");
+        metrics.append("cybench_eta_seconds ").append(format(getEtaSeconds())).append('\n');
+
+        metric(metrics, "cybench_benchmark_running", "gauge", "Benchmark run in progress");
+        for (Running current : running.values()) {
+            metrics.append("cybench_benchmark_running").append(labels(current.params, null))
+                    .append(" 1\n");
+        }
+        metric(metrics, "cybench_benchmark_fork", "gauge", "Current fork of running benchmark");
+        for (Running current : running.values()) {
+            metrics.append("cybench_benchmark_fork").append(labels(current.params, null)).append(' ')
+                    .append(current.fork).append('\n');
+        }
+        metric(metrics, "cybench_benchmark_forks", "gauge", "Forks count of running benchmark");
+        for (Running current : running.values()) {
+            metrics.append("cybench_benchmark_forks").append(labels(current.params, null)).append(' ')
+                    .append(current.params.getForks()).append('\n');
+        }
+        metric(metrics, "cybench_benchmark_iteration", "gauge", "Current iteration of running benchmark");
+        for (Running current : running.values()) {
+            if (current.phase != null) {
+                metrics.append("cybench_benchmark_iteration")
+                        .append(labels(current.params, "phase=\"" + current.phase + "\"")).append(' ')
+                        .append(current.iteration).append('\n');
+            }
+        }
+        metric(metrics, "cybench_iteration_score", "gauge", "Score of the last iteration of running benchmark");
+        for (Running current : running.values()) {
+            if (current.scoreUnit != null) {
+                metrics.append("cybench_iteration_score")
+                        .append(labels(current.params, "unit=\"" + escape(current.scoreUnit) + "\"")).append(' ')
+                        .append(format(current.lastScore)).append('\n');
+            }
+        }
+        metric(metrics, "cybench_score", "gauge", "Score of finished benchmark");
+        for (Finished result : finished.values()) {
+            metrics.append("cybench_score").append(labels(result.params, "unit=\"" + escape(result.scoreUnit) + "\""))
+                    .append(' ').append(format(result.score)).append('\n');
+        }
+        metric(metrics, "cybench_score_error", "gauge", "Score error of finished benchmark");
+        for (Finished result : finished.values()) {
+            metrics.append("cybench_score_error")
+                    .append(labels(result.params, "unit=\"" + escape(result.scoreUnit) + "\"")).append(' ')
+                    .append(format(result.scoreError)).append('\n');
+        }
+        return metrics.toString();
+    }
+
+    private static void metric(StringBuilder metrics, String name, String type, String help) {
+        metrics.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        metrics.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String labels(BenchmarkParams params, String extraLabels) {
+        return "{benchmark=\"" + escape(params.getBenchmark()) + "\",id=\"" + escape(params.id()) + "\",mode=\""
+                + params.getMode().shortLabel() + "\"" + (extraLabels == null ? "" : "," + extraLabels) + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return String.valueOf(value);
+    }
+
+    private static double secondsSince(long nanos) {
+        return (System.nanoTime() - nanos) / 1e9;
+    }
+
+    private Map<String, Object> newEvent(String type) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("event", type);
+        event.put("timestamp", System.currentTimeMillis());
+        return event;
+    }
+
+    private static void putBenchmark(Map<String, Object> event, BenchmarkParams params) {
+        event.put("benchmark", params.getBenchmark());
+        event.put("id", params.id());
+        event.put("mode", params.getMode().shortLabel());
+    }
+
+    private static void putNumber(Map<String, Object> event, String key, double value) {
+        // JSON has no representation of NaN and infinite values
+        event.put(key, Double.isNaN(value) || Double.isInfinite(value) ? null : value);
+    }
+
+    private void writeEvent(Map<String, Object> event) {
+        if (events != null) {
+            events.println(JSONUtils.marshalToJson(event));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (events != null) {
+            events.close();
+            events = null;
+        }
+    }
+
+    private static class Running {
+        final BenchmarkParams params;
+        final long startNanos = System.nanoTime();
+        final double expectedSeconds;
+        int fork;
+        String phase;
+        int iteration;
+        double lastScore = Double.NaN;
+        String scoreUnit;
+
+        Running(BenchmarkParams params) {
+            this.params = params;
+            double iterationsMillis = params.getWarmup().getCount()
+                    * params.getWarmup().getTime().convertTo(TimeUnit.MILLISECONDS)
+                    + params.getMeasurement().getCount()
+                            * params.getMeasurement().getTime().convertTo(TimeUnit.MILLISECONDS);
+            this.expectedSeconds = Math.max(1, params.getForks()) * iterationsMillis / 1000;
+        }
+    }
+
+    private static class Finished {
+        final BenchmarkParams params;
+        final double score;
+        final double scoreError;
+        final String scoreUnit;
+
+        Finished(BenchmarkParams params, double score, double scoreError, String scoreUnit) {
+            this.params = params;
+            this.score = score;
+            this.scoreError = scoreError;
+            this.scoreUnit = scoreUnit;
+        }
+    }
+}
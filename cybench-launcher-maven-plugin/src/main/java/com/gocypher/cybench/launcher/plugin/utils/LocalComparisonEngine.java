@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.gocypher.cybench.launcher.model.TooManyAnomaliesException;
+import com.gocypher.cybench.model.ComparisonConfig;
+
+/**
+ * Automated comparison of benchmark scores against local report history, applying the same comparison configuration
+ * semantics as CyBench backend does:
+ * <ul>
+ * <li>scope {@code WITHIN}/{@code BETWEEN} - compares to reports of the same or of {@code compareVersion} project
+ * version</li>
+ * <li>{@code compareLatestReports} - number of latest reports to compare to</li>
+ * <li>method {@code DELTA} - compares to mean score of compared reports, with threshold {@code GREATER} any
+ * regression is an anomaly, with threshold {@code PERCENT_CHANGE} regression has to exceed
+ * {@code percentChangeAllowed}</li>
+ * <li>method {@code SD} - regression has to exceed {@code deviationsAllowed} standard deviations of compared reports
+ * scores</li>
+ * </ul>
+ * Regression direction depends on benchmark mode: lower throughput, but higher time is worse.
+ */
+public class LocalComparisonEngine {
+
+    private final Log log;
+    private final ReportHistory history;
+
+    public LocalComparisonEngine(Log log, ReportHistory history) {
+        this.log = log;
+        this.history = history;
+    }
+
+    /**
+     * Compares all benchmarks of report to local history.
+     *
+     * @param cfg
+     *            automated comparison configuration
+     * @param report
+     *            parsed JSON of current report
+     * @return list of benchmark comparisons
+     */
+    public List<Comparison> compare(ComparisonConfig cfg, Map<?, ?> report) {
+        List<Comparison> comparisons = new ArrayList<>();
+        for (ReportHistory.HistoryEntry current : ReportHistory.parseReport(report)) {
+            List<ReportHistory.HistoryEntry> compared = history.find(current.getKey(), cfg.getCompareVersion(),
+                    cfg.getCompareLatestReports());
+            double[] scores = new double[compared.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = compared.get(i).getScore();
+            }
+            Comparison comparison = compare(cfg, current, scores);
+            if (comparison != null) {
+                comparisons.add(comparison);
+            }
+        }
+        return comparisons;
+    }
+
+    Comparison compare(ComparisonConfig cfg, ReportHistory.HistoryEntry current, double[] scores) {
+        if (scores.length == 0 || Double.isNaN(current.getScore())) {
+            log.info("No local history to compare benchmark " + describe(current) + " to");
+            return null;
+        }
+        Comparison comparison = new Comparison(current, scores.length);
+        comparison.compareMean = ResultUtils.mean(scores, 0, scores.length);
+        // positive delta means regression
+        double delta = current.isHigherBetter() ? comparison.compareMean - current.getScore()
+                : current.getScore() - comparison.compareMean;
+        comparison.percentChange = comparison.compareMean == 0 ? 0 : delta / Math.abs(comparison.compareMean) * 100;
+
+        if (cfg.getMethod() == ComparisonConfig.Method.SD) {
+            if (scores.length < 2) {
+                log.info("Not enough local history to compare benchmark " + describe(current)
+                        + " using standard deviations");
+                return null;
+            }
+            double cv = ResultUtils.coefficientOfVariation(scores, 0, scores.length);
+            double sd = Double.isNaN(cv) ? 0 : cv * Math.abs(comparison.compareMean);
+            comparison.deviations = sd == 0 ? (delta > 0 ? Double.POSITIVE_INFINITY : 0) : delta / sd;
+            comparison.anomaly = comparison.deviations > cfg.getDeviationsAllowed();
+        } else if (cfg.getThreshold() == ComparisonConfig.Threshold.PERCENT_CHANGE) {
+            comparison.anomaly = comparison.percentChange > cfg.getPercentChangeAllowed();
+        } else {
+            comparison.anomaly = delta > 0;
+        }
+        return comparison;
+    }
+
+    static String describe(ReportHistory.HistoryEntry entry) {
+        return entry.getName() + " (" + entry.getMode()
+                + (entry.getParams() == null ? "" : ", " + entry.getParams()) + ")";
+    }
+
+    /**
+     * Logs comparisons and checks anomalies count.
+     *
+     * @param cfg
+     *            automated comparison configuration
+     * @param comparisons
+     *            benchmark comparisons
+     * @throws TooManyAnomaliesException
+     *             if anomalies count exceeds {@code anomaliesAllowed}
+     */
+    public void verifyAnomalies(ComparisonConfig cfg, List<Comparison> comparisons) throws TooManyAnomaliesException {
+        int anomalies = 0;
+        for (Comparison comparison : comparisons) {
+            if (comparison.isAnomaly()) {
+                anomalies++;
+                log.warn("Anomaly detected: " + comparison);
+            } else {
+                log.info("Compared: " + comparison);
+            }
+        }
+        log.info("Local automated comparison: " + comparisons.size() + " benchmarks compared, " + anomalies
+                + " anomalies found, " + cfg.getAnomaliesAllowed() + " allowed");
+        if (anomalies > cfg.getAnomaliesAllowed()) {
+            throw new TooManyAnomaliesException(
+                    anomalies + " anomalies found comparing to local reports history, " + cfg.getAnomaliesAllowed()
+                            + " allowed");
+        }
+    }
+
+    /**
+     * Result of single benchmark comparison.
+     */
+    public static class Comparison {
+        private final ReportHistory.HistoryEntry current;
+        private final int comparedReports;
+        double compareMean;
+        double percentChange;
+        double deviations = Double.NaN;
+        boolean anomaly;
+
+        Comparison(ReportHistory.HistoryEntry current, int comparedReports) {
+            this.current = current;
+            this.comparedReports = comparedReports;
+        }
+
+        public String getName() {
+            return current.getName();
+        }
+
+        public double getScore() {
+            return current.getScore();
+        }
+
+        public double getCompareMean() {
+            return compareMean;
+        }
+
+        /**
+         * Returns regression percentage, negative value means improvement.
+         *
+         * @return regression percentage
+         */
+        public double getPercentChange() {
+            return percentChange;
+        }
+
+        public boolean isAnomaly() {
+            return anomaly;
+        }
+
+        @Override
+        public String toString() {
+            String str = String.format(Locale.ROOT, "%s: score %.4f, mean of %d reports %.4f, regression %.2f%%",
+                    describe(current), current.getScore(), comparedReports, compareMean, percentChange);
+            if (!Double.isNaN(deviations)) {
+                str += String.format(Locale.ROOT, " (%.2f SD)", deviations);
+            }
+            return str;
+        }
+    }
+}
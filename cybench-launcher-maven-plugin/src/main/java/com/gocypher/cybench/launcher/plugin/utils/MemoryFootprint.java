@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Memory footprint mode, measuring retained heap, direct buffers and native memory of benchmark state by
+ * {@link FootprintProfiler}.
+ * <p>
+ * Footprint profiler forces full GC and queries native memory tracking between iterations, so footprint is measured in
+ * a separate single fork pass after benchmarks have been measured, without measurement profilers. This way measured
+ * scores are not affected. Footprint is measured per benchmark parameters combination: it is added to benchmark
+ * metadata prefixed by {@code @Param} values and can be checked by budgets {@code retainedHeap}, {@code directMemory}
+ * and {@code nativeMemory} (in bytes).
+ */
+public class MemoryFootprint {
+
+    private static final String NMT_JVM_ARG = "-XX:NativeMemoryTracking=summary";
+    private static final String[][] METRICS = { //
+            { "retainedHeap", FootprintProfiler.RETAINED_HEAP_LABEL }, //
+            { "directMemory", FootprintProfiler.DIRECT_MEMORY_LABEL }, //
+            { "nativeMemory", FootprintProfiler.NATIVE_MEMORY_LABEL } };
+
+    private final Log log;
+    private final String reportsFolder;
+    private final Map<String, RunResult> results = new LinkedHashMap<>();
+
+    /**
+     * Constructs memory footprint mode.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     */
+    public MemoryFootprint(Log log, String reportsFolder) {
+        this.log = log;
+        this.reportsFolder = reportsFolder;
+    }
+
+    /**
+     * Runs footprint pass of benchmarks selected by options and adds measured footprint to benchmark metadata.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param options
+     *            JMH options of benchmarks to measure, without measurement profilers (e.g. GC or perfasm ones)
+     */
+    public void run(BenchmarkingContext benchContext, Options options) {
+        File logFile = new File(PluginUtils.getWorkDir(reportsFolder), "footprint.log");
+        log.info("Measuring memory footprint of " + PluginUtils.findBenchmarks(options).size()
+                + " benchmarks, output: '" + logFile + "'");
+        Collection<RunResult> runResults;
+        try {
+            addProfilerToClasspath();
+            logFile.getParentFile().mkdirs();
+            List<String> jvmArgs = new ArrayList<>(options.getJvmArgsAppend().orElse(Collections.emptyList()));
+            jvmArgs.add(NMT_JVM_ARG);
+            runResults = ParallelForkScheduler.JMH_RUNNER.run(new OptionsBuilder().parent(options).forks(1)
+                    .output(logFile.getAbsolutePath()).addProfiler(FootprintProfiler.class)
+                    .jvmArgsAppend(jvmArgs.toArray(new String[0])).build());
+        } catch (Exception exc) {
+            log.warn("Memory footprint pass failed, footprint is not measured: " + exc);
+            return;
+        }
+        for (RunResult result : runResults) {
+            results.put(result.getParams().id(), result);
+        }
+        addMetadata(benchContext);
+    }
+
+    /**
+     * Forks inherit system classpath, so plugin classes location is appended to it making profiler loadable by forks.
+     */
+    private void addProfilerToClasspath() {
+        String location;
+        try {
+            location = new File(FootprintProfiler.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                    .getAbsolutePath();
+        } catch (URISyntaxException | RuntimeException exc) {
+            log.warn("Failed to resolve location of footprint profiler, forks may fail to load it: " + exc);
+            return;
+        }
+        String classPath = System.getProperty(PluginUtils.KEY_SYSTEM_CLASSPATH);
+        if (!Arrays.asList(classPath.split(File.pathSeparator)).contains(location)) {
+            System.setProperty(PluginUtils.KEY_SYSTEM_CLASSPATH, classPath + File.pathSeparator + location);
+        }
+    }
+
+    private static boolean isMeasured(RunResult result) {
+        return !Double.isNaN(ResultUtils.getSecondaryScore(result.getSecondaryResults(),
+                FootprintProfiler.RETAINED_HEAP_LABEL));
+    }
+
+    /**
+     * Adds memory footprint of benchmark parameters combinations to benchmark metadata, e.g.
+     * {@code footprintRetainedHeap=size=10: 1024; size=100: 10240}.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    private void addMetadata(BenchmarkingContext benchContext) {
+        for (RunResult result : results.values()) {
+            BenchmarkParams params = result.getParams();
+            StringBuilder summary = new StringBuilder();
+            for (String[] metric : METRICS) {
+                double value = ResultUtils.getSecondaryScore(result.getSecondaryResults(), metric[1]);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                String key = "footprint" + Character.toUpperCase(metric[0].charAt(0)) + metric[0].substring(1);
+                PluginUtils.addBenchmarkMetadata(benchContext, params, key, String.format(Locale.ROOT, "%.0f", value));
+                summary.append(summary.length() == 0 ? "" : ", ").append(metric[0]).append('=')
+                        .append(String.format(Locale.ROOT, "%.0f", value));
+            }
+            double iterations = ResultUtils.getSecondaryScore(result.getSecondaryResults(),
+                    FootprintProfiler.NOT_MEASURED_LABEL);
+            if (summary.length() > 0) {
+                log.info("Memory footprint of " + params.id() + " (bytes): " + summary);
+            } else if (!Double.isNaN(iterations)) {
+                log.warn(String.format(Locale.ROOT,
+                        "Memory footprint of %s was not measured: it needs at least two iterations, counting warm-up"
+                                + " ones, but benchmark ran %.0f",
+                        params.id(), iterations));
+            } else {
+                log.warn("Memory footprint of " + params.id() + " was not measured");
+            }
+        }
+    }
+
+    /**
+     * Converts measured memory footprint to structure serializable into report, one entry per benchmark
+     * parameters combination.
+     *
+     * @return list of footprint maps
+     */
+    public List<Map<String, Object>> toMaps() {
+        List<Map<String, Object>> maps = new ArrayList<>();
+        for (RunResult result : results.values()) {
+            if (!isMeasured(result)) {
+                continue;
+            }
+            BenchmarkParams params = result.getParams();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("benchmark", params.getBenchmark());
+            map.put("benchmarkId", params.id());
+            Map<String, String> paramValues = new LinkedHashMap<>();
+            for (String key : params.getParamsKeys()) {
+                paramValues.put(key, params.getParam(key));
+            }
+            map.put("params", paramValues);
+            for (String[] metric : METRICS) {
+                double value = ResultUtils.getSecondaryScore(result.getSecondaryResults(), metric[1]);
+                if (!Double.isNaN(value)) {
+                    map.put(metric[0] + "Bytes", (long) value);
+                }
+            }
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    /**
+     * Registers memory footprint metrics ({@code retainedHeap}, {@code directMemory} and {@code nativeMemory}, in
+     * bytes) of budget checker, taking footprint measured for benchmark parameters combination of checked result.
+     *
+     * @param checker
+     *            budget checker
+     */
+    public void addBudgetMetrics(BudgetChecker checker) {
+        for (String[] metric : METRICS) {
+            checker.addMetric(metric[0], result -> {
+                RunResult footprint = results.get(result.getParams().id());
+                return footprint == null ? Double.NaN
+                        : ResultUtils.getSecondaryScore(footprint.getSecondaryResults(), metric[1]);
+            });
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+/**
+ * JMH output format passing all output to default JMH output format and notifying listeners about benchmarks
+ * progress while JMH runner is running.
+ */
+public class NotifyingOutputFormat implements OutputFormat {
+
+    private final OutputFormat delegate;
+    private final List<BenchmarkListener> listeners;
+
+    public NotifyingOutputFormat(OutputFormat delegate, List<BenchmarkListener> listeners) {
+        this.delegate = delegate;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Creates benchmarks executor running JMH runner with output format notifying provided listeners.
+     *
+     * @param listeners
+     *            benchmark listeners
+     * @return benchmarks executor
+     */
+    public static ParallelForkScheduler.BenchmarksExecutor executor(List<BenchmarkListener> listeners) {
+        if (listeners.isEmpty()) {
+            return ParallelForkScheduler.JMH_RUNNER;
+        }
+        return options -> {
+            VerboseMode verbosity = options.verbosity().orElse(VerboseMode.NORMAL);
+            // same as JMH runner does, but custom output format makes runner to ignore output option
+            if (options.getOutput().hasValue()) {
+                try (PrintStream out = new PrintStream(new FileOutputStream(options.getOutput().get()), true,
+                        StandardCharsets.UTF_8.name())) {
+                    return run(options, OutputFormatFactory.createFormatInstance(out, verbosity), listeners);
+                }
+            }
+            return run(options, OutputFormatFactory.createFormatInstance(System.out, verbosity), listeners);
+        };
+    }
+
+    private static Collection<RunResult> run(Options options, OutputFormat format, List<BenchmarkListener> listeners)
+            throws Exception {
+        return new Runner(options, new NotifyingOutputFormat(format, listeners)).run();
+    }
+
+    @Override
+    public void iteration(BenchmarkParams benchParams, IterationParams params, int iteration) {
+        delegate.iteration(benchParams, params, iteration);
+        for (BenchmarkListener listener : listeners) {
+            listener.iterationStarted(benchParams, params, iteration);
+        }
+    }
+
+    @Override
+    public void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration,
+            IterationResult data) {
+        delegate.iterationResult(benchParams, params, iteration, data);
+        for (BenchmarkListener listener : listeners) {
+            listener.iterationFinished(benchParams, params, iteration, data);
+        }
+    }
+
+    @Override
+    public void startBenchmark(BenchmarkParams benchParams) {
+        delegate.startBenchmark(benchParams);
+        for (BenchmarkListener listener : listeners) {
+            listener.benchmarkStarted(benchParams);
+        }
+    }
+
+    @Override
+    public void endBenchmark(BenchmarkResult result) {
+        delegate.endBenchmark(result);
+        if (result == null) {
+            // benchmark has failed
+            return;
+        }
+        RunResult runResult = new RunResult(result.getParams(), Collections.singletonList(result));
+        for (BenchmarkListener listener : listeners) {
+            listener.benchmarkFinished(runResult);
+        }
+    }
+
+    @Override
+    public void startRun() {
+        delegate.startRun();
+    }
+
+    @Override
+    public void endRun(Collection<RunResult> result) {
+        delegate.endRun(result);
+        for (BenchmarkListener listener : listeners) {
+            listener.runFinished();
+        }
+    }
+
+    @Override
+    public void print(String s) {
+        delegate.print(s);
+    }
+
+    @Override
+    public void println(String s) {
+        delegate.println(s);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public void verbosePrintln(String s) {
+        delegate.verbosePrintln(s);
+    }
+
+    @Override
+    public void write(int b) {
+        delegate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        delegate.write(b);
+    }
+
+    /**
+     * Listener of benchmarks progress. Listener methods are called by JMH runner thread, so listener shared by
+     * concurrent runners has to be thread safe.
+     */
+    public interface BenchmarkListener {
+        default void benchmarkStarted(BenchmarkParams params) {
+        }
+
+        default void iterationStarted(BenchmarkParams params, IterationParams iterationParams, int iteration) {
+        }
+
+        default void iterationFinished(BenchmarkParams params, IterationParams iterationParams, int iteration,
+                IterationResult result) {
+        }
+
+        /**
+         * Called when all forks of benchmark (single parameters combination) are finished.
+         *
+         * @param result
+         *            benchmark result having all forks results aggregated
+         */
+        default void benchmarkFinished(RunResult result) {
+        }
+
+        default void runFinished() {
+        }
+    }
+}
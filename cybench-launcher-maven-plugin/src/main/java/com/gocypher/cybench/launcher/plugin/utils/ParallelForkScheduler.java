@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.util.Utils;
+
+/**
+ * Splits benchmarks into partitions and runs every partition by separate JMH runner concurrently. On Linux, when
+ * {@code taskset} is available, forked JVMs of each partition are pinned to a disjoint set of CPU cores.
+ * <p>
+ * Benchmarks are assigned to partitions by estimated cost: the most expensive benchmark goes first to the partition
+ * having the lowest total cost, so partitions finish at about the same time.
+ */
+public class ParallelForkScheduler {
+
+    private static final String KEY_JMH_IGNORE_LOCK = "jmh.ignoreLock";
+    private static final String CPUS_ALLOWED_KEY = "Cpus_allowed_list:";
+
+    private final Log log;
+    private final int partitionsCount;
+    private final File workDir;
+    private final Map<String, String> cpuSets = new ConcurrentHashMap<>();
+    private Map<String, Double> costs = Collections.emptyMap();
+
+    public ParallelForkScheduler(Log log, int partitionsCount, File workDir) {
+        this.log = log;
+        this.partitionsCount = partitionsCount;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Sets estimated costs of benchmarks used to balance partitions.
+     *
+     * @param costs
+     *            map of benchmark name and its estimated run duration in seconds
+     */
+    public void setCosts(Map<String, Double> costs) {
+        this.costs = costs;
+    }
+
+    /**
+     * Runs benchmarks selected by provided options in concurrent partitions.
+     *
+     * @param options
+     *            JMH options
+     * @param executor
+     *            executor running benchmarks of single partition
+     * @return merged run results of all partitions
+     * @throws Exception
+     *             if any of partitions fails
+     */
+    public Collection<RunResult> run(Options options, BenchmarksExecutor executor) throws Exception {
+        List<String> benchmarks = new ArrayList<>(PluginUtils.findBenchmarks(options));
+        int forkCount = options.getForkCount().orElse(1);
+        if (forkCount <= 0) {
+            log.warn("Benchmarks are configured to run without forking, parallel forks scheduling is disabled");
+            return executor.run(options);
+        }
+        int partitions = Math.min(partitionsCount, benchmarks.size());
+        if (partitions <= 1) {
+            return executor.run(options);
+        }
+
+        List<List<String>> benchmarkPartitions = partitionBenchmarks(benchmarks, partitions);
+        List<List<Integer>> cpuPartitions = partitionCpus(getAllowedCpus(), partitions);
+        boolean pinCpus = cpuPartitions != null && PluginUtils.findExecutable("taskset") != null;
+        if (!pinCpus) {
+            log.warn("CPU affinity is not supported on this machine, partitions forked JVMs will not be pinned to cores");
+        }
+        if (!workDir.exists() && !workDir.mkdirs()) {
+            throw new IOException("Can't create directory " + workDir);
+        }
+
+        String jvm = options.getJvm().orElse(getDefaultJvm());
+        // JMH runner holds a lock file preventing concurrent runs, here concurrent runs are intended
+        String ignoreLock = System.setProperty(KEY_JMH_IGNORE_LOCK, "true");
+        ExecutorService executorService = Executors.newFixedThreadPool(partitions);
+        try {
+            List<Future<Collection<RunResult>>> futures = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                List<String> partition = benchmarkPartitions.get(i);
+                ChainedOptionsBuilder optionsBuilder = PluginUtils.restrictTo(options, benchmarks, partition);
+                String cpuSet = "all";
+                if (pinCpus) {
+                    cpuSet = StringUtils.join(cpuPartitions.get(i), ",");
+                    optionsBuilder.jvm(createPinnedJvmScript(jvm, cpuSet, i).getAbsolutePath());
+                }
+                File outputFile = new File(workDir, "partition-" + i + ".log");
+                optionsBuilder.output(outputFile.getAbsolutePath());
+                for (String benchmark : partition) {
+                    cpuSets.put(benchmark, cpuSet);
+                }
+                log.info("Benchmarks partition #" + i + " (CPUs: " + cpuSet + ", " + partition.size()
+                        + " benchmarks, estimated " + Math.round(getCost(partition)) + "s), output: '" + outputFile
+                        + "'");
+
+                Options partitionOptions = optionsBuilder.build();
+                futures.add(executorService.submit(() -> executor.run(partitionOptions)));
+            }
+
+            Collection<RunResult> results = new ArrayList<>();
+            for (Future<Collection<RunResult>> future : futures) {
+                try {
+                    results.addAll(future.get());
+                } catch (ExecutionException exc) {
+                    throw exc.getCause() instanceof Exception ? (Exception) exc.getCause() : exc;
+                }
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+            if (ignoreLock == null) {
+                System.clearProperty(KEY_JMH_IGNORE_LOCK);
+            } else {
+                System.setProperty(KEY_JMH_IGNORE_LOCK, ignoreLock);
+            }
+        }
+    }
+
+    List<List<String>> partitionBenchmarks(List<String> benchmarks, int partitions) {
+        List<String> sortedBenchmarks = new ArrayList<>(benchmarks);
+        sortedBenchmarks.sort(Comparator.comparingDouble((String benchmark) -> -getCost(benchmark))
+                .thenComparing(Comparator.naturalOrder()));
+        List<List<String>> benchmarkPartitions = new ArrayList<>(partitions);
+        double[] partitionCosts = new double[partitions];
+        for (int i = 0; i < partitions; i++) {
+            benchmarkPartitions.add(new ArrayList<>());
+        }
+        for (String benchmark : sortedBenchmarks) {
+            int cheapest = 0;
+            for (int i = 1; i < partitions; i++) {
+                if (partitionCosts[i] < partitionCosts[cheapest]) {
+                    cheapest = i;
+                }
+            }
+            benchmarkPartitions.get(cheapest).add(benchmark);
+            partitionCosts[cheapest] += getCost(benchmark);
+        }
+        return benchmarkPartitions;
+    }
+
+    private double getCost(String benchmark) {
+        // benchmarks of unknown cost are considered equally expensive
+        Double cost = costs.get(benchmark);
+        return cost == null ? 1 : cost;
+    }
+
+    private double getCost(Collection<String> benchmarks) {
+        double cost = 0;
+        for (String benchmark : benchmarks) {
+            cost += getCost(benchmark);
+        }
+        return cost;
+    }
+
+    /**
+     * Returns CPU set every benchmark was run on.
+     *
+     * @return map of benchmark name and CPU set
+     */
+    public Map<String, String> getCpuSets() {
+        return cpuSets;
+    }
+
+    private File createPinnedJvmScript(String jvm, String cpuSet, int partition) throws IOException {
+        File script = new File(workDir, "jvm-partition-" + partition + ".sh");
+        String content = "#!/bin/sh\n" //
+                + "exec taskset -c " + cpuSet + " '" + jvm.replace("'", "'\\''") + "' \"$@\"\n";
+        Files.write(script.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        if (!script.setExecutable(true)) {
+            throw new IOException("Can't make script executable: " + script);
+        }
+        return script;
+    }
+
+    private static String getDefaultJvm() {
+        return new File(System.getProperty("java.home"), "bin" + File.separator + "java").getAbsolutePath();
+    }
+
+    private List<Integer> getAllowedCpus() {
+        if (Utils.isWindows()) {
+            return null;
+        }
+        File status = new File("/proc/self/status");
+        if (status.isFile()) {
+            try {
+                for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.startsWith(CPUS_ALLOWED_KEY)) {
+                        return parseCpuList(line.substring(CPUS_ALLOWED_KEY.length()).trim());
+                    }
+                }
+            } catch (Exception exc) {
+                log.warn("Failed to read allowed CPUs list: " + exc);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses Linux CPU list format, e.g. {@code 0-3,8,10-11}.
+     *
+     * @param cpuList
+     *            CPU list string
+     * @return list of CPU indexes
+     */
+    public static List<Integer> parseCpuList(String cpuList) {
+        List<Integer> cpus = new ArrayList<>();
+        if (StringUtils.isBlank(cpuList)) {
+            return cpus;
+        }
+        for (String range : cpuList.trim().split(",")) {
+            String[] bounds = range.trim().split("-");
+            int from = Integer.parseInt(bounds[0].trim());
+            int to = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : from;
+            for (int cpu = from; cpu <= to; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    private static List<List<Integer>> partitionCpus(List<Integer> cpus, int partitions) {
+        if (cpus == null || cpus.size() < partitions) {
+            return null;
+        }
+        List<List<Integer>> cpuPartitions = new ArrayList<>(partitions);
+        int partitionSize = cpus.size() / partitions;
+        for (int i = 0; i < partitions; i++) {
+            cpuPartitions.add(cpus.subList(i * partitionSize, (i + 1) * partitionSize));
+        }
+        return cpuPartitions;
+    }
+
+    /**
+     * Runs benchmarks selected by provided JMH options.
+     */
+    public interface BenchmarksExecutor {
+        Collection<RunResult> run(Options options) throws Exception;
+    }
+
+    /**
+     * Default executor running benchmarks with JMH {@link Runner}.
+     */
+    public static final BenchmarksExecutor JMH_RUNNER = options -> new Runner(options).run();
+}
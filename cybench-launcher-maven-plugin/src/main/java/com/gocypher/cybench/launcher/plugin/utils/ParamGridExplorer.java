@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Explores {@code @Param} space of benchmarks. Parameter grids are defined by benchmark name pattern rules (see
+ * {@link BenchmarkRules}) having parameter name and values, e.g.
+ * {@code *ListBench*:size=16..65536*4;impl=array|linked}. Values are listed separated by {@code |} (or comma in POM
+ * configuration), or defined as range {@code from..to*factor} (geometric) or {@code from..to+step} (linear), where
+ * default is doubling.
+ * <p>
+ * First range (or numeric) parameter is the matrix row axis, first other parameter having several values is the
+ * implementation axis. Row axis values are run coarse to fine: every other value first, then the rest. When
+ * refinement is enabled, remaining values are run only within intervals where the best implementation changes
+ * (crossover), and crossover intervals are split further by values between grid points up to configured depth.
+ * <p>
+ * Scores of explored points are collected into matrices (row axis value by other parameters combination) which are
+ * added to report benchmark settings.
+ */
+public class ParamGridExplorer {
+
+    private static final Pattern RANGE_PATTERN = Pattern
+            .compile("(-?\\d+(?:\\.\\d+)?)\\.\\.(-?\\d+(?:\\.\\d+)?)(?:([*+])(\\d+(?:\\.\\d+)?))?");
+    private static final int MAX_AXIS_VALUES = 1000;
+    private static final int MAX_PASSES = 64;
+
+    private final Log log;
+    private final BenchmarkRules grids;
+    private final boolean refine;
+    private final int refineDepth;
+    private final List<Map<String, Object>> matrices = new ArrayList<>();
+    private final Map<String, List<String>> crossovers = new LinkedHashMap<>();
+
+    /**
+     * Constructs parameter grid explorer.
+     *
+     * @param log
+     *            log
+     * @param grids
+     *            parameter grid rules
+     * @param refine
+     *            {@code true} to refine row axis only near crossover points
+     * @param refineDepth
+     *            number of refinement passes allowed to run values between grid points
+     */
+    public ParamGridExplorer(Log log, BenchmarkRules grids, boolean refine, int refineDepth) {
+        this.log = log;
+        this.grids = grids;
+        this.refine = refine;
+        this.refineDepth = refineDepth;
+    }
+
+    /**
+     * Finds benchmarks having parameter grid defined.
+     *
+     * @param benchmarks
+     *            benchmark names
+     * @return names of benchmarks to explore
+     */
+    public Set<String> findGridBenchmarks(Collection<String> benchmarks) {
+        Set<String> gridBenchmarks = new TreeSet<>();
+        for (String benchmark : benchmarks) {
+            if (!grids.getValues(benchmark).isEmpty()) {
+                gridBenchmarks.add(benchmark);
+            }
+        }
+        return gridBenchmarks;
+    }
+
+    /**
+     * Runs parameter grids of benchmarks.
+     *
+     * @param options
+     *            JMH options
+     * @param benchmarks
+     *            all benchmarks selected by options
+     * @param gridBenchmarks
+     *            benchmarks to explore, see {@link #findGridBenchmarks(Collection)}
+     * @param executor
+     *            benchmarks executor
+     * @return run results of all explored points
+     * @throws Exception
+     *             if benchmarks run fails
+     */
+    public Collection<RunResult> run(Options options, Set<String> benchmarks, Set<String> gridBenchmarks,
+            ParallelForkScheduler.BenchmarksExecutor executor) throws Exception {
+        List<RunResult> results = new ArrayList<>();
+        for (String benchmark : gridBenchmarks) {
+            List<Axis> axes = new ArrayList<>();
+            for (Map.Entry<String, String> definition : grids.getValues(benchmark).entrySet()) {
+                axes.add(Axis.parse(definition.getKey(), definition.getValue()));
+            }
+            results.addAll(new Exploration(benchmark, axes, options, benchmarks, executor).run());
+        }
+        return results;
+    }
+
+    /**
+     * Adds found crossovers to benchmark metadata.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    public void addMetadata(BenchmarkingContext benchContext) {
+        for (Map.Entry<String, List<String>> benchmarkCrossovers : crossovers.entrySet()) {
+            PluginUtils.addBenchmarkMetadata(benchContext, benchmarkCrossovers.getKey(), "paramCrossovers",
+                    StringUtils.join(benchmarkCrossovers.getValue(), "; "));
+        }
+    }
+
+    /**
+     * Returns result matrices of explored benchmarks, serializable into report.
+     *
+     * @return list of matrix maps
+     */
+    public List<Map<String, Object>> getMatrices() {
+        return matrices;
+    }
+
+    static String formatNumber(double value, boolean integer) {
+        if (integer) {
+            return String.valueOf(Math.round(value));
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Single exploration of benchmark parameters grid.
+     */
+    private class Exploration {
+        private final String benchmark;
+        private final List<Axis> axes;
+        private final Options options;
+        private final Set<String> benchmarks;
+        private final ParallelForkScheduler.BenchmarksExecutor executor;
+        private final Axis rowAxis;
+        private final Axis implAxis;
+        private final List<RunResult> results = new ArrayList<>();
+        private final Set<String> explored = new HashSet<>();
+
+        Exploration(String benchmark, List<Axis> axes, Options options, Set<String> benchmarks,
+                ParallelForkScheduler.BenchmarksExecutor executor) {
+            this.benchmark = benchmark;
+            this.axes = axes;
+            this.options = options;
+            this.benchmarks = benchmarks;
+            this.executor = executor;
+            Axis row = null;
+            for (Axis axis : axes) {
+                if (axis.range) {
+                    row = axis;
+                    break;
+                }
+                if (row == null && axis.numeric && axis.values.size() > 1) {
+                    row = axis;
+                }
+            }
+            rowAxis = row;
+            Axis impl = null;
+            for (Axis axis : axes) {
+                if (axis != rowAxis && axis.values.size() > 1) {
+                    impl = axis;
+                    break;
+                }
+            }
+            implAxis = impl;
+        }
+
+        List<RunResult> run() throws Exception {
+            if (rowAxis == null || rowAxis.values.size() <= 2) {
+                runPass(rowAxis == null ? Collections.emptyList() : rowAxis.values);
+            } else {
+                List<String> coarse = new ArrayList<>();
+                for (int i = 0; i < rowAxis.values.size(); i += 2) {
+                    coarse.add(rowAxis.values.get(i));
+                }
+                coarse.add(rowAxis.values.get(rowAxis.values.size() - 1));
+                runPass(coarse);
+                if (refine && implAxis != null) {
+                    refine();
+                } else {
+                    runPass(rowAxis.values);
+                }
+            }
+            collectMatrix();
+            return results;
+        }
+
+        private void refine() throws Exception {
+            int extraPasses = 0;
+            for (int pass = 0; pass < MAX_PASSES; pass++) {
+                List<String> values = getExploredRowValues();
+                Set<String> toRun = new LinkedHashSet<>();
+                boolean extra = false;
+                for (int i = 1; i < values.size(); i++) {
+                    String from = values.get(i - 1);
+                    String to = values.get(i);
+                    if (findCrossovers(from, to).isEmpty()) {
+                        continue;
+                    }
+                    List<String> between = rowAxis.getValuesBetween(from, to);
+                    if (!between.isEmpty()) {
+                        toRun.add(between.get(between.size() / 2));
+                    } else if (extraPasses < refineDepth) {
+                        String middle = rowAxis.getMiddle(from, to);
+                        if (middle != null && !explored.contains(middle)) {
+                            toRun.add(middle);
+                            extra = true;
+                        }
+                    }
+                }
+                if (toRun.isEmpty()) {
+                    return;
+                }
+                if (extra) {
+                    extraPasses++;
+                }
+                log.info("Refining " + benchmark + " near crossovers, " + rowAxis.name + "=" + toRun);
+                runPass(toRun);
+            }
+        }
+
+        private void runPass(Collection<String> rowValues) throws Exception {
+            List<String> pending = new ArrayList<>();
+            for (String value : rowValues) {
+                if (!explored.contains(value)) {
+                    pending.add(value);
+                }
+            }
+            if (rowAxis != null && pending.isEmpty()) {
+                return;
+            }
+            ChainedOptionsBuilder passOptions = PluginUtils.restrictTo(options, benchmarks,
+                    Collections.singleton(benchmark));
+            for (Axis axis : axes) {
+                List<String> values = axis == rowAxis ? pending : axis.values;
+                passOptions.param(axis.name, values.toArray(new String[0]));
+            }
+            if (rowAxis != null) {
+                log.info("Exploring " + benchmark + " parameters grid, " + rowAxis.name + "=" + pending);
+            }
+            results.addAll(executor.run(passOptions.build()));
+            explored.addAll(pending);
+        }
+
+        private List<String> getExploredRowValues() {
+            List<String> values = new ArrayList<>(explored);
+            values.sort(Comparator.comparingDouble(Double::parseDouble));
+            return values;
+        }
+
+        /**
+         * Finds parameter combinations where best implementation at {@code from} differs from best implementation at
+         * {@code to}.
+         */
+        private List<String> findCrossovers(String from, String to) {
+            Map<String, String> fromWinners = findWinners(from);
+            Map<String, String> toWinners = findWinners(to);
+            List<String> found = new ArrayList<>();
+            for (Map.Entry<String, String> winner : fromWinners.entrySet()) {
+                String toWinner = toWinners.get(winner.getKey());
+                if (toWinner != null && !toWinner.equals(winner.getValue())) {
+                    found.add(implAxis.name + " " + winner.getValue() + " -> " + toWinner + " between "
+                            + rowAxis.name + "=" + from + " and " + to
+                            + (winner.getKey().isEmpty() ? "" : " (" + winner.getKey() + ")"));
+                }
+            }
+            return found;
+        }
+
+        private Map<String, String> findWinners(String rowValue) {
+            Map<String, String> winners = new HashMap<>();
+            Map<String, Double> bestScores = new HashMap<>();
+            for (RunResult result : results) {
+                if (!rowValue.equals(result.getParams().getParam(rowAxis.name))) {
+                    continue;
+                }
+                String combination = getCombination(result, implAxis);
+                double score = result.getPrimaryResult().getScore();
+                boolean higherIsBetter = result.getParams().getMode() == Mode.Throughput;
+                Double best = bestScores.get(combination);
+                if (best == null || (higherIsBetter ? score > best : score < best)) {
+                    bestScores.put(combination, score);
+                    winners.put(combination, result.getParams().getParam(implAxis.name));
+                }
+            }
+            return winners;
+        }
+
+        /**
+         * Builds key of result parameters except row axis and given axis, including benchmark mode.
+         */
+        private String getCombination(RunResult result, Axis excluded) {
+            StringBuilder combination = new StringBuilder();
+            if (result.getParams().getMode() != null) {
+                combination.append(result.getParams().getMode().shortLabel());
+            }
+            for (Axis axis : axes) {
+                if (axis != rowAxis && axis != excluded) {
+                    combination.append(combination.length() == 0 ? "" : ", ").append(axis.name).append('=')
+                            .append(result.getParams().getParam(axis.name));
+                }
+            }
+            return combination.toString();
+        }
+
+        private void collectMatrix() {
+            if (results.isEmpty()) {
+                return;
+            }
+            Axis row = rowAxis == null ? axes.get(0) : rowAxis;
+            List<String> rowValues = new ArrayList<>();
+            for (String value : row.values) {
+                if (rowAxis == null || explored.contains(value)) {
+                    rowValues.add(value);
+                }
+            }
+            for (String value : explored) {
+                if (!rowValues.contains(value)) {
+                    rowValues.add(value);
+                }
+            }
+            if (row.numeric) {
+                rowValues.sort(Comparator.comparingDouble(Double::parseDouble));
+            }
+
+            Map<String, Map<String, Double>> cells = new LinkedHashMap<>();
+            for (RunResult result : results) {
+                String rowValue = result.getParams().getParam(row.name);
+                cells.computeIfAbsent(rowValue, k -> new LinkedHashMap<>()).put(getCombination(result, row),
+                        result.getPrimaryResult().getScore());
+            }
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (String rowValue : rowValues) {
+                Map<String, Object> matrixRow = new LinkedHashMap<>();
+                matrixRow.put("value", rowValue);
+                matrixRow.put("scores", cells.getOrDefault(rowValue, Collections.emptyMap()));
+                rows.add(matrixRow);
+            }
+
+            List<String> benchmarkCrossovers = new ArrayList<>();
+            if (rowAxis != null && implAxis != null) {
+                List<String> values = getExploredRowValues();
+                for (int i = 1; i < values.size(); i++) {
+                    benchmarkCrossovers.addAll(findCrossovers(values.get(i - 1), values.get(i)));
+                }
+            }
+            if (!benchmarkCrossovers.isEmpty()) {
+                crossovers.put(benchmark, benchmarkCrossovers);
+            }
+
+            Map<String, Object> matrix = new LinkedHashMap<>();
+            matrix.put("benchmark", benchmark);
+            matrix.put("scoreUnit", results.get(0).getPrimaryResult().getScoreUnit());
+            matrix.put("rowParam", row.name);
+            matrix.put("rows", rows);
+            matrix.put("crossovers", benchmarkCrossovers);
+            matrices.add(matrix);
+
+            log.info("Parameters matrix of " + benchmark + " (" + row.name + " by parameters):");
+            for (Map<String, Object> matrixRow : rows) {
+                log.info("  " + row.name + "=" + matrixRow.get("value") + ": " + matrixRow.get("scores"));
+            }
+            for (String crossover : benchmarkCrossovers) {
+                log.info("  crossover: " + crossover);
+            }
+        }
+    }
+
+    /**
+     * Parameter values axis.
+     */
+    static class Axis {
+        final String name;
+        final List<String> values;
+        final boolean numeric;
+        final boolean integer;
+        final boolean range;
+        final boolean geometric;
+
+        private Axis(String name, List<String> values, boolean range, boolean geometric) {
+            this.name = name;
+            this.values = values;
+            this.range = range;
+            this.geometric = geometric;
+            boolean allNumeric = !values.isEmpty();
+            boolean allInteger = !values.isEmpty();
+            for (String value : values) {
+                try {
+                    Double.parseDouble(value);
+                    allInteger &= !value.contains(".") && !value.toLowerCase().contains("e");
+                } catch (NumberFormatException exc) {
+                    allNumeric = false;
+                    allInteger = false;
+                }
+            }
+            this.numeric = allNumeric;
+            this.integer = allInteger;
+        }
+
+        /**
+         * Parses parameter axis definition: values separated by {@code |} or comma, or range
+         * {@code from..to[*factor|+step]}.
+         *
+         * @param name
+         *            parameter name
+         * @param definition
+         *            values definition
+         * @return parameter axis
+         * @throws IllegalArgumentException
+         *             if range definition is invalid
+         */
+        static Axis parse(String name, String definition) {
+            Matcher matcher = RANGE_PATTERN.matcher(definition.trim());
+            if (!matcher.matches()) {
+                List<String> values = new ArrayList<>();
+                for (String value : definition.split("[|,]")) {
+                    if (StringUtils.isNotBlank(value)) {
+                        values.add(value.trim());
+                    }
+                }
+                return new Axis(name, values, false, false);
+            }
+            double from = Double.parseDouble(matcher.group(1));
+            double to = Double.parseDouble(matcher.group(2));
+            boolean linear = "+".equals(matcher.group(3));
+            double step = matcher.group(4) == null ? 2 : Double.parseDouble(matcher.group(4));
+            boolean integer = !matcher.group(1).contains(".") && !matcher.group(2).contains(".")
+                    && (!linear || !matcher.group(4).contains("."));
+            if (from > to || (linear ? step <= 0 : step <= 1 || from <= 0)) {
+                throw new IllegalArgumentException("Invalid parameter range " + name + "=" + definition
+                        + ", expected from..to*factor (factor > 1, from > 0) or from..to+step (step > 0)");
+            }
+            List<String> values = new ArrayList<>();
+            double value = from;
+            while (value <= to * (1 + 1e-9) && values.size() < MAX_AXIS_VALUES) {
+                String formatted = formatNumber(value, integer);
+                if (!values.contains(formatted)) {
+                    values.add(formatted);
+                }
+                value = linear ? value + step : value * step;
+            }
+            String last = formatNumber(to, integer);
+            if (!values.contains(last)) {
+                values.add(last);
+            }
+            return new Axis(name, values, true, !linear);
+        }
+
+        List<String> getValuesBetween(String from, String to) {
+            double fromValue = Double.parseDouble(from);
+            double toValue = Double.parseDouble(to);
+            List<String> between = new ArrayList<>();
+            for (String value : values) {
+                double numericValue = Double.parseDouble(value);
+                if (numericValue > fromValue && numericValue < toValue) {
+                    between.add(value);
+                }
+            }
+            return between;
+        }
+
+        String getMiddle(String from, String to) {
+            double fromValue = Double.parseDouble(from);
+            double toValue = Double.parseDouble(to);
+            double middle = geometric && fromValue > 0 ? Math.sqrt(fromValue * toValue) : (fromValue + toValue) / 2;
+            // values between grid points do not need full precision
+            String formatted = integer ? formatNumber(middle, true)
+                    : BigDecimal.valueOf(middle).round(new MathContext(3)).stripTrailingZeros().toPlainString();
+            return formatted.equals(from) || formatted.equals(to) ? null : formatted;
+        }
+    }
+}
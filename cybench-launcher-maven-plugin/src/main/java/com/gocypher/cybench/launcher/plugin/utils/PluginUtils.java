@@ -19,14 +19,26 @@
 package com.gocypher.cybench.launcher.plugin.utils;
 
 import java.io.File;
+import java.net.URL;
 import java.util.*;
+import java.util.regex.Pattern;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.classworlds.realm.ClassRealm;
-import org.openjdk.jmh.util.Utils;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
 
 public final class PluginUtils {
 
@@ -36,6 +48,9 @@ public final class PluginUtils {
     private static final String SCOPE_SYSTEM = "system";
     public static final String KEY_SKIP_CYBENCH = "skipCybench";
     public static final String KEY_SYSTEM_CLASSPATH = "java.class.path";
+    public static final String WORK_DIR = ".cybench";
+    private static final String KEY_BENCHMARKS_METADATA = "benchmarksMetadata";
+    private static final String PARAMS_VALUES_SEPARATOR = "; ";
 
     private PluginUtils() {
     }
@@ -50,17 +65,26 @@ public final class PluginUtils {
         File classesTest = new File(project.getBuild().getTestOutputDirectory());
         PluginDescriptor pluginDescriptor = (PluginDescriptor) pluginContext.get("pluginDescriptor");
         ClassRealm classRealm = pluginDescriptor.getClassRealm();
-        classRealm.addURL(classes.toURI().toURL());
-        classRealm.addURL(classesTest.toURI().toURL());
+        List<URL> realmUrls = Arrays.asList(classRealm.getURLs());
+        for (File classDir : Arrays.asList(classes, classesTest)) {
+            URL classDirUrl = classDir.toURI().toURL();
+            if (!realmUrls.contains(classDirUrl)) {
+                classRealm.addURL(classDirUrl);
+            }
+        }
 
         /*
          * This part of code resolves libraries used in project and sets it to System classpath that JMH could use it.
+         * Entries already present in System classpath (e.g. added by previous module of reactor build) are not added
+         * again, so classpath does not grow with every execution. Resolved classpath is not cached: artifacts are
+         * resolved by Maven before the goal executes, and cache key of artifact files would cost as much as joining
+         * their paths.
          */
         List<Artifact> artifacts = new ArrayList<>();
         List<File> theClasspathFiles = new ArrayList<>();
         collectProjectArtifactsAndClasspathByScope(project, artifacts, theClasspathFiles, classpathScope);
         theClasspathFiles.add(new File(project.getBuild().getTestOutputDirectory()));
-        Set<String> classPaths = new HashSet<>();
+        Set<String> classPaths = new LinkedHashSet<>();
         for (File f : theClasspathFiles) {
             classPaths.add(f.getAbsolutePath());
         }
@@ -68,23 +92,17 @@ public final class PluginUtils {
         for (Artifact artifact : artifacts) {
             classPaths.add(artifact.getFile().getAbsolutePath());
         }
-        StringBuilder tmpClasspath = new StringBuilder();
+        String systemClassPath = System.getProperty(KEY_SYSTEM_CLASSPATH);
+        classPaths.removeAll(Arrays.asList(systemClassPath.split(File.pathSeparator)));
 
-        if (classPaths != null) {
-            for (String classPath : classPaths) {
-                if (Utils.isWindows()) {
-                    tmpClasspath.append(";").append(classPath);
-                } else {
-                    tmpClasspath.append(":").append(classPath);
-                }
-            }
-        }
         /*
          * This update of the classpath is required in order to successfully launch JMH forked JVM's correctly and avoid
          * failures because of missing classpath libraries. JMH forked JVM's inherits System classpath.
          */
-        String finalClassPath = System.getProperty(KEY_SYSTEM_CLASSPATH) + tmpClasspath;
-        System.setProperty(KEY_SYSTEM_CLASSPATH, finalClassPath);
+        if (!classPaths.isEmpty()) {
+            System.setProperty(KEY_SYSTEM_CLASSPATH,
+                    systemClassPath + File.pathSeparator + String.join(File.pathSeparator, classPaths));
+        }
 
         log.info("Benchmarks classpath:" + System.getProperty(KEY_SYSTEM_CLASSPATH));
 
@@ -97,6 +115,219 @@ public final class PluginUtils {
         return fileName;
     }
 
+    public static File getWorkDir(String reportsFolder) {
+        return new File(reportsFolder, WORK_DIR);
+    }
+
+    /**
+     * Finds executable file in directories listed by system {@code PATH} environment variable.
+     *
+     * @param name
+     *            executable name
+     * @return executable file, or {@code null} if executable is not found
+     */
+    public static File findExecutable(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            File executable = new File(dir, name);
+            if (executable.isFile() && executable.canExecute()) {
+                return executable;
+            }
+        }
+        return null;
+    }
+
+    public static List<File> getClassDirectories(MavenProject project) {
+        List<File> classDirs = new ArrayList<>();
+        classDirs.add(new File(project.getBuild().getOutputDirectory()));
+        classDirs.add(new File(project.getBuild().getTestOutputDirectory()));
+        return classDirs;
+    }
+
+    /**
+     * Builds JMH include/exclude regular expression matching exactly one benchmark.
+     *
+     * @param benchmarkName
+     *            benchmark name in format {@code package.Class.method}
+     * @return regular expression matching only given benchmark
+     */
+    public static String toBenchmarkRegex(String benchmarkName) {
+        return "^" + Pattern.quote(benchmarkName) + "$";
+    }
+
+    /**
+     * Lists names of benchmarks JMH will run for given options.
+     *
+     * @param options
+     *            JMH options
+     * @return sorted set of benchmark names
+     */
+    public static SortedSet<String> findBenchmarks(Options options) {
+        List<String> includes = new ArrayList<>(options.getIncludes());
+        if (includes.isEmpty()) {
+            includes.add(".*");
+        }
+        SortedSet<String> benchmarkNames = new TreeSet<>();
+        for (BenchmarkListEntry entry : BenchmarkList.defaultList().find(
+                OutputFormatFactory.createFormatInstance(System.out, VerboseMode.SILENT), includes,
+                options.getExcludes())) {
+            benchmarkNames.add(entry.getUsername());
+        }
+        return benchmarkNames;
+    }
+
+    /**
+     * Creates options builder inheriting provided options, but restricted to run only selected benchmarks.
+     * Restriction is made by excluding all other benchmarks, since JMH merges includes of parent options.
+     *
+     * @param options
+     *            parent JMH options
+     * @param benchmarks
+     *            all benchmarks selected by parent options
+     * @param selected
+     *            benchmarks to run
+     * @return options builder
+     */
+    public static ChainedOptionsBuilder restrictTo(Options options, Collection<String> benchmarks,
+            Collection<String> selected) {
+        ChainedOptionsBuilder optionsBuilder = new OptionsBuilder().parent(options);
+        for (String benchmark : benchmarks) {
+            if (!selected.contains(benchmark)) {
+                optionsBuilder.exclude(toBenchmarkRegex(benchmark));
+            }
+        }
+        return optionsBuilder;
+    }
+
+    /**
+     * Adds metadata entry for benchmark. Collected entries are appended to benchmark report when results are
+     * processed.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param benchmarkName
+     *            benchmark name
+     * @param key
+     *            metadata key
+     * @param value
+     *            metadata value
+     */
+    @SuppressWarnings("unchecked")
+    public static void addBenchmarkMetadata(BenchmarkingContext benchContext, String benchmarkName, String key,
+            String value) {
+        synchronized (benchContext) {
+            Map<String, Map<String, String>> benchmarksMetadata = (Map<String, Map<String, String>>) benchContext
+                    .getContextMetadata().computeIfAbsent(KEY_BENCHMARKS_METADATA, k -> new HashMap<>());
+            benchmarksMetadata.computeIfAbsent(benchmarkName, k -> new LinkedHashMap<>()).put(key, value);
+        }
+    }
+
+    /**
+     * Adds metadata entry of single benchmark parameters combination. All parameters combinations of benchmark share
+     * the same metadata, so for benchmark having {@code @Param} fields value is prefixed by parameter values and
+     * appended to values of other combinations, e.g. {@code size=10: 123; size=100: 456}.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param params
+     *            benchmark parameters
+     * @param key
+     *            metadata key
+     * @param value
+     *            metadata value
+     */
+    public static void addBenchmarkMetadata(BenchmarkingContext benchContext, BenchmarkParams params, String key,
+            String value) {
+        String label = getParamsLabel(params);
+        if (label.isEmpty()) {
+            addBenchmarkMetadata(benchContext, params.getBenchmark(), key, value);
+            return;
+        }
+        synchronized (benchContext) {
+            String previous = getBenchmarkMetadata(benchContext, params.getBenchmark()).get(key);
+            List<String> values = new ArrayList<>();
+            if (previous != null) {
+                for (String previousValue : previous.split(PARAMS_VALUES_SEPARATOR)) {
+                    // value of parameters combination run again is replaced
+                    if (!previousValue.startsWith(label + ": ")) {
+                        values.add(previousValue);
+                    }
+                }
+            }
+            values.add(label + ": " + value);
+            addBenchmarkMetadata(benchContext, params.getBenchmark(), key,
+                    String.join(PARAMS_VALUES_SEPARATOR, values));
+        }
+    }
+
+    /**
+     * Returns metadata value of single benchmark parameters combination, see
+     * {@link #addBenchmarkMetadata(BenchmarkingContext, BenchmarkParams, String, String)}.
+     *
+     * @param value
+     *            benchmark metadata value, e.g. {@code size=10: 123; size=100: 456}
+     * @param paramsKey
+     *            parameters combination, see {@link ReportHistory#toParamsKey(Map)}
+     * @return value of parameters combination, {@code value} as is if benchmark has no parameters, or {@code null} if
+     *         there is no value of parameters combination
+     */
+    public static String getParamsValue(String value, String paramsKey) {
+        if (value == null || StringUtils.isEmpty(paramsKey) || !value.contains(": ")) {
+            return value;
+        }
+        for (String paramsValue : value.split(PARAMS_VALUES_SEPARATOR)) {
+            int separatorIndex = paramsValue.indexOf(": ");
+            if (separatorIndex < 0) {
+                continue;
+            }
+            Map<String, String> params = new HashMap<>();
+            for (String param : paramsValue.substring(0, separatorIndex).split(",")) {
+                params.put(StringUtils.substringBefore(param, "="), StringUtils.substringAfter(param, "="));
+            }
+            if (paramsKey.equals(ReportHistory.toParamsKey(params))) {
+                return paramsValue.substring(separatorIndex + 2);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code @Param} values of benchmark parameters combination, e.g. {@code size=10,type=array}.
+     *
+     * @param params
+     *            benchmark parameters
+     * @return parameter values, or empty string if benchmark has no parameters
+     */
+    public static String getParamsLabel(BenchmarkParams params) {
+        List<String> values = new ArrayList<>();
+        for (String key : params.getParamsKeys()) {
+            values.add(key + "=" + params.getParam(key));
+        }
+        return String.join(",", values);
+    }
+
+    /**
+     * Returns metadata entries collected for benchmark.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param benchmarkName
+     *            benchmark name
+     * @return benchmark metadata entries map, empty if there is no metadata collected for benchmark
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, String> getBenchmarkMetadata(BenchmarkingContext benchContext, String benchmarkName) {
+        Map<String, Map<String, String>> benchmarksMetadata = (Map<String, Map<String, String>>) benchContext
+                .getContextMetadata(KEY_BENCHMARKS_METADATA);
+        if (benchmarksMetadata == null || !benchmarksMetadata.containsKey(benchmarkName)) {
+            return Collections.emptyMap();
+        }
+        return benchmarksMetadata.get(benchmarkName);
+    }
+
     private static void collectProjectArtifactsAndClasspathByScope(MavenProject project, List<Artifact> artifacts,
             List<File> theClasspathFiles, String classpathScope) {
         if (SCOPE_COMPILE.equals(classpathScope)) {
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Helper methods for configurable JMH profilers and for Linux {@code perf} based profilers results.
+ */
+public final class ProfilerUtils {
+
+    private static final String PERF_ASM_LABEL = "asm";
+    private static final String PERF_ASM_FOLDER = "perfasm";
+    private static final long PERF_CHECK_TIMEOUT = 10;
+    private static final String[][] PERF_NORM_METRICS = { //
+            { "perfInstructionsPerOp", "instructions" }, //
+            { "perfCyclesPerOp", "cycles" }, //
+            { "perfIpc", "IPC" }, //
+            { "perfBranchesPerOp", "branches" }, //
+            { "perfBranchMissesPerOp", "branch-misses" }, //
+            { "perfL1dLoadMissesPerOp", "L1-dcache-load-misses" }, //
+            { "perfLlcLoadMissesPerOp", "LLC-load-misses" }, //
+            { "perfCacheMissesPerOp", "cache-misses" } };
+
+    private static Boolean perfAvailable;
+
+    private ProfilerUtils() {
+    }
+
+    /**
+     * Adds configured profilers to JMH options. Profiler is defined by JMH profiler alias or class name, optionally
+     * followed by colon and profiler options, e.g. {@code perfasm:intelSyntax=true;top=5}. Linux {@code perf} based
+     * profilers are skipped when {@code perf} is not available.
+     *
+     * @param log
+     *            log
+     * @param optionsBuilder
+     *            JMH options builder
+     * @param profilers
+     *            configured profilers
+     */
+    public static void addProfilers(Log log, ChainedOptionsBuilder optionsBuilder, Collection<String> profilers) {
+        for (String profiler : profilers) {
+            if (StringUtils.isBlank(profiler)) {
+                continue;
+            }
+            String name = StringUtils.substringBefore(profiler.trim(), ":");
+            String initLine = profiler.contains(":") ? StringUtils.substringAfter(profiler.trim(), ":") : null;
+            if (isPerfProfiler(name) && !isPerfAvailable(log)) {
+                log.warn("Linux perf is not available, skipping profiler: " + name);
+                continue;
+            }
+            log.info("Adding profiler: " + profiler.trim());
+            if (initLine == null) {
+                optionsBuilder.addProfiler(name);
+            } else {
+                optionsBuilder.addProfiler(name, initLine);
+            }
+        }
+    }
+
+    static boolean isPerfProfiler(String name) {
+        String lowerName = name.toLowerCase();
+        return lowerName.startsWith("perf") || lowerName.contains("linuxperf");
+    }
+
+    /**
+     * Checks if Linux {@code perf} is installed and hardware counters are readable by current user.
+     *
+     * @param log
+     *            log
+     * @return {@code true} if {@code perf} can be used
+     */
+    public static synchronized boolean isPerfAvailable(Log log) {
+        if (perfAvailable == null) {
+            perfAvailable = checkPerf(log);
+        }
+        return perfAvailable;
+    }
+
+    private static boolean checkPerf(Log log) {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")
+                || PluginUtils.findExecutable("perf") == null) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder("perf", "stat", "-e", "instructions,cycles", "true")
+                    .redirectErrorStream(true).start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputStream in = process.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            String outputStr = new String(output.toByteArray(), StandardCharsets.UTF_8);
+            if (!process.waitFor(PERF_CHECK_TIMEOUT, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+            if (process.exitValue() != 0 || outputStr.contains("<not supported>")) {
+                log.info("Linux perf can't read hardware counters: " + outputStr.trim());
+                return false;
+            }
+            return true;
+        } catch (IOException exc) {
+            log.info("Failed to run Linux perf: " + exc);
+            return false;
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Collects Linux {@code perf} profilers results: normalized hardware counters are added as benchmark metadata,
+     * {@code perfasm} hottest regions are saved as files under reports folder. Values of benchmark having
+     * {@code @Param} fields are stored per parameters combination.
+     *
+     * @param log
+     *            log
+     * @param benchContext
+     *            benchmarking context
+     * @param results
+     *            benchmark run results
+     * @param reportsFolder
+     *            reports folder
+     */
+    public static void collectPerfResults(Log log, BenchmarkingContext benchContext, Collection<RunResult> results,
+            String reportsFolder) {
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            Map<String, Result> secondaryResults = result.getSecondaryResults();
+            for (String[] metric : PERF_NORM_METRICS) {
+                double value = ResultUtils.getSecondaryScore(secondaryResults, metric[1]);
+                if (Double.isNaN(value) && "IPC".equals(metric[1])) {
+                    value = ResultUtils.getSecondaryScore(secondaryResults, "instructions")
+                            / ResultUtils.getSecondaryScore(secondaryResults, "cycles");
+                }
+                if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                    PluginUtils.addBenchmarkMetadata(benchContext, result.getParams(), metric[0],
+                            String.format(Locale.ROOT, "%.3f", value));
+                }
+            }
+
+            String asm = findPerfAsm(result);
+            if (asm != null) {
+                File asmFile = new File(new File(reportsFolder, PERF_ASM_FOLDER),
+                        benchmark + "-" + ClassFileUtils.hash(result.getParams().id()).substring(0, 8) + ".txt");
+                try {
+                    Files.createDirectories(asmFile.getParentFile().toPath());
+                    Files.write(asmFile.toPath(), asm.getBytes(StandardCharsets.UTF_8));
+                    PluginUtils.addBenchmarkMetadata(benchContext, result.getParams(), "perfAsmFile",
+                            PERF_ASM_FOLDER + "/" + asmFile.getName());
+                    log.info("Saved hottest assembly regions of " + benchmark + " to '" + asmFile + "'");
+                } catch (IOException exc) {
+                    log.warn("Failed to save perfasm output of " + benchmark + ": " + exc);
+                }
+            }
+        }
+    }
+
+    private static String findPerfAsm(RunResult result) {
+        for (BenchmarkResult fork : result.getBenchmarkResults()) {
+            for (String label : fork.getBenchmarkResults().keys()) {
+                if (PERF_ASM_LABEL.equals(ResultUtils.stripLabelPrefix(label))) {
+                    for (Result<?> asmResult : fork.getBenchmarkResults().get(label)) {
+                        if (StringUtils.isNotBlank(asmResult.extendedInfo())) {
+                            return asmResult.extendedInfo();
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Local history of benchmark results, indexed by benchmark fingerprint, mode and parameters.
+ */
+public abstract class ReportHistory {
+
+    private static final int ENVIRONMENT_HASH_LENGTH = 16;
+    private static final String[] PARAMETERS_KEYS = { "parameters", "params" };
+
+    /**
+     * Finds history entries of benchmark, latest entries first.
+     *
+     * @param key
+     *            benchmark history key, see {@link HistoryEntry#getKey()}
+     * @param version
+     *            project version to filter entries, {@code null} to take entries of all versions
+     * @param limit
+     *            maximum number of entries to return
+     * @return list of history entries
+     */
+    public abstract List<HistoryEntry> find(String key, String version, int limit);
+
+    /**
+     * Finds history entries of benchmark by its name, regardless of fingerprint, mode and parameters, latest entries
+     * first.
+     *
+     * @param name
+     *            benchmark name
+     * @param limit
+     *            maximum number of entries to return
+     * @return list of history entries
+     */
+    public abstract List<HistoryEntry> findByName(String name, int limit);
+
+    /**
+     * Extracts benchmark entries from parsed JSON report.
+     *
+     * @param report
+     *            parsed report
+     * @return history entries of all report benchmarks
+     */
+    public static List<HistoryEntry> parseReport(Map<?, ?> report) {
+        List<HistoryEntry> reportEntries = new ArrayList<>();
+        long timestamp = toLong(report.get("timestamp"));
+        String reportVersion = toString(report.get("projectVersion"));
+        String environmentHash = getEnvironmentHash(report);
+        Object benchmarks = report.get("benchmarks");
+        if (!(benchmarks instanceof Map)) {
+            return reportEntries;
+        }
+        for (Object category : ((Map<?, ?>) benchmarks).values()) {
+            if (!(category instanceof Collection)) {
+                continue;
+            }
+            for (Object benchmark : (Collection<?>) category) {
+                if (!(benchmark instanceof Map)) {
+                    continue;
+                }
+                Map<?, ?> benchmarkReport = (Map<?, ?>) benchmark;
+                HistoryEntry entry = new HistoryEntry();
+                entry.name = toString(benchmarkReport.get("name"));
+                entry.fingerprint = StringUtils.defaultIfBlank(toString(benchmarkReport.get("manualFingerprint")),
+                        entry.name);
+                entry.mode = toString(benchmarkReport.get("mode"));
+                entry.params = parseParams(benchmarkReport);
+                entry.version = StringUtils.defaultIfBlank(toString(benchmarkReport.get("projectVersion")),
+                        reportVersion);
+                entry.timestamp = timestamp;
+                entry.score = toDouble(benchmarkReport.get("score"));
+                entry.environmentHash = environmentHash;
+                Object metadata = benchmarkReport.get("metadata");
+                if (metadata instanceof Map) {
+                    for (Map.Entry<?, ?> metadataEntry : ((Map<?, ?>) metadata).entrySet()) {
+                        entry.metadata.put(String.valueOf(metadataEntry.getKey()),
+                                toString(metadataEntry.getValue()));
+                    }
+                }
+                if (entry.name != null) {
+                    reportEntries.add(entry);
+                }
+            }
+        }
+        return reportEntries;
+    }
+
+    private static String parseParams(Map<?, ?> benchmarkReport) {
+        for (String key : PARAMETERS_KEYS) {
+            Object params = benchmarkReport.get(key);
+            if (params instanceof Map) {
+                Map<String, Object> paramValues = new HashMap<>();
+                for (Map.Entry<?, ?> param : ((Map<?, ?>) params).entrySet()) {
+                    paramValues.put(String.valueOf(param.getKey()), param.getValue());
+                }
+                return toParamsKey(paramValues);
+            }
+            if (params != null && StringUtils.isNotBlank(String.valueOf(params))) {
+                return String.valueOf(params);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts benchmark {@code @Param} values to canonical string, e.g. {@code length=10,type=array}.
+     *
+     * @param params
+     *            map of parameter name and value
+     * @return parameters string, or {@code null} if benchmark has no parameters
+     */
+    public static String toParamsKey(Map<String, ?> params) {
+        if (params == null || params.isEmpty()) {
+            return null;
+        }
+        StringBuilder paramsKey = new StringBuilder();
+        for (Map.Entry<String, ?> param : new TreeMap<>(params).entrySet()) {
+            paramsKey.append(paramsKey.length() == 0 ? "" : ",").append(param.getKey()).append('=')
+                    .append(param.getValue());
+        }
+        return paramsKey.toString();
+    }
+
+    /**
+     * Builds key identifying benchmark in history, see {@link HistoryEntry#getKey()}.
+     *
+     * @param fingerprint
+     *            benchmark fingerprint
+     * @param mode
+     *            benchmark mode
+     * @param params
+     *            benchmark parameters string, {@code null} if benchmark has no parameters
+     * @return benchmark history key
+     */
+    public static String getKey(String fingerprint, String mode, String params) {
+        return fingerprint + ":" + mode + (StringUtils.isEmpty(params) ? "" : ":" + params);
+    }
+
+    /**
+     * Computes short hash of report hardware and JVM environment, identifying results measured on the same
+     * environment.
+     *
+     * @param report
+     *            parsed report
+     * @return environment hash, or {@code null} if report has no environment settings
+     */
+    static String getEnvironmentHash(Map<?, ?> report) {
+        Object environmentSettings = report.get("environmentSettings");
+        if (!(environmentSettings instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> settings = (Map<?, ?>) environmentSettings;
+        return ClassFileUtils.hash(toString(settings.get("environment")), toString(settings.get("jvmEnvironment")))
+                .substring(0, ENVIRONMENT_HASH_LENGTH);
+    }
+
+    static String toString(Object value) {
+        return value == null ? null : String.valueOf(value);
+    }
+
+    static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return value == null ? Double.NaN : Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException exc) {
+            return Double.NaN;
+        }
+    }
+
+    static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return value == null ? 0 : Long.parseLong(String.valueOf(value));
+        } catch (NumberFormatException exc) {
+            return 0;
+        }
+    }
+
+    /**
+     * Single benchmark result of some past report.
+     */
+    public static class HistoryEntry {
+        String name;
+        String fingerprint;
+        String mode;
+        String params;
+        String version;
+        long timestamp;
+        double score;
+        double percentile50 = Double.NaN;
+        double percentile90 = Double.NaN;
+        double percentile99 = Double.NaN;
+        String environmentHash;
+        final Map<String, String> metadata = new HashMap<>();
+
+        public HistoryEntry() {
+        }
+
+        public HistoryEntry(String name, String fingerprint, String mode, String version, long timestamp,
+                double score) {
+            this.name = name;
+            this.fingerprint = fingerprint;
+            this.mode = mode;
+            this.version = version;
+            this.timestamp = timestamp;
+            this.score = score;
+        }
+
+        /**
+         * Returns key identifying benchmark in history: results of the same benchmark in different modes or with
+         * different {@code @Param} values are not comparable.
+         *
+         * @return benchmark history key
+         */
+        public String getKey() {
+            return ReportHistory.getKey(fingerprint, mode, params);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        /**
+         * Returns benchmark {@code @Param} values, see {@link ReportHistory#toParamsKey(Map)}.
+         *
+         * @return parameters string, or {@code null} if benchmark has no parameters
+         */
+        public String getParams() {
+            return params;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public double getPercentile50() {
+            return percentile50;
+        }
+
+        public double getPercentile90() {
+            return percentile90;
+        }
+
+        public double getPercentile99() {
+            return percentile99;
+        }
+
+        public String getEnvironmentHash() {
+            return environmentHash;
+        }
+
+        public Map<String, String> getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * Checks if higher score of this benchmark means better performance.
+         *
+         * @return {@code true} for throughput mode benchmarks, {@code false} for time based modes
+         */
+        public boolean isHigherBetter() {
+            String lowerMode = StringUtils.defaultIfBlank(mode, "thrpt").toLowerCase();
+            return lowerMode.contains("thrpt") || lowerMode.contains("throughput");
+        }
+    }
+}
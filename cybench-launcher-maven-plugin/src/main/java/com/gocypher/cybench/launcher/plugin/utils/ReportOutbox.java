@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.gocypher.cybench.launcher.report.DeliveryService;
+
+/**
+ * Local outbox of reports to be delivered to CyBench.
+ * <p>
+ * Report is stored into outbox (gzip compressed, under reports folder) before it is sent, and is removed from outbox
+ * only when delivered, so reports failed to deliver are sent together with report of the next run. Every report is
+ * identified by idempotency key (hash of report content): the same report is queued only once, and key is passed to
+ * endpoints supporting it. Delivery runs in background thread, sending all pending reports in one pass (one request
+ * per report, as CyBench stores single report per request) and retrying failed sends with exponential backoff. When
+ * endpoint keeps failing, pass is stopped and remaining reports are left for the next run.
+ * <p>
+ * Report being sent is marked as in-flight. Delivery thread may be killed mid-send (e.g. when Maven exits the JVM),
+ * leaving report possibly stored but not removed from outbox. Such report is resent only to endpoints deduplicating
+ * reports by idempotency key, otherwise it is kept in outbox and reported, so it is not stored twice.
+ */
+public class ReportOutbox {
+
+    private static final String OUTBOX_DIR = "outbox";
+    private static final String REPORT_FILE_SUFFIX = ".report.gz";
+    private static final String IN_FLIGHT_FILE_SUFFIX = ".inflight";
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+
+    private final Log log;
+    private final File outboxDir;
+    private final Sender sender;
+    private final int maxAttempts;
+
+    /**
+     * Constructs report outbox.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @param sender
+     *            report sender
+     * @param maxAttempts
+     *            maximal number of attempts to send single report within one delivery pass
+     */
+    public ReportOutbox(Log log, String reportsFolder, Sender sender, int maxAttempts) {
+        this.log = log;
+        this.outboxDir = new File(PluginUtils.getWorkDir(reportsFolder), OUTBOX_DIR);
+        this.sender = sender;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Stores report into outbox.
+     *
+     * @param report
+     *            report content prepared for delivery
+     * @return report idempotency key
+     * @throws IOException
+     *             if report can't be stored
+     */
+    public String enqueue(String report) throws IOException {
+        String key = ClassFileUtils.hash(report);
+        File reportFile = getReportFile(key);
+        if (reportFile.isFile()) {
+            log.info("Report " + key + " is already queued for delivery");
+            return key;
+        }
+        if (!outboxDir.exists() && !outboxDir.mkdirs()) {
+            throw new IOException("Can't create outbox directory " + outboxDir);
+        }
+        File tmpFile = new File(outboxDir, key + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmpFile))) {
+            out.write(report.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.move(tmpFile.toPath(), reportFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return key;
+    }
+
+    /**
+     * Returns keys of reports pending delivery, oldest first.
+     *
+     * @return list of report idempotency keys
+     */
+    public List<String> getPending() {
+        File[] reportFiles = outboxDir.listFiles((dir, name) -> name.endsWith(REPORT_FILE_SUFFIX));
+        if (reportFiles == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(reportFiles,
+                Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+        List<String> keys = new ArrayList<>(reportFiles.length);
+        for (File reportFile : reportFiles) {
+            keys.add(StringUtils.removeEnd(reportFile.getName(), REPORT_FILE_SUFFIX));
+        }
+        return keys;
+    }
+
+    /**
+     * Starts delivery of all pending reports in background thread.
+     *
+     * @return future of delivery pass, completed with map of delivered report key and endpoint response
+     */
+    public CompletableFuture<Map<String, String>> deliverInBackground() {
+        ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cybench-report-delivery");
+            thread.setDaemon(false);
+            return thread;
+        });
+        try {
+            return CompletableFuture.supplyAsync(this::deliverPending, executorService);
+        } finally {
+            // thread ends as soon as delivery pass is done
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Delivers all pending reports.
+     *
+     * @return map of delivered report key and endpoint response
+     */
+    public Map<String, String> deliverPending() {
+        Map<String, String> responses = new LinkedHashMap<>();
+        List<String> pending = new ArrayList<>();
+        for (String key : getPending()) {
+            File inFlightFile = getInFlightFile(key);
+            if (inFlightFile.isFile() && !sender.isIdempotent()) {
+                log.warn("Delivery of report " + key + " was interrupted by previous run and report may be already"
+                        + " stored, it is not resent to avoid duplicate; remove '" + inFlightFile + "' to resend it");
+            } else {
+                pending.add(key);
+            }
+        }
+        try {
+            for (String key : pending) {
+                String response = deliver(key);
+                if (response == null) {
+                    log.warn("Report delivery endpoint is not available, " + (pending.size() - responses.size())
+                            + " report(s) left in outbox '" + outboxDir + "' for the next run");
+                    break;
+                }
+                responses.put(key, response);
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                sender.close();
+            } catch (IOException exc) {
+                log.debug("Failed to close report sender: " + exc);
+            }
+        }
+        return responses;
+    }
+
+    private String deliver(String key) throws InterruptedException {
+        File reportFile = getReportFile(key);
+        String report;
+        try {
+            report = readReport(reportFile);
+        } catch (IOException exc) {
+            log.warn("Removing unreadable report " + reportFile + " from outbox: " + exc);
+            reportFile.delete();
+            getInFlightFile(key).delete();
+            return "";
+        }
+        File inFlightFile = getInFlightFile(key);
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            markInFlight(inFlightFile);
+            try {
+                String response = sender.send(key, report);
+                if (!reportFile.delete()) {
+                    log.warn("Failed to remove delivered report " + reportFile + " from outbox");
+                }
+                inFlightFile.delete();
+                log.info("Report " + key + " delivered (attempt " + attempt + ")");
+                return response;
+            } catch (Exception exc) {
+                // failure reported by endpoint means report is not stored
+                inFlightFile.delete();
+                log.warn("Report " + key + " delivery attempt " + attempt + "/" + maxAttempts + " failed: " + exc);
+            }
+            if (attempt < maxAttempts) {
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for delivery pass to complete.
+     *
+     * @param delivery
+     *            delivery pass future
+     * @param timeout
+     *            maximal time to wait in seconds, negative to wait until delivery pass completes
+     * @return map of delivered report key and endpoint response, or {@code null} if delivery is still in progress
+     * @throws Exception
+     *             if delivery pass failed
+     */
+    public static Map<String, String> await(CompletableFuture<Map<String, String>> delivery, int timeout)
+            throws Exception {
+        if (timeout < 0) {
+            return delivery.get();
+        }
+        try {
+            return delivery.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException exc) {
+            return null;
+        }
+    }
+
+    private void markInFlight(File inFlightFile) {
+        try {
+            Files.write(inFlightFile.toPath(), String.valueOf(System.currentTimeMillis())
+                    .getBytes(StandardCharsets.UTF_8));
+        } catch (IOException exc) {
+            log.debug("Failed to mark report in-flight " + inFlightFile + ": " + exc);
+        }
+    }
+
+    private File getReportFile(String key) {
+        return new File(outboxDir, key + REPORT_FILE_SUFFIX);
+    }
+
+    private File getInFlightFile(String key) {
+        return new File(outboxDir, key + IN_FLIGHT_FILE_SUFFIX);
+    }
+
+    private static String readReport(File reportFile) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(reportFile))) {
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Sends single report to delivery endpoint.
+     */
+    public interface Sender extends Closeable {
+        /**
+         * Sends report.
+         *
+         * @param key
+         *            report idempotency key
+         * @param report
+         *            report content prepared for delivery
+         * @return endpoint response
+         * @throws Exception
+         *             if report is not delivered and sending should be retried
+         */
+        String send(String key, String report) throws Exception;
+
+        /**
+         * Checks if endpoint deduplicates reports by idempotency key, so report which delivery was interrupted can be
+         * safely resent.
+         *
+         * @return {@code true} if endpoint deduplicates reports
+         */
+        default boolean isIdempotent() {
+            return false;
+        }
+    }
+
+    /**
+     * Sends reports to CyBench using runner delivery service. Delivery service API does not carry idempotency key, so
+     * reports which delivery was interrupted are not resent.
+     */
+    public static class DeliveryServiceSender implements Sender {
+        private final String tokenAndEmail;
+        private final String queryToken;
+
+        public DeliveryServiceSender(String tokenAndEmail, String queryToken) {
+            this.tokenAndEmail = tokenAndEmail;
+            this.queryToken = queryToken;
+        }
+
+        @Override
+        public String send(String key, String report) throws Exception {
+            String response = DeliveryService.getInstance().sendReportForStoring(report, tokenAndEmail, queryToken);
+            // delivery service reports failures by empty response
+            if (StringUtils.isEmpty(response)) {
+                throw new IOException("Empty delivery service response");
+            }
+            return response;
+        }
+
+        @Override
+        public void close() {
+            DeliveryService.getInstance().close();
+        }
+    }
+
+    /**
+     * Posts gzip compressed reports to custom HTTP endpoint (e.g. reports proxy). Request carries
+     * {@code Idempotency-Key} header, access and query tokens in {@code X-CyBench-Token} and
+     * {@code X-CyBench-Query-Token} headers. Server errors ({@code 5xx}) and {@code 429} responses are retried, other
+     * responses are returned as is.
+     */
+    public static class HttpSender implements Sender {
+        private final URL url;
+        private final String tokenAndEmail;
+        private final String queryToken;
+        private final int timeoutMillis;
+
+        public HttpSender(URL url, String tokenAndEmail, String queryToken, int timeoutMillis) {
+            this.url = url;
+            this.tokenAndEmail = tokenAndEmail;
+            this.queryToken = queryToken;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public String send(String key, String report) throws Exception {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(body)) {
+                out.write(report.getBytes(StandardCharsets.UTF_8));
+            }
+            // connection is not disconnected, so it is kept alive for the next report of the same pass
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.size());
+            connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("Idempotency-Key", key);
+            if (StringUtils.isNotEmpty(tokenAndEmail)) {
+                connection.setRequestProperty("X-CyBench-Token", tokenAndEmail);
+            }
+            if (StringUtils.isNotEmpty(queryToken)) {
+                connection.setRequestProperty("X-CyBench-Query-Token", queryToken);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                body.writeTo(out);
+            }
+            int status = connection.getResponseCode();
+            if (status >= 500 || status == 429) {
+                throw new IOException("Endpoint responded with HTTP " + status);
+            }
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in == null) {
+                return "";
+            }
+            try (InputStream responseIn = in) {
+                return new String(readAll(responseIn), StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public boolean isIdempotent() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+/**
+ * Helper methods for JMH results analysis.
+ */
+public final class ResultUtils {
+
+    private ResultUtils() {
+    }
+
+    /**
+     * Finds secondary result by label. JMH versions differ in secondary result labels prefix (older versions prefix
+     * profiler results with middle dot character), so leading non letter characters are ignored.
+     *
+     * @param secondaryResults
+     *            secondary results map
+     * @param label
+     *            result label without prefix
+     * @return secondary result, or {@code null} if there is no such result
+     */
+    public static Result<?> findSecondaryResult(Map<String, Result> secondaryResults, String label) {
+        if (secondaryResults == null) {
+            return null;
+        }
+        for (Map.Entry<String, Result> result : secondaryResults.entrySet()) {
+            if (label.equals(stripLabelPrefix(result.getKey()))) {
+                return result.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns secondary result score, or {@link Double#NaN} if there is no such result.
+     *
+     * @param secondaryResults
+     *            secondary results map
+     * @param label
+     *            result label without prefix
+     * @return secondary result score
+     */
+    public static double getSecondaryScore(Map<String, Result> secondaryResults, String label) {
+        Result<?> result = findSecondaryResult(secondaryResults, label);
+        return result == null ? Double.NaN : result.getScore();
+    }
+
+    public static String stripLabelPrefix(String label) {
+        int i = 0;
+        while (i < label.length() && !Character.isLetterOrDigit(label.charAt(i))) {
+            i++;
+        }
+        return label.substring(i);
+    }
+
+    /**
+     * Converts JMH time unit label to seconds.
+     *
+     * @param timeUnit
+     *            time unit label, e.g. {@code ns}, {@code us}, {@code ms}
+     * @return unit length in seconds, or {@link Double#NaN} if unit is not recognized
+     */
+    public static double toSeconds(String timeUnit) {
+        switch (timeUnit) {
+        case "ns":
+            return 1e-9;
+        case "us":
+            return 1e-6;
+        case "ms":
+            return 1e-3;
+        case "s":
+            return 1;
+        case "min":
+            return 60;
+        case "hr":
+            return 3600;
+        case "day":
+            return 86400;
+        default:
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns length of time per operation score unit in nanoseconds.
+     *
+     * @param scoreUnit
+     *            score unit, e.g. {@code us/op}
+     * @return unit length in nanoseconds, or {@link Double#NaN} if unit is not time per operation
+     */
+    public static double getNanosPerUnit(String scoreUnit) {
+        if (scoreUnit == null || !scoreUnit.endsWith("/op")) {
+            return Double.NaN;
+        }
+        return toSeconds(scoreUnit.substring(0, scoreUnit.length() - "/op".length())) * 1e9;
+    }
+
+    /**
+     * Collects primary result scores of every fork iteration.
+     *
+     * @param benchmarkResult
+     *            single fork benchmark result
+     * @return iteration scores
+     */
+    public static double[] getIterationScores(BenchmarkResult benchmarkResult) {
+        Collection<IterationResult> iterations = benchmarkResult.getIterationResults();
+        double[] scores = new double[iterations.size()];
+        int i = 0;
+        for (IterationResult iteration : iterations) {
+            scores[i++] = iteration.getPrimaryResult().getScore();
+        }
+        return scores;
+    }
+
+    /**
+     * Collects primary result scores of all forks iterations.
+     *
+     * @param benchmarkResults
+     *            forks benchmark results
+     * @return iteration scores
+     */
+    public static double[] getIterationScores(Collection<BenchmarkResult> benchmarkResults) {
+        List<Double> scores = new ArrayList<>();
+        for (BenchmarkResult benchmarkResult : benchmarkResults) {
+            for (IterationResult iteration : benchmarkResult.getIterationResults()) {
+                scores.add(iteration.getPrimaryResult().getScore());
+            }
+        }
+        double[] values = new double[scores.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = scores.get(i);
+        }
+        return values;
+    }
+
+    public static double mean(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum / (to - from);
+    }
+
+    /**
+     * Computes coefficient of variation (sample standard deviation divided by mean) of values range.
+     *
+     * @param values
+     *            values
+     * @param from
+     *            range start index, inclusive
+     * @param to
+     *            range end index, exclusive
+     * @return coefficient of variation, or {@link Double#NaN} if range has less than 2 values or zero mean
+     */
+    public static double coefficientOfVariation(double[] values, int from, int to) {
+        int n = to - from;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(values, from, to);
+        if (mean == 0) {
+            return Double.NaN;
+        }
+        double sumSq = 0;
+        for (int i = from; i < to; i++) {
+            sumSq += (values[i] - mean) * (values[i] - mean);
+        }
+        return Math.sqrt(sumSq / (n - 1)) / Math.abs(mean);
+    }
+}
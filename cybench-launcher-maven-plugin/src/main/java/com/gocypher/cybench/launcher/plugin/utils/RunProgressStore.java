@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+
+import com.gocypher.cybench.core.utils.JSONUtils;
+import com.gocypher.cybench.launcher.model.BenchmarkOverviewReport;
+import com.gocypher.cybench.launcher.report.ReportingService;
+
+/**
+ * Benchmark listener writing results to disk while benchmarks are running.
+ * <p>
+ * Every finished benchmark is added to in-progress report, which is rewritten to disk, so interrupted run leaves
+ * report of all benchmarks finished so far. When all parameter combinations of benchmark are finished, benchmark run
+ * results are stored as separate file, so interrupted run can be resumed skipping benchmarks having stored results.
+ * Results of benchmark run again by later pass of the same run are merged with stored ones by benchmark id (forks of
+ * the same parameters combination are combined), so stored results are never replaced by partial results of a pass.
+ */
+public class RunProgressStore implements NotifyingOutputFormat.BenchmarkListener {
+
+    private static final String PROGRESS_DIR = "progress";
+    private static final String REPORT_FILE = "report-in-progress.json";
+    private static final String RESULTS_FILE_EXTENSION = ".results";
+    private static final int FILE_NAME_HASH_LENGTH = 24;
+
+    private final Log log;
+    private final File progressDir;
+    private final Map<String, String> fingerprints;
+    private final String runSignature;
+    private final Map<String, Map<String, String>> defaultBenchmarksMetadata;
+    private final boolean resumable;
+    private final ThreadLocal<String> currentBenchmark = new ThreadLocal<>();
+    private final Map<String, ArrayList<RunResult>> pendingResults = new HashMap<>();
+    private final Map<String, Map<String, RunResult>> completedResults = new HashMap<>();
+    private BenchmarkOverviewReport report;
+
+    /**
+     * Constructs run progress store.
+     *
+     * @param log
+     *            log
+     * @param reportsFolder
+     *            reports folder
+     * @param fingerprints
+     *            benchmark fingerprints, stored results of changed benchmarks are not resumed
+     * @param runSignature
+     *            signature of run settings, stored results of run having different settings are not resumed
+     * @param defaultBenchmarksMetadata
+     *            default benchmarks metadata used to build in-progress report
+     * @param resumable
+     *            {@code false} when benchmark results produced by JMH runner are not final (e.g. are post-processed
+     *            by adaptive executors) and must not be stored for resuming
+     */
+    public RunProgressStore(Log log, String reportsFolder, Map<String, String> fingerprints, String runSignature,
+            Map<String, Map<String, String>> defaultBenchmarksMetadata, boolean resumable) {
+        this.log = log;
+        this.progressDir = new File(PluginUtils.getWorkDir(reportsFolder), PROGRESS_DIR);
+        this.fingerprints = fingerprints;
+        this.runSignature = runSignature;
+        this.defaultBenchmarksMetadata = defaultBenchmarksMetadata;
+        this.resumable = resumable;
+    }
+
+    /**
+     * Loads results of benchmarks completed by previous interrupted run.
+     *
+     * @return map of benchmark name and its stored results
+     */
+    public Map<String, BenchmarkResultsCache.CacheEntry> loadCompleted() {
+        Map<String, BenchmarkResultsCache.CacheEntry> completed = new TreeMap<>();
+        File[] resultFiles = progressDir.listFiles((dir, name) -> name.endsWith(RESULTS_FILE_EXTENSION));
+        if (resultFiles == null) {
+            return completed;
+        }
+        for (File resultFile : resultFiles) {
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(resultFile)))) {
+                BenchmarkResultsCache.CacheEntry entry = (BenchmarkResultsCache.CacheEntry) in.readObject();
+                if (entry.getResults().isEmpty()) {
+                    continue;
+                }
+                String benchmark = entry.getResults().get(0).getParams().getBenchmark();
+                if (entry.getFingerprint().equals(getFingerprint(benchmark))) {
+                    completed.put(benchmark, entry);
+                } else {
+                    log.info("Benchmark or run settings changed since interrupted run, not resuming: " + benchmark);
+                }
+            } catch (Exception exc) {
+                log.warn("Skipping unreadable benchmark results file '" + resultFile + "': " + exc);
+            }
+        }
+        log.info("Found " + completed.size() + " benchmarks completed by interrupted run in '" + progressDir + "'");
+        return completed;
+    }
+
+    /**
+     * Removes all progress files, called when run has finished successfully.
+     */
+    public void clear() {
+        File[] files = progressDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    log.warn("Failed to delete run progress file '" + file + "'");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void benchmarkStarted(BenchmarkParams params) {
+        // JMH runs all parameter combinations of benchmark one after another
+        String previous = currentBenchmark.get();
+        if (previous != null && !previous.equals(params.getBenchmark())) {
+            completeBenchmark(previous);
+        }
+        currentBenchmark.set(params.getBenchmark());
+    }
+
+    @Override
+    public synchronized void benchmarkFinished(RunResult result) {
+        pendingResults.computeIfAbsent(result.getParams().getBenchmark(), k -> new ArrayList<>()).add(result);
+        try {
+            if (report == null) {
+                report = ReportingService.getInstance().createBenchmarkReport(Collections.singletonList(result),
+                        defaultBenchmarksMetadata);
+            } else {
+                ReportingService.getInstance().updateBenchmarkReport(report, Collections.singletonList(result),
+                        defaultBenchmarksMetadata);
+            }
+            writeAtomically(new File(progressDir, REPORT_FILE),
+                    JSONUtils.marshalToPrettyJson(report).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception exc) {
+            log.warn("Failed to write in-progress report: " + exc);
+        }
+    }
+
+    @Override
+    public void runFinished() {
+        String previous = currentBenchmark.get();
+        if (previous != null) {
+            completeBenchmark(previous);
+        }
+        currentBenchmark.remove();
+    }
+
+    private synchronized void completeBenchmark(String benchmark) {
+        ArrayList<RunResult> pending = pendingResults.remove(benchmark);
+        if (pending == null || !resumable) {
+            return;
+        }
+        Map<String, RunResult> completed = completedResults.computeIfAbsent(benchmark, k -> new LinkedHashMap<>());
+        for (RunResult result : pending) {
+            completed.merge(result.getParams().id(), result, RunProgressStore::mergeForks);
+        }
+        ArrayList<RunResult> results = new ArrayList<>(completed.values());
+        BenchmarkResultsCache.CacheEntry entry = new BenchmarkResultsCache.CacheEntry(getFingerprint(benchmark),
+                System.currentTimeMillis(), results);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(entry);
+            }
+            String fileName = ClassFileUtils.hash(benchmark).substring(0, FILE_NAME_HASH_LENGTH)
+                    + RESULTS_FILE_EXTENSION;
+            writeAtomically(new File(progressDir, fileName), bytes.toByteArray());
+        } catch (IOException exc) {
+            log.warn("Failed to store results of benchmark " + benchmark + ": " + exc);
+        }
+    }
+
+    private static RunResult mergeForks(RunResult stored, RunResult result) {
+        List<BenchmarkResult> forks = new ArrayList<>(stored.getBenchmarkResults());
+        forks.addAll(result.getBenchmarkResults());
+        return new RunResult(stored.getParams(), forks);
+    }
+
+    private String getFingerprint(String benchmark) {
+        return ClassFileUtils.hash(fingerprints.get(benchmark), runSignature);
+    }
+
+    private void writeAtomically(File file, byte[] content) throws IOException {
+        if (!progressDir.exists() && !progressDir.mkdirs()) {
+            throw new IOException("Can't create directory " + progressDir);
+        }
+        File tmpFile = new File(progressDir, file.getName() + ".tmp");
+        Files.write(tmpFile.toPath(), content);
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Runs benchmarks at a ladder of thread counts and records throughput-vs-threads curves.
+ * <p>
+ * Every step of the ladder runs all selected benchmarks with JMH {@code threads} option set to step thread count.
+ * Every step is a plain JMH run, including the step matching thread count of main run, since main run results may be
+ * measured by adaptive executors or parallel forks and would not be comparable. For every step throughput (operations per
+ * second, all threads) and latency (nanoseconds per operation, single thread) are derived from benchmark score
+ * regardless of benchmark mode. Scalability efficiency of step is throughput speedup over the lowest step divided by
+ * threads increase, so {@code 1.0} means linear scaling. Efficiency of the highest step is the benchmark scalability
+ * efficiency metric.
+ * <p>
+ * Thread group layouts (e.g. {@code 1,3} - one reader per three writers) are applied to {@code @Group} benchmarks
+ * only. JMH rounds threads count of group benchmarks up to multiple of group size, so effective thread counts are
+ * taken from benchmark results. Curves are recorded per benchmark parameters combination, prefixed by {@code @Param}
+ * values in benchmark metadata.
+ */
+public class ThreadScalingSweep {
+
+    public static final String EFFICIENCY_KEY = "scalingEfficiency";
+    public static final String THREADS_KEY = "scalingThreads";
+
+    private static final String MAX_THREADS = "max";
+    private static final String AUTO_LADDER = "auto";
+
+    private final Log log;
+    private final List<Integer> ladder;
+    private final List<int[]> threadGroups;
+
+    /**
+     * Constructs thread scaling sweep.
+     *
+     * @param log
+     *            log
+     * @param ladder
+     *            thread counts ladder, see {@link #parseLadder(String)}
+     * @param threadGroups
+     *            thread group layouts separated by semicolon, each layout is comma separated threads count of every
+     *            group member, e.g. {@code 1,1;1,3}, blank to use benchmark defined layout
+     */
+    public ThreadScalingSweep(Log log, List<Integer> ladder, String threadGroups) {
+        this.log = log;
+        this.ladder = ladder;
+        this.threadGroups = new ArrayList<>();
+        if (StringUtils.isNotBlank(threadGroups)) {
+            for (String layout : threadGroups.split(";")) {
+                if (StringUtils.isNotBlank(layout)) {
+                    this.threadGroups.add(parseLayout(layout));
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses thread counts ladder: comma separated thread counts, where {@code max} stands for number of available
+     * processors, or {@code auto} for powers of two up to number of available processors.
+     *
+     * @param ladder
+     *            thread counts ladder definition
+     * @return sorted distinct thread counts
+     * @throws IllegalArgumentException
+     *             if ladder definition is invalid
+     */
+    public static List<Integer> parseLadder(String ladder) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        SortedSet<Integer> threads = new TreeSet<>();
+        if (AUTO_LADDER.equalsIgnoreCase(ladder.trim())) {
+            for (int i = 1; i < cores; i *= 2) {
+                threads.add(i);
+            }
+            threads.add(cores);
+        } else {
+            for (String step : ladder.split(",")) {
+                if (StringUtils.isBlank(step)) {
+                    continue;
+                }
+                int count;
+                try {
+                    count = MAX_THREADS.equalsIgnoreCase(step.trim()) ? cores : Integer.parseInt(step.trim());
+                } catch (NumberFormatException exc) {
+                    throw new IllegalArgumentException("Invalid thread ladder step: " + step);
+                }
+                if (count <= 0) {
+                    throw new IllegalArgumentException("Thread ladder step must be positive: " + step);
+                }
+                threads.add(count);
+            }
+        }
+        return new ArrayList<>(threads);
+    }
+
+    private static int[] parseLayout(String layout) {
+        String[] groups = layout.split(",");
+        int[] counts = new int[groups.length];
+        try {
+            for (int i = 0; i < groups.length; i++) {
+                counts[i] = Integer.parseInt(groups[i].trim());
+            }
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("Invalid thread group layout: " + layout);
+        }
+        return counts;
+    }
+
+    /**
+     * Runs ladder steps of benchmarks selected by options and adds scaling curves to benchmark metadata.
+     *
+     * @param benchContext
+     *            benchmarking context
+     * @param options
+     *            JMH options of benchmarks to sweep, without measurement profilers
+     * @param mainResults
+     *            results of main benchmarks run, used to find {@code @Group} benchmarks
+     */
+    public void run(BenchmarkingContext benchContext, Options options, Collection<RunResult> mainResults) {
+        Set<String> benchmarks = PluginUtils.findBenchmarks(options);
+        Set<String> groupBenchmarks = new TreeSet<>();
+        for (RunResult result : mainResults) {
+            if (result.getParams().getThreadGroups().length > 1) {
+                groupBenchmarks.add(result.getParams().getBenchmark());
+            }
+        }
+
+        Map<String, Curve> curves = new LinkedHashMap<>();
+        if (threadGroups.isEmpty()) {
+            sweep(curves, "", options, benchmarks, benchmarks, null);
+        } else {
+            Set<String> plainBenchmarks = new TreeSet<>(benchmarks);
+            plainBenchmarks.removeAll(groupBenchmarks);
+            if (!plainBenchmarks.isEmpty()) {
+                sweep(curves, "", options, benchmarks, plainBenchmarks, null);
+            }
+            if (!groupBenchmarks.isEmpty()) {
+                for (int i = 0; i < threadGroups.size(); i++) {
+                    int[] layout = threadGroups.get(i);
+                    // first layout curve is benchmark scaling curve, other layouts are recorded with layout suffix
+                    String suffix = i == 0 ? ""
+                            : "@" + Arrays.stream(layout).mapToObj(String::valueOf).collect(Collectors.joining("x"));
+                    sweep(curves, suffix, options, benchmarks, groupBenchmarks, layout);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Curve> curve : curves.entrySet()) {
+            curve.getValue().addMetadata(benchContext);
+            log.info("Scaling of " + curve.getKey() + ": " + curve.getValue());
+        }
+    }
+
+    private void sweep(Map<String, Curve> curves, String suffix, Options options, Set<String> benchmarks,
+            Set<String> selected, int[] layout) {
+        for (int threads : ladder) {
+            log.info("Running thread scaling step: " + threads + " threads"
+                    + (layout == null ? "" : ", thread groups " + Arrays.toString(layout)));
+            ChainedOptionsBuilder stepOptions = PluginUtils.restrictTo(options, benchmarks, selected)
+                    .threads(threads);
+            if (layout != null) {
+                stepOptions.threadGroups(layout);
+            }
+            Collection<RunResult> results;
+            try {
+                results = ParallelForkScheduler.JMH_RUNNER.run(stepOptions.build());
+            } catch (Exception exc) {
+                log.warn("Thread scaling step of " + threads + " threads failed, skipping step: " + exc);
+                continue;
+            }
+            for (RunResult result : results) {
+                BenchmarkParams params = result.getParams();
+                if (selected.contains(params.getBenchmark())) {
+                    curves.computeIfAbsent(params.id() + suffix, k -> new Curve(params, suffix)).addPoint(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares scalability efficiency of every benchmark parameters combination with the latest result of previous
+     * project versions.
+     *
+     * @param history
+     *            reports history
+     * @param currentEntries
+     *            benchmarks of current run, see {@link ReportHistory#parseReport(Map)}
+     * @param tolerance
+     *            allowed efficiency decrease, e.g. {@code 0.1}
+     * @return list of scaling regressions
+     */
+    public static List<Regression> findRegressions(ReportHistory history,
+            Collection<ReportHistory.HistoryEntry> currentEntries, double tolerance) {
+        List<Regression> regressions = new ArrayList<>();
+        for (ReportHistory.HistoryEntry current : currentEntries) {
+            double efficiency = ReportHistory.toDouble(getMetadata(current, EFFICIENCY_KEY));
+            if (Double.isNaN(efficiency)) {
+                continue;
+            }
+            for (ReportHistory.HistoryEntry entry : history.find(current.getKey(), null, Integer.MAX_VALUE)) {
+                double previousEfficiency = ReportHistory.toDouble(getMetadata(entry, EFFICIENCY_KEY));
+                // efficiency of different ladders is not comparable
+                if (Objects.equals(entry.getVersion(), current.getVersion()) || Double.isNaN(previousEfficiency)
+                        || !Objects.equals(getMetadata(entry, THREADS_KEY), getMetadata(current, THREADS_KEY))) {
+                    continue;
+                }
+                if (efficiency < previousEfficiency - tolerance) {
+                    regressions.add(new Regression(current.getName(), current.getParams(), efficiency,
+                            previousEfficiency, entry.getVersion()));
+                }
+                break;
+            }
+        }
+        return regressions;
+    }
+
+    private static String getMetadata(ReportHistory.HistoryEntry entry, String key) {
+        return PluginUtils.getParamsValue(entry.getMetadata().get(key), entry.getParams());
+    }
+
+    /**
+     * Converts regressions to structure serializable into report.
+     *
+     * @param regressions
+     *            scaling regressions
+     * @return list of regression maps
+     */
+    public static List<Map<String, Object>> toMaps(List<Regression> regressions) {
+        List<Map<String, Object>> maps = new ArrayList<>(regressions.size());
+        for (Regression regression : regressions) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("benchmark", regression.getBenchmark());
+            map.put("params", regression.getParams());
+            map.put("efficiency", regression.getEfficiency());
+            map.put("previousEfficiency", regression.getPreviousEfficiency());
+            map.put("previousVersion", regression.getPreviousVersion());
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    /**
+     * Converts benchmark score to throughput of all benchmark threads.
+     *
+     * @param score
+     *            benchmark score
+     * @param unit
+     *            score unit, e.g. {@code ops/ms} or {@code ns/op}
+     * @param threads
+     *            benchmark threads count
+     * @return throughput in operations per second, or {@link Double#NaN} if unit is not recognized
+     */
+    static double toOpsPerSecond(double score, String unit, int threads) {
+        if (unit == null) {
+            return Double.NaN;
+        }
+        if (unit.startsWith("ops/")) {
+            return score / ResultUtils.toSeconds(unit.substring("ops/".length()));
+        }
+        if (unit.endsWith("/op")) {
+            return threads / (score * ResultUtils.toSeconds(unit.substring(0, unit.length() - "/op".length())));
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Throughput-vs-threads curve of single benchmark parameters combination.
+     */
+    static class Curve {
+        private final BenchmarkParams params;
+        private final String suffix;
+        private final SortedMap<Integer, Double> throughputs = new TreeMap<>();
+
+        Curve(BenchmarkParams params, String suffix) {
+            this.params = params;
+            this.suffix = suffix;
+        }
+
+        void addPoint(RunResult result) {
+            int threads = result.getParams().getThreads();
+            if (throughputs.containsKey(threads)) {
+                return;
+            }
+            double throughput = toOpsPerSecond(result.getPrimaryResult().getScore(),
+                    result.getPrimaryResult().getScoreUnit(), threads);
+            if (!Double.isNaN(throughput) && !Double.isInfinite(throughput)) {
+                throughputs.put(threads, throughput);
+            }
+        }
+
+        double getEfficiency(int threads) {
+            int baseThreads = throughputs.firstKey();
+            return throughputs.get(threads) / throughputs.get(baseThreads) * baseThreads / threads;
+        }
+
+        void addMetadata(BenchmarkingContext benchContext) {
+            if (throughputs.size() < 2) {
+                return;
+            }
+            List<String> threads = new ArrayList<>();
+            List<String> throughput = new ArrayList<>();
+            List<String> latency = new ArrayList<>();
+            List<String> efficiency = new ArrayList<>();
+            for (Map.Entry<Integer, Double> point : throughputs.entrySet()) {
+                threads.add(String.valueOf(point.getKey()));
+                throughput.add(String.format(Locale.ROOT, "%.3f", point.getValue()));
+                latency.add(String.format(Locale.ROOT, "%.3f", point.getKey() / point.getValue() * 1e9));
+                efficiency.add(String.format(Locale.ROOT, "%.3f", getEfficiency(point.getKey())));
+            }
+            PluginUtils.addBenchmarkMetadata(benchContext, params, THREADS_KEY + suffix, String.join(",", threads));
+            PluginUtils.addBenchmarkMetadata(benchContext, params, "scalingThroughputOpsPerSec" + suffix,
+                    String.join(",", throughput));
+            PluginUtils.addBenchmarkMetadata(benchContext, params, "scalingLatencyNsPerOp" + suffix,
+                    String.join(",", latency));
+            PluginUtils.addBenchmarkMetadata(benchContext, params, "scalingEfficiencies" + suffix,
+                    String.join(",", efficiency));
+            PluginUtils.addBenchmarkMetadata(benchContext, params, EFFICIENCY_KEY + suffix,
+                    String.format(Locale.ROOT, "%.3f", getEfficiency(throughputs.lastKey())));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Integer, Double> point : throughputs.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(String.format(Locale.ROOT, "%d threads: %.3f ops/s (efficiency %.3f)", point.getKey(),
+                        point.getValue(), getEfficiency(point.getKey())));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Benchmark which scalability efficiency decreased compared to previous project version.
+     */
+    public static class Regression {
+        private final String benchmark;
+        private final String params;
+        private final double efficiency;
+        private final double previousEfficiency;
+        private final String previousVersion;
+
+        public Regression(String benchmark, String params, double efficiency, double previousEfficiency,
+                String previousVersion) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.efficiency = efficiency;
+            this.previousEfficiency = previousEfficiency;
+            this.previousVersion = previousVersion;
+        }
+
+        public String getBenchmark() {
+            return benchmark;
+        }
+
+        /**
+         * Returns {@code @Param} values of regressed parameters combination.
+         *
+         * @return parameters key, see {@link ReportHistory#toParamsKey(Map)}, or {@code null} if benchmark has no
+         *         parameters
+         */
+        public String getParams() {
+            return params;
+        }
+
+        public double getEfficiency() {
+            return efficiency;
+        }
+
+        public double getPreviousEfficiency() {
+            return previousEfficiency;
+        }
+
+        public String getPreviousVersion() {
+            return previousVersion;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s%s=%.3f < %.3f of version %s",
+                    StringUtils.isEmpty(params) ? "" : params + ": ", EFFICIENCY_KEY, efficiency, previousEfficiency,
+                    previousVersion);
+        }
+    }
+}
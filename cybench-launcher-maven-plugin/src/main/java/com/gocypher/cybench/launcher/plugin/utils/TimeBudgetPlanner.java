@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2020-2022, K2N.IO.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gocypher.cybench.launcher.plugin.utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+
+import com.gocypher.cybench.launcher.model.BenchmarkingContext;
+
+/**
+ * Picks subset of benchmarks fitting into run time budget.
+ * <p>
+ * Cost of every benchmark is estimated from its duration recorded in the latest report found in reports folder, or
+ * from iterations settings when benchmark has no recorded duration. Benchmarks are prioritized by:
+ * <ul>
+ * <li>change of benchmark fingerprint (benchmark class and project classes it depends on) since the latest report</li>
+ * <li>volatility of benchmark score (coefficient of variation of scores in past reports, computed separately for
+ * every mode and parameters combination, the most volatile one is taken)</li>
+ * </ul>
+ * Benchmarks are picked by priority while they fit into the budget with iterations reduced down to
+ * {@value #MIN_SCALE} of configured counts, then iterations of picked benchmarks are reduced in proportion to fit the
+ * budget. Skipped benchmarks are listed in report with risk left uncovered by skipping them.
+ */
+public class TimeBudgetPlanner {
+
+    public static final String DURATION_KEY = "benchmarkDurationMillis";
+    public static final String FINGERPRINT_KEY = "dependencyFingerprint";
+    public static final String SCALE_KEY = "timeBudgetScale";
+
+    static final double MIN_SCALE = 0.3;
+    private static final double FORK_OVERHEAD_SECONDS = 1.5;
+    private static final double HIGH_VOLATILITY = 0.1;
+    private static final int HISTORY_SIZE = 10;
+
+    private final Log log;
+    private final int budgetSeconds;
+    private final int forks;
+    private final int warmUpIterations;
+    private final int warmUpTime;
+    private final int measurementIterations;
+    private final int measurementTime;
+
+    private final List<Candidate> selected = new ArrayList<>();
+    private final List<Candidate> skipped = new ArrayList<>();
+    private double scale = 1;
+
+    /**
+     * Constructs time budget planner.
+     *
+     * @param log
+     *            log
+     * @param budgetSeconds
+     *            run time budget in seconds
+     * @param forks
+     *            forks count
+     * @param warmUpIterations
+     *            warm-up iterations count
+     * @param warmUpTime
+     *            warm-up iteration time in seconds
+     * @param measurementIterations
+     *            measurement iterations count
+     * @param measurementTime
+     *            measurement iteration time in seconds
+     */
+    public TimeBudgetPlanner(Log log, int budgetSeconds, int forks, int warmUpIterations, int warmUpTime,
+            int measurementIterations, int measurementTime) {
+        this.log = log;
+        this.budgetSeconds = budgetSeconds;
+        this.forks = Math.max(1, forks);
+        this.warmUpIterations = warmUpIterations;
+        this.warmUpTime = warmUpTime;
+        this.measurementIterations = measurementIterations;
+        this.measurementTime = measurementTime;
+    }
+
+    /**
+     * Picks benchmarks fitting into time budget.
+     *
+     * @param benchmarks
+     *            benchmarks selected to run
+     * @param fingerprints
+     *            current benchmark fingerprints
+     * @param history
+     *            benchmark reports history
+     */
+    public void plan(Collection<String> benchmarks, Map<String, String> fingerprints, ReportHistory history) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (String benchmark : benchmarks) {
+            candidates.add(evaluate(benchmark, fingerprints.get(benchmark),
+                    history.findByName(benchmark, Integer.MAX_VALUE)));
+        }
+        candidates.sort(Comparator.comparingDouble((Candidate candidate) -> -candidate.priority)
+                .thenComparingDouble(candidate -> candidate.costSeconds).thenComparing(candidate -> candidate.name));
+
+        double selectedCost = 0;
+        for (Candidate candidate : candidates) {
+            // the most important benchmark is run even if it does not fit
+            if (selected.isEmpty() || (selectedCost + candidate.costSeconds) * MIN_SCALE <= budgetSeconds) {
+                selected.add(candidate);
+                selectedCost += candidate.costSeconds;
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        scale = selectedCost <= budgetSeconds ? 1 : budgetSeconds / selectedCost;
+
+        log.info(String.format(Locale.ROOT,
+                "Time budget %ds: running %d of %d benchmarks (estimated %.0fs) with iterations scaled by %.2f",
+                budgetSeconds, selected.size(), candidates.size(), selectedCost * scale, scale));
+        for (Candidate candidate : skipped) {
+            log.warn("Time budget: skipping " + candidate.name + " (" + candidate.describe() + ")");
+        }
+    }
+
+    /**
+     * Estimates run durations of benchmarks, the same way as benchmark costs are estimated for time budgeted run.
+     *
+     * @param benchmarks
+     *            benchmarks selected to run
+     * @param history
+     *            benchmark reports history
+     * @return map of benchmark name and its estimated run duration in seconds
+     */
+    public Map<String, Double> estimateCosts(Collection<String> benchmarks, ReportHistory history) {
+        Map<String, Double> costs = new HashMap<>();
+        for (String benchmark : benchmarks) {
+            Candidate candidate = new Candidate(benchmark);
+            estimateCost(candidate, history.findByName(benchmark, Integer.MAX_VALUE));
+            costs.put(benchmark, candidate.costSeconds);
+        }
+        return costs;
+    }
+
+    private void estimateCost(Candidate candidate, List<ReportHistory.HistoryEntry> entries) {
+        candidate.costSeconds = estimateDefaultCost();
+        for (ReportHistory.HistoryEntry entry : entries) {
+            double duration = ReportHistory.toDouble(entry.getMetadata().get(DURATION_KEY));
+            if (!Double.isNaN(duration) && duration > 0) {
+                double entryScale = ReportHistory.toDouble(entry.getMetadata().get(SCALE_KEY));
+                candidate.costSeconds = duration / 1000 / (Double.isNaN(entryScale) ? 1 : entryScale);
+                candidate.measuredCost = true;
+                break;
+            }
+        }
+    }
+
+    private Candidate evaluate(String benchmark, String fingerprint, List<ReportHistory.HistoryEntry> entries) {
+        Candidate candidate = new Candidate(benchmark);
+        estimateCost(candidate, entries);
+
+        String previousFingerprint = null;
+        for (ReportHistory.HistoryEntry entry : entries) {
+            previousFingerprint = entry.getMetadata().get(FINGERPRINT_KEY);
+            if (previousFingerprint != null) {
+                break;
+            }
+        }
+        candidate.changed = fingerprint == null || !fingerprint.equals(previousFingerprint);
+
+        // scores of different modes and parameters combinations are not comparable, so each is a separate series
+        Map<String, List<Double>> series = new HashMap<>();
+        for (ReportHistory.HistoryEntry entry : entries) {
+            List<Double> scores = series.computeIfAbsent(entry.getMode() + " " + entry.getParams(),
+                    k -> new ArrayList<>());
+            if (scores.size() < HISTORY_SIZE) {
+                scores.add(entry.getScore());
+            }
+        }
+        candidate.volatility = Double.NaN;
+        for (List<Double> scores : series.values()) {
+            if (scores.size() < 2) {
+                continue;
+            }
+            double[] values = new double[scores.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = scores.get(i);
+            }
+            double volatility = ResultUtils.coefficientOfVariation(values, 0, values.length);
+            if (Double.isNaN(candidate.volatility) || volatility > candidate.volatility) {
+                candidate.volatility = volatility;
+            }
+        }
+
+        // unknown volatility is considered high, since there is no evidence benchmark is stable
+        double volatilityWeight = Double.isNaN(candidate.volatility) ? 1
+                : Math.min(1, candidate.volatility / HIGH_VOLATILITY);
+        candidate.priority = (candidate.changed ? 2 : 0) + volatilityWeight;
+        return candidate;
+    }
+
+    private double estimateDefaultCost() {
+        return forks * (warmUpIterations * warmUpTime + measurementIterations * measurementTime
+                + FORK_OVERHEAD_SECONDS);
+    }
+
+    /**
+     * Restricts options to picked benchmarks and reduces their iterations counts.
+     *
+     * @param options
+     *            JMH options
+     * @param benchmarks
+     *            all benchmarks selected by options
+     * @return options builder of time budgeted run
+     */
+    public ChainedOptionsBuilder apply(Options options, Collection<String> benchmarks) {
+        Set<String> selectedNames = new TreeSet<>();
+        for (Candidate candidate : selected) {
+            selectedNames.add(candidate.name);
+        }
+        ChainedOptionsBuilder optionsBuilder = PluginUtils.restrictTo(options, benchmarks, selectedNames);
+        if (scale < 1) {
+            optionsBuilder.warmupIterations(scaleIterations(
+                    options.getWarmupIterations().orElse(warmUpIterations), 0));
+            optionsBuilder.measurementIterations(scaleIterations(
+                    options.getMeasurementIterations().orElse(measurementIterations), 1));
+        }
+        return optionsBuilder;
+    }
+
+    private int scaleIterations(int iterations, int minIterations) {
+        return Math.max(minIterations, (int) Math.round(iterations * scale));
+    }
+
+    /**
+     * Adds time budget scale to metadata of picked benchmarks.
+     *
+     * @param benchContext
+     *            benchmarking context
+     */
+    public void addMetadata(BenchmarkingContext benchContext) {
+        for (Candidate candidate : selected) {
+            PluginUtils.addBenchmarkMetadata(benchContext, candidate.name, SCALE_KEY,
+                    String.format(Locale.ROOT, "%.3f", scale));
+        }
+    }
+
+    /**
+     * Returns time budget plan, serializable into report.
+     *
+     * @return plan map
+     */
+    public Map<String, Object> toMap() {
+        double totalRisk = 0;
+        double skippedRisk = 0;
+        List<Map<String, Object>> skippedBenchmarks = new ArrayList<>();
+        for (Candidate candidate : selected) {
+            totalRisk += candidate.priority;
+        }
+        for (Candidate candidate : skipped) {
+            totalRisk += candidate.priority;
+            skippedRisk += candidate.priority;
+            Map<String, Object> skippedBenchmark = new LinkedHashMap<>();
+            skippedBenchmark.put("benchmark", candidate.name);
+            skippedBenchmark.put("estimatedSeconds", Math.round(candidate.costSeconds));
+            skippedBenchmark.put("changed", candidate.changed);
+            skippedBenchmark.put("volatilityPercent",
+                    Double.isNaN(candidate.volatility) ? null : candidate.volatility * 100);
+            skippedBenchmark.put("risk", candidate.getRisk());
+            skippedBenchmarks.add(skippedBenchmark);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("budgetSeconds", budgetSeconds);
+        map.put("iterationsScale", scale);
+        map.put("selectedCount", selected.size());
+        map.put("skippedCount", skipped.size());
+        map.put("uncoveredRiskPercent", totalRisk == 0 ? 0 : skippedRisk / totalRisk * 100);
+        map.put("skipped", skippedBenchmarks);
+        return map;
+    }
+
+    /**
+     * Benchmark considered for time budgeted run.
+     */
+    static class Candidate {
+        final String name;
+        double costSeconds;
+        boolean measuredCost;
+        boolean changed;
+        double volatility;
+        double priority;
+
+        Candidate(String name) {
+            this.name = name;
+        }
+
+        String getRisk() {
+            if (changed) {
+                return "high";
+            }
+            return priority >= 0.5 ? "medium" : "low";
+        }
+
+        String describe() {
+            return String.format(Locale.ROOT, "%s, %s, estimated %s%.0fs, risk %s",
+                    changed ? "changed" : "unchanged",
+                    Double.isNaN(volatility) ? "volatility unknown"
+                            : String.format(Locale.ROOT, "volatility %.1f%%", volatility * 100),
+                    measuredCost ? "" : "~", costSeconds, getRisk());
+        }
+    }
+
+    /**
+     * Records wall clock duration of every benchmark (all parameters combinations) into benchmark metadata.
+     */
+    public static class DurationRecorder implements NotifyingOutputFormat.BenchmarkListener {
+        private final Map<String, Long> startTimes = new ConcurrentHashMap<>();
+        private final Map<String, Long> durations = new ConcurrentHashMap<>();
+
+        @Override
+        public void benchmarkStarted(BenchmarkParams params) {
+            startTimes.put(params.id(), System.nanoTime());
+        }
+
+        @Override
+        public void benchmarkFinished(RunResult result) {
+            Long start = startTimes.remove(result.getParams().id());
+            if (start != null) {
+                durations.merge(result.getParams().getBenchmark(), System.nanoTime() - start, Long::sum);
+            }
+        }
+
+        /**
+         * Returns wall clock duration of benchmark recorded so far.
+         *
+         * @param benchmark
+         *            benchmark name
+         * @return duration in nanoseconds of all finished runs of benchmark
+         */
+        public long getDuration(String benchmark) {
+            return durations.getOrDefault(benchmark, 0L);
+        }
+
+        /**
+         * Adds recorded durations to benchmark metadata.
+         *
+         * @param benchContext
+         *            benchmarking context
+         */
+        public void addMetadata(BenchmarkingContext benchContext) {
+            for (Map.Entry<String, Long> duration : durations.entrySet()) {
+                PluginUtils.addBenchmarkMetadata(benchContext, duration.getKey(), DURATION_KEY,
+                        String.valueOf(duration.getValue() / 1_000_000));
+            }
+        }
+    }
+}